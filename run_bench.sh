@@ -0,0 +1,27 @@
+#!/bin/bash
+# - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+# File            run_bench.sh
+# Description     Compiles Java source files and runs a benchmark, e.g.
+#                 ./run_bench.sh csr 1000 10000
+# Author          Xin Cai
+# - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+
+# Run from the repository root, the benchmarks read ./data
+cd "$(dirname "$0")" || exit 1
+
+# Create bin folder if it doesn't exist
+mkdir -p bin
+
+# Remove .class files
+rm -f bin/*.class
+
+# Compile Java source files
+javac -d bin src/*.java
+
+# Check if compilation was successful
+if [ $? -eq 0 ]; then
+    # Run the benchmark, large graphs need a bigger heap
+    java -Xmx3g -cp bin Benchmark "$@"
+else
+    echo "Error: compilation failed."
+fi
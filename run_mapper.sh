@@ -18,7 +18,7 @@ javac -d bin src/*.java
 # Check if compilation was successful
 if [ $? -eq 0 ]; then
     # Run the app
-    java -cp bin MapApp
+    java -cp bin MapApp "$@"
 else
     echo "Eroror: compilation failed."
 fi
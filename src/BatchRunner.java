@@ -0,0 +1,196 @@
+/**
+ * @file   BatchRunner.java
+ * @brief  Headless batch mode of MapApp. Route requests, one "src tgt"
+ *         pair per line, stream in from a file or stdin and results stream
+ *         out as CSV or JSON lines with the distance and the node sequence.
+ *         Requests are read in blocks; each block is routed in parallel on
+ *         the common fork-join pool, whose worker threads keep their own
+ *         search buffers, and written out in input order. The throughput is
+ *         reported on stderr.
+ *
+ * @see    MapApp
+ * @author Xin Cai
+ */
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.StringJoiner;
+import java.util.stream.IntStream;
+
+
+final class BatchRunner {
+    /** Output formats of the results */
+    enum Format { CSV, JSON }
+
+    /* requests routed in parallel at a time, bounds the memory in use */
+    private static final int BLOCK_SIZE = 8_192;
+
+    private final CsrGraph graph;
+    private final RouteTable table;
+    private final Format format;
+
+    /**
+     * @param graph a frozen graph
+     * @param table the route table of that graph, or null to search
+     * @param format output format of the results
+     */
+    BatchRunner(CsrGraph graph, RouteTable table, Format format) {
+        this.graph  = graph;
+        this.table  = table;
+        this.format = format;
+    }
+
+    /**
+     * Route every request of the input and write one result per line.
+     *
+     * @param in route requests, one "src tgt" pair per line
+     * @param out results, in the order of the requests
+     * @return Number of requests processed.
+     * @throws IOException if reading or writing fails.
+     */
+    long run(BufferedReader in, Writer out) throws IOException {
+        if (format == Format.CSV)
+            out.write("src,tgt,distance,path,error\n");
+
+        final long start = System.nanoTime();
+        long count = 0;
+        ArrayList<String> block = new ArrayList<>(BLOCK_SIZE);
+        String line;
+
+        while ((line = in.readLine()) != null) {
+            if (line.isBlank())
+                continue;
+            block.add(line);
+            if (block.size() == BLOCK_SIZE) {
+                count += this.runBlock(block, out);
+                block.clear();
+            }
+        }
+        count += this.runBlock(block, out);
+        out.flush();
+
+        final double secs = (System.nanoTime() - start) / 1e9;
+        System.err.printf("%d queries in %.1f ms, %.0f queries/s%n",
+            count, secs * 1e3, count / Math.max(secs, 1e-9));
+        return count;
+    }
+
+    /**
+     * Route one block of requests in parallel, then write the results.
+     */
+    private int runBlock(ArrayList<String> block, Writer out)
+        throws IOException
+    {
+        final String[] results = new String[block.size()];
+        IntStream.range(0, results.length).parallel()
+            .forEach(i -> results[i] = this.route(block.get(i)));
+
+        for (String result : results)
+            out.write(result);
+        return results.length;
+    }
+
+    /**
+     * @param request a "src tgt" pair
+     * @return The formatted result of the request, ending in a newline.
+     */
+    private String route(String request) {
+        final String[] args = request.trim().split("\\s+");
+        if (args.length != 2)
+            return this.error("", "", "Expected 'src tgt': " + request);
+
+        try {
+            final int src = Integer.parseInt(args[0]);
+            final int tgt = Integer.parseInt(args[1]);
+            ArrayList<Integer> path = table != null ?
+                table.getShortestPath(src, tgt) :
+                graph.getShortestPath(src, tgt);
+            return this.result(src, tgt, this.distance(path), path);
+
+        } catch (IllegalArgumentException e) {
+            return this.error(args[0], args[1], e.getMessage());
+        }
+    }
+
+    /**
+     * @return Cost of a path returned by getShortestPath, whose graph
+     *         edges run from each node to the one before it.
+     */
+    private int distance(ArrayList<Integer> path) {
+        int total = 0;
+        for (int i = 0; i + 1 < path.size(); ++i) {
+            total += graph.costs()[graph.edgeIndex(
+                graph.indexOf(path.get(i + 1)), graph.indexOf(path.get(i)))];
+        }
+        return total;
+    }
+
+    private String result(int src, int tgt, int dist, ArrayList<Integer> path) {
+        if (format == Format.CSV) {
+            StringJoiner sj = new StringJoiner(" ");
+            path.forEach(id -> sj.add(id.toString()));
+            return src + "," + tgt + "," + dist + "," + sj + ",\n";
+        }
+        StringJoiner sj = new StringJoiner(",", "[", "]");
+        path.forEach(id -> sj.add(id.toString()));
+        return "{\"src\":" + src + ",\"tgt\":" + tgt + ",\"distance\":" +
+            dist + ",\"path\":" + sj + "}\n";
+    }
+
+    private String error(String src, String tgt, String message) {
+        if (format == Format.CSV)
+            return csvField(src) + "," + csvField(tgt) + ",,," +
+                csvField(message) + "\n";
+
+        return "{\"src\":" + jsonValue(src) + ",\"tgt\":" + jsonValue(tgt) +
+            ",\"error\":\"" + jsonEscape(message) + "\"}\n";
+    }
+
+    /**
+     * @return The field, quoted if it holds a comma, quote or newline.
+     */
+    private static String csvField(String field) {
+        if (field.indexOf(',') < 0 && field.indexOf('"') < 0 &&
+            field.indexOf('\n') < 0)
+            return field;
+        return "\"" + field.replace("\"", "\"\"") + "\"";
+    }
+
+    /**
+     * @return The argument as a JSON number if it parses as an id, e.g.
+     *         7 for "007", otherwise as a JSON string, or null if it is
+     *         empty.
+     */
+    private static String jsonValue(String arg) {
+        if (arg.isEmpty())
+            return "null";
+        try {
+            return String.valueOf(Integer.parseInt(arg));
+        } catch (NumberFormatException e) {
+            return "\"" + jsonEscape(arg) + "\"";
+        }
+    }
+
+    /**
+     * @return The text escaped for use inside a JSON string.
+     */
+    static String jsonEscape(String text) {
+        StringBuilder sb = new StringBuilder(text.length());
+        for (char c : text.toCharArray()) {
+            switch (c) {
+                case '"'  -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\t' -> sb.append("\\t");
+                default   -> {
+                    if (c < 0x20)
+                        sb.append(String.format("\\u%04x", (int) c));
+                    else
+                        sb.append(c);
+                }
+            }
+        }
+        return sb.toString();
+    }
+}
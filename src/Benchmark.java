@@ -0,0 +1,2383 @@
+/**
+ * @file   Benchmark.java
+ * @brief  Command-line micro-benchmarks for the graph engines. The first
+ *         argument selects the benchmark, the remaining ones are graph
+ *         sizes, e.g. `java -cp bin Benchmark csr 1000 10000`. The `check`
+ *         argument runs the correctness checks of all the benchmarks but
+ *         the timed `stress` and `http` runs on small inputs, without
+ *         timing anything. The campus data is read from ./data, so run
+ *         it from the repository root.
+ *
+ *         Graphs are synthetic grids: node i sits at row i / w and column
+ *         i % w of a w-by-w grid, with bidirectional edges to its right and
+ *         lower neighbors and random costs in [1, 9].
+ *
+ * @author Xin Cai
+ */
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+
+class Benchmark {
+    /* default graph sizes, from 10^3 to 10^6 nodes */
+    private static final int[] DEFAULT_SIZES = {1_000, 10_000, 100_000, 1_000_000};
+
+    /* campus data shipped with the app */
+    static final String DAT_FILE = "./data/buildingData.txt";
+    static final String MAP_FILE = "./data/campusMap.txt";
+
+    /* fixed seed so that every run sees the same graphs and queries */
+    private static final long SEED = 400L;
+
+    /* reader threads and duration of the concurrent stress test */
+    private static final int STRESS_READERS = 4;
+    private static final long STRESS_MILLIS = 2_000;
+
+    /* default numbers of concurrent clients of the HTTP load generator */
+    private static final int[] HTTP_CLIENTS = {1, 8, 32, 128};
+
+    /* cells highlighted per frame in the map board benchmark */
+    private static final int BOARD_HIGHLIGHTS = 200;
+
+    /* highlighted buildings per frame in the renderer benchmark */
+    private static final int[] RENDER_BUILDINGS = {4, 64};
+
+    /* pool sizes of the parallel parse benchmark */
+    private static final int[] PARSE_THREADS = {1, 2, 4, 8};
+
+    /* service query of the ServiceIndex benchmark, same as its bit loop */
+    private static final String SERVICE_QUERY =
+        "dining and parking but not library";
+
+    public static void main(String[] args)
+        throws IOException, InterruptedException
+    {
+        final String name = args.length > 0 ? args[0] : "csr";
+        final int[] sizes = parseSizes(args);
+
+        switch (name) {
+            case "csr"      -> benchCsr(sizes);
+            case "dijkstra" -> benchDijkstra(sizes);
+            case "astar"    -> benchAStar(sizes);
+            case "bidir"    -> benchBidirectional(sizes);
+            case "ch"       -> benchContraction(sizes);
+            case "table"    -> benchRouteTable(sizes);
+            case "tree"     -> benchTree(sizes);
+            case "nearest"  -> benchNearest(sizes);
+            case "ksp"      -> benchKShortest(sizes);
+            case "mutate"   -> benchMutation(sizes);
+            case "repair"   -> benchRepair(sizes);
+            case "stress"   -> benchStress(sizes);
+            case "http"     -> benchHttp(args.length > 1 ? sizes : HTTP_CLIENTS);
+            case "load"     -> benchLoad(sizes);
+            case "snapshot" -> benchSnapshot(sizes);
+            case "parse"    -> benchParse(sizes);
+            case "reload"   -> benchReload(sizes);
+            case "board"    -> benchBoard(sizes);
+            case "render"   -> benchRender(sizes);
+            case "output"   -> benchOutput(sizes);
+            case "tiles"    -> benchTiles(sizes);
+            case "services" -> benchServices(sizes);
+            case "names"    -> benchNames(sizes);
+            case "check"    -> runChecks();
+            default         -> System.err.println("Unknown benchmark: " + name);
+        }
+    }
+
+    /**
+     * A correctness check, run by runChecks.
+     */
+    @FunctionalInterface
+    private interface Check {
+        void run() throws Exception;
+    }
+
+    /**
+     * Run the correctness checks of every benchmark but the timed stress
+     * and http runs on the campus data and on small synthetic inputs,
+     * print one line per check, and exit with status 1 if any of them
+     * failed. The campus data is read from ./data, so this has to run
+     * from the repository root.
+     */
+    private static void runChecks() {
+        if (!Files.isRegularFile(Path.of(DAT_FILE))) {
+            System.out.println("Missing " + DAT_FILE +
+                               ", run the checks from the repository root");
+            System.exit(1);
+        }
+        final int n = 1_000;
+        int failed = 0;
+        failed += check("readers load the same data", () -> {
+            checkSameLoad(new FileReader(DAT_FILE, MAP_FILE),
+                          new MappedFileReader(DAT_FILE, MAP_FILE));
+            final Path dat = writeDatFile(1_000, new Random(SEED));
+            checkSameLoad(new FileReader(dat.toString(), MAP_FILE),
+                          new MappedFileReader(dat.toString(), MAP_FILE));
+            Files.delete(dat);
+        });
+        failed += check("Graph and CsrGraph route the same", () -> {
+            Graph graph = gridGraph(1_000, new Random(SEED));
+            checkSameCost(graph, graph.freeze(),
+                          randomPairs(1_000, 100, new Random(SEED)));
+        });
+        failed += check("A* routes the same as Dijkstra", () -> {
+            FileReader reader = new FileReader(DAT_FILE, MAP_FILE);
+            CsrGraph campus = reader.getCampusGraph().freeze();
+            checkAStar(campus, GridHeuristic.fromBorderTable(campus,
+                reader.getBorderTable()), allPairs(campus.nodeCount()));
+        });
+        failed += check("bidirectional routes the same", () -> {
+            Graph campus = new FileReader(DAT_FILE, MAP_FILE).getCampusGraph();
+            checkBidirectional(campus, campus.freeze(),
+                               allPairs(campus.freeze().nodeCount()), false);
+            Graph graph = gridGraph(n, new Random(SEED), 1, 1_000_000);
+            checkBidirectional(graph, graph.freeze(),
+                               randomPairs(n, 100, new Random(SEED)), true);
+        });
+        failed += check("contraction hierarchy routes the same", () -> {
+            CsrGraph csr = gridGraph(n, new Random(SEED)).freeze();
+            checkContraction(csr, new ContractionHierarchy(csr),
+                             randomPairs(n, 100, new Random(SEED)));
+        });
+        failed += check("route table routes the same", () -> {
+            CsrGraph csr = gridGraph(n, new Random(SEED)).freeze();
+            checkRouteTable(csr, new RouteTable(csr),
+                            randomPairs(n, 100, new Random(SEED)));
+        });
+        failed += check("campus trees match the route table",
+                        Benchmark::checkCampusTrees);
+        failed += check("tree paths route the same", () -> {
+            final int[][] pairs = randomPairs(n, 100, new Random(SEED));
+            checkTree(gridGraph(n, new Random(SEED)), pairs[0][0], pairs);
+        });
+        failed += check("nearest facility", () -> {
+            CsrGraph csr = gridGraph(n, new Random(SEED)).freeze();
+            final int[] facilities = { 3, 250, 517, 998 };
+            checkNearest(csr, new NearestServiceTable(csr, facilities),
+                         facilities, randomPairs(n, 100, new Random(SEED)));
+        });
+        failed += check("batch edge changes", () -> {
+            Graph graph = gridGraph(n, new Random(SEED));
+            final int version = graph.getVersion();
+            graph.applyEdgeChanges(randomEdgeChanges(n, n / 10,
+                                                     new Random(SEED)));
+            checkMutation(graph, n, version);
+        });
+        failed += check("repaired tree matches recompute", () ->
+            checkRepair(gridGraph(n, new Random(SEED)).freeze(), 200));
+        failed += check("k shortest routes", () -> {
+            CsrGraph csr = gridGraph(1_000, new Random(SEED)).freeze();
+            KShortestPaths ksp = new KShortestPaths(csr);
+            for (int[] p : randomPairs(1_000, 20, new Random(SEED)))
+                checkRoutes(csr, p, ksp.getShortestPaths(p[0], p[1], 8));
+        });
+        failed += check("snapshot loads the same data", () -> {
+            final Path snap = Files.createTempFile("campus", ".snap");
+            FileReader text = new MappedFileReader(DAT_FILE, MAP_FILE);
+            SnapshotReader.write(text, DAT_FILE, MAP_FILE, snap.toString());
+            checkSameLoad(text,
+                SnapshotReader.load(DAT_FILE, MAP_FILE, snap.toString()));
+            Files.delete(snap);
+        });
+        failed += check("corrupt snapshot is rejected",
+                        Benchmark::checkCorruptSnapshot);
+        failed += check("bad data file is not snapshotted",
+                        Benchmark::checkBadLineSnapshot);
+        failed += check("parallel parse reports bad lines", () -> {
+            final Path dat = writeDatFile(n, new Random(SEED));
+            Files.writeString(dat, "x Bad Hall $ 0 0 0\n",
+                              StandardOpenOption.APPEND);
+            checkParse(dat.toString(), n);
+            Files.delete(dat);
+        });
+        failed += check("reload patches the live graph",
+                        Benchmark::checkReload);
+        failed += check("partial data file is not reloaded",
+                        Benchmark::checkPartialReload);
+        failed += check("board renders like map cells", () ->
+            checkBoard(randomRows(64, new Random(SEED)), 5));
+        failed += check("renderer renders like the board", () -> {
+            for (int buildings : RENDER_BUILDINGS)
+                checkRender(randomRows(64, new Random(SEED)), buildings, 5);
+        });
+        failed += check("tiled views match the whole map", () -> {
+            final Path map = writeMapFile(300, new Random(SEED));
+            checkTiles(map.toString(), 20);
+            checkTiles(MAP_FILE, 20);
+            Files.delete(map);
+        });
+        failed += check("service index selects like the loop", () -> {
+            final Random rand = new Random(SEED);
+            HashMap<Integer, Building> table = randomServices(n, rand);
+            checkServices(table, serviceIndex(table, rand));
+        });
+        failed += check("misspelled name is found", () -> {
+            checkMisspelledName(new NameIndex(
+                new MappedFileReader(DAT_FILE, null).getBuildingTable()));
+        });
+        failed += check("exact prefix ranks first",
+                        Benchmark::checkPrefixRanking);
+        failed += check("bounded name lookup", () -> {
+            HashMap<Integer, Building> table =
+                new MappedFileReader(DAT_FILE, null).getBuildingTable();
+            ArrayList<String> exact = new ArrayList<>();
+            ArrayList<String> typo = new ArrayList<>();
+            for (Building b : table.values()) {
+                exact.add(b.name.substring(0,
+                    Math.max(1, b.name.length() / 2)));
+                typo.add(b.name.replace('e', 'a'));
+            }
+            checkBoundedLookup(new NameIndex(table),
+                               exact.toArray(new String[0]),
+                               typo.toArray(new String[0]));
+        });
+
+        if (failed > 0) {
+            System.out.println(failed + " checks failed");
+            System.exit(1);
+        }
+        System.out.println("all checks passed");
+    }
+
+    /**
+     * Run one check and print its outcome.
+     *
+     * @return 1 if the check failed, 0 if it passed.
+     */
+    private static int check(String name, Check check) {
+        try {
+            check.run();
+            System.out.println("ok   " + name);
+            return 0;
+        } catch (Exception e) {
+            System.out.println("FAIL " + name + ": " + e);
+            return 1;
+        }
+    }
+
+    /**
+     * @param args command-line arguments, sizes start at args[1]
+     * @return The graph sizes to run, or the defaults if none given.
+     */
+    private static int[] parseSizes(String[] args) {
+        if (args.length < 2)
+            return DEFAULT_SIZES;
+
+        int[] sizes = new int[args.length - 1];
+        for (int i = 1; i < args.length; ++i)
+            sizes[i - 1] = Integer.parseInt(args[i].replace("_", ""));
+        return sizes;
+    }
+
+    /**
+     * Compare memory footprint and query latency of the HashMap Graph with
+     * its frozen CSR copy.
+     */
+    private static void benchCsr(int[] sizes) {
+        System.out.printf("%10s %12s %12s %14s %14s%n",
+            "nodes", "hashmap MB", "csr MB", "hashmap us/q", "csr us/q");
+
+        for (int n : sizes) {
+            final long base = usedMemory();
+            Graph graph = gridGraph(n, new Random(SEED));
+            final long graphBytes = usedMemory() - base;
+
+            CsrGraph csr = graph.freeze();
+            final long csrBytes = usedMemory() - base - graphBytes;
+
+            final int[][] pairs = randomPairs(n, queryCount(n), new Random(SEED));
+
+            // warm up both engines before timing
+            runQueries(graph, pairs);
+            runQueries(csr, pairs);
+
+            final double graphUs = runQueries(graph, pairs);
+            final double csrUs   = runQueries(csr, pairs);
+
+            checkSameCost(graph, csr, pairs);
+
+            System.out.printf("%10d %12.1f %12.1f %14.1f %14.1f%n",
+                n, graphBytes / 1e6, csrBytes / 1e6, graphUs, csrUs);
+        }
+    }
+
+    /**
+     * Measure latency, allocation and GC activity of the allocation-free
+     * DijkstraEngine in steady state.
+     */
+    private static void benchDijkstra(int[] sizes) {
+        System.out.printf("%10s %12s %12s %14s %14s %8s%n", "nodes",
+            "graph us/q", "engine us/q", "search B/q", "path B/q", "GCs");
+
+        for (int n : sizes) {
+            Graph graph = gridGraph(n, new Random(SEED));
+            CsrGraph csr = graph.freeze();
+            DijkstraEngine engine = csr.engine();
+            final int[][] pairs = randomPairs(n, queryCount(n), new Random(SEED));
+
+            // warm up, also grows the thread's search buffers
+            runQueries(graph, pairs);
+            runQueries(csr, pairs);
+            runSearches(engine, pairs);
+
+            final double graphUs = runQueries(graph, pairs);
+
+            // distance-only searches should not allocate at all
+            final long gcBefore = gcCount();
+            final long allocBefore = allocatedBytes();
+            final double engineUs = runSearches(engine, pairs);
+            final long searchBytes = allocatedBytes() - allocBefore;
+            final long gcs = gcCount() - gcBefore;
+
+            // full queries only allocate the returned path
+            final long pathBefore = allocatedBytes();
+            runQueries(csr, pairs);
+            final long pathBytes = allocatedBytes() - pathBefore;
+
+            System.out.printf("%10d %12.1f %12.1f %14d %14d %8d%n",
+                n, graphUs, engineUs, searchBytes / pairs.length,
+                pathBytes / pairs.length, gcs);
+        }
+    }
+
+    /**
+     * Compare settled nodes and latency of A* against Dijkstra, first on
+     * the campus data, then on synthetic grids whose edge costs grow with
+     * their length as walkway costs do.
+     */
+    private static void benchAStar(int[] sizes) {
+        System.out.printf("%10s %14s %14s %12s %12s%n", "nodes",
+            "dijkstra set/q", "astar set/q", "dijkstra us", "astar us");
+
+        // campus graph with positions from the map's border table
+        FileReader reader = new FileReader(DAT_FILE, MAP_FILE);
+        CsrGraph campus = reader.getCampusGraph().freeze();
+        GridHeuristic campusH =
+            GridHeuristic.fromBorderTable(campus, reader.getBorderTable());
+        compareAStar("campus", campus, campusH,
+            allPairs(campus.nodeCount()));
+
+        for (int n : sizes) {
+            CsrGraph csr = gridGraph(n, new Random(SEED), 6, 9).freeze();
+            final int w = gridWidth(n);
+            double[] rows = new double[n];
+            double[] cols = new double[n];
+            boolean[] known = new boolean[n];
+            for (int i = 0; i < n; ++i) {
+                rows[i]  = i / w;
+                cols[i]  = i % w;
+                known[i] = true;
+            }
+            GridHeuristic h = new GridHeuristic(csr, rows, cols, known);
+            compareAStar(String.valueOf(n), csr, h,
+                randomPairs(n, queryCount(n), new Random(SEED)));
+        }
+    }
+
+    /**
+     * Print one row of the A* benchmark, checking that both searches find
+     * paths of the same cost.
+     */
+    private static void compareAStar(
+        String label, CsrGraph csr, GridHeuristic h, int[][] pairs)
+    {
+        DijkstraEngine engine = csr.engine();
+        long dijkstraSettled = 0;
+        long astarSettled = 0;
+
+        // warm up
+        runSearches(engine, pairs);
+        runAStar(engine, h, pairs);
+
+        long start = System.nanoTime();
+        for (int[] p : pairs) {
+            engine.search(p[0], p[1]);
+            dijkstraSettled += DijkstraEngine.lastSettledCount();
+        }
+        final double dijkstraUs = (System.nanoTime() - start) / 1e3 / pairs.length;
+
+        start = System.nanoTime();
+        for (int[] p : pairs) {
+            engine.searchAStar(p[0], p[1], h);
+            astarSettled += DijkstraEngine.lastSettledCount();
+        }
+        final double astarUs = (System.nanoTime() - start) / 1e3 / pairs.length;
+
+        checkAStar(csr, h, pairs);
+
+        System.out.printf("%10s %14.1f %14.1f %12.1f %12.1f%n", label,
+            (double) dijkstraSettled / pairs.length,
+            (double) astarSettled / pairs.length, dijkstraUs, astarUs);
+    }
+
+    /**
+     * A* must find paths of the same cost as Dijkstra.
+     */
+    private static void checkAStar(CsrGraph csr, GridHeuristic h,
+                                   int[][] pairs)
+    {
+        DijkstraEngine engine = csr.engine();
+        for (int[] p : pairs) {
+            if (engine.search(p[0], p[1]) != engine.searchAStar(p[0], p[1], h))
+                throw new IllegalStateException(
+                    "A* cost mismatch for " + p[0] + " -> " + p[1]);
+        }
+    }
+
+    /**
+     * Random-pair check and timing of bidirectional Dijkstra. Edge costs
+     * are drawn from a wide range so that shortest paths are unique, and
+     * every path must be identical to the one of Graph.getShortestPath.
+     * On the campus data, where ties exist, only the costs must agree.
+     */
+    private static void benchBidirectional(int[] sizes) {
+        System.out.printf("%10s %14s %14s %12s %12s %10s%n", "nodes",
+            "one-way set/q", "bidir set/q", "one-way us", "bidir us",
+            "identical");
+
+        FileReader reader = new FileReader(DAT_FILE, MAP_FILE);
+        Graph campus = reader.getCampusGraph();
+        compareBidirectional("campus", campus, campus.freeze(),
+            allPairs(campus.freeze().nodeCount()), false);
+
+        for (int n : sizes) {
+            Graph graph = gridGraph(n, new Random(SEED), 1, 1_000_000);
+            compareBidirectional(String.valueOf(n), graph, graph.freeze(),
+                randomPairs(n, queryCount(n), new Random(SEED)), true);
+        }
+    }
+
+    /**
+     * Print one row of the bidirectional benchmark.
+     *
+     * @param samePath true if paths, not only costs, must be identical
+     */
+    private static void compareBidirectional(String label, Graph graph,
+        CsrGraph csr, int[][] pairs, boolean samePath)
+    {
+        DijkstraEngine engine = csr.engine();
+        long oneWaySettled = 0;
+        long bidirSettled = 0;
+
+        // warm up
+        runSearches(engine, pairs);
+        for (int[] p : pairs)
+            engine.searchBidirectional(p[0], p[1]);
+
+        long start = System.nanoTime();
+        for (int[] p : pairs) {
+            engine.search(p[0], p[1]);
+            oneWaySettled += DijkstraEngine.lastSettledCount();
+        }
+        final double oneWayUs = (System.nanoTime() - start) / 1e3 / pairs.length;
+
+        start = System.nanoTime();
+        for (int[] p : pairs) {
+            engine.searchBidirectional(p[0], p[1]);
+            bidirSettled += DijkstraEngine.lastSettledCount();
+        }
+        final double bidirUs = (System.nanoTime() - start) / 1e3 / pairs.length;
+
+        final int identical = checkBidirectional(graph, csr, pairs, samePath);
+
+        System.out.printf("%10s %14.1f %14.1f %12.1f %12.1f %10s%n", label,
+            (double) oneWaySettled / pairs.length,
+            (double) bidirSettled / pairs.length, oneWayUs, bidirUs,
+            identical + "/" + pairs.length);
+    }
+
+    /**
+     * Bidirectional paths must have the costs of Graph.getShortestPath.
+     *
+     * @param samePath true if paths, not only costs, must be identical
+     * @return Number of pairs whose paths are identical.
+     */
+    private static int checkBidirectional(Graph graph, CsrGraph csr,
+                                          int[][] pairs, boolean samePath)
+    {
+        int identical = 0;
+        for (int[] p : pairs) {
+            ArrayList<Integer> expected = graph.getShortestPath(p[0], p[1]);
+            ArrayList<Integer> actual =
+                csr.getShortestPathBidirectional(p[0], p[1]);
+
+            if (expected.equals(actual))
+                identical++;
+            else if (samePath || pathCost(csr, expected) != pathCost(csr, actual))
+                throw new IllegalStateException(
+                    "Bidirectional mismatch for " + p[0] + " -> " + p[1]);
+        }
+        return identical;
+    }
+
+    /**
+     * Report preprocessing time, shortcut count and query speedup of
+     * Contraction Hierarchies over the Dijkstra engine, checking that the
+     * unpacked paths have the same cost.
+     */
+    private static void benchContraction(int[] sizes) {
+        System.out.printf("%10s %10s %12s %14s %12s %10s%n", "nodes",
+            "prep ms", "shortcuts", "dijkstra us/q", "ch us/q", "speedup");
+
+        FileReader reader = new FileReader(DAT_FILE, MAP_FILE);
+        CsrGraph campus = reader.getCampusGraph().freeze();
+        compareContraction("campus", campus, allPairs(campus.nodeCount()));
+
+        for (int n : sizes) {
+            CsrGraph csr = gridGraph(n, new Random(SEED)).freeze();
+            compareContraction(String.valueOf(n), csr,
+                randomPairs(n, 10 * queryCount(n), new Random(SEED)));
+        }
+    }
+
+    /**
+     * Print one row of the Contraction Hierarchies benchmark.
+     */
+    private static void compareContraction(
+        String label, CsrGraph csr, int[][] pairs)
+    {
+        long start = System.nanoTime();
+        ContractionHierarchy ch = new ContractionHierarchy(csr);
+        final double prepMs = (System.nanoTime() - start) / 1e6;
+
+        DijkstraEngine engine = csr.engine();
+        final int[][] dijkstraPairs =
+            Arrays.copyOf(pairs, Math.min(pairs.length, 500));
+
+        checkContraction(csr, ch, dijkstraPairs);
+
+        // warm up, then time both engines
+        runSearches(engine, dijkstraPairs);
+        for (int[] p : pairs)
+            ch.search(p[0], p[1]);
+
+        final double dijkstraUs = runSearches(engine, dijkstraPairs);
+        start = System.nanoTime();
+        for (int[] p : pairs)
+            ch.search(p[0], p[1]);
+        final double chUs = (System.nanoTime() - start) / 1e3 / pairs.length;
+
+        System.out.printf("%10s %10.1f %12d %14.1f %12.2f %9.0fx%n", label,
+            prepMs, ch.shortcutCount(), dijkstraUs, chUs, dijkstraUs / chUs);
+    }
+
+    /**
+     * CH distances and unpacked paths must have the Dijkstra costs.
+     */
+    private static void checkContraction(CsrGraph csr, ContractionHierarchy ch,
+                                         int[][] pairs)
+    {
+        DijkstraEngine engine = csr.engine();
+        for (int[] p : pairs) {
+            final int expected = engine.search(p[0], p[1]);
+            if (ch.search(p[0], p[1]) != expected ||
+                pathCost(csr, ch.getShortestPath(p[0], p[1])) != expected)
+                throw new IllegalStateException(
+                    "CH mismatch for " + p[0] + " -> " + p[1]);
+        }
+    }
+
+    /**
+     * Report build time and memory of the all-pairs RouteTable, and its
+     * query latency against the Dijkstra engine. Only sizes up to a few
+     * thousand nodes make sense here.
+     */
+    private static void benchRouteTable(int[] sizes) {
+        System.out.printf("%10s %10s %10s %14s %12s%n", "nodes",
+            "build ms", "table MB", "dijkstra us/q", "table us/q");
+
+        FileReader reader = new FileReader(DAT_FILE, MAP_FILE);
+        CsrGraph campus = reader.getCampusGraph().freeze();
+        compareRouteTable("campus", campus, allPairs(campus.nodeCount()));
+
+        for (int n : sizes) {
+            CsrGraph csr = gridGraph(n, new Random(SEED)).freeze();
+            compareRouteTable(String.valueOf(n), csr,
+                randomPairs(n, queryCount(n), new Random(SEED)));
+        }
+    }
+
+    /**
+     * Print one row of the route table benchmark.
+     */
+    private static void compareRouteTable(
+        String label, CsrGraph csr, int[][] pairs)
+    {
+        long start = System.nanoTime();
+        RouteTable table = new RouteTable(csr);
+        final double buildMs = (System.nanoTime() - start) / 1e6;
+        final double tableMb = 8.0 * csr.nodeCount() * csr.nodeCount() / 1e6;
+
+        checkRouteTable(csr, table, pairs);
+
+        // warm up, then time both
+        runQueries(csr, pairs);
+        for (int[] p : pairs)
+            table.getShortestPath(p[0], p[1]);
+
+        final double dijkstraUs = runQueries(csr, pairs);
+        start = System.nanoTime();
+        for (int[] p : pairs)
+            table.getShortestPath(p[0], p[1]);
+        final double tableUs = (System.nanoTime() - start) / 1e3 / pairs.length;
+
+        System.out.printf("%10s %10.1f %10.1f %14.1f %12.2f%n",
+            label, buildMs, tableMb, dijkstraUs, tableUs);
+    }
+
+    /**
+     * Table distances and paths must have the Dijkstra costs.
+     */
+    private static void checkRouteTable(CsrGraph csr, RouteTable table,
+                                        int[][] pairs)
+    {
+        for (int[] p : pairs) {
+            final int expected = csr.engine().search(p[0], p[1]);
+            if (table.distance(p[0], p[1]) != expected ||
+                pathCost(csr, table.getShortestPath(p[0], p[1])) != expected)
+                throw new IllegalStateException(
+                    "Route table mismatch for " + p[0] + " -> " + p[1]);
+        }
+    }
+
+    /**
+     * Compare one shortest path tree plus many extractions against one
+     * point-to-point query per target, for a session of routes that all
+     * start at the same building. First checks the trees of the campus,
+     * which MapApp routes with when there is no route table.
+     */
+    private static void benchTree(int[] sizes) {
+        checkCampusTrees();
+        System.out.printf("%10s %10s %14s %14s%n",
+            "nodes", "targets", "queries ms", "tree ms");
+
+        for (int n : sizes) {
+            Graph graph = gridGraph(n, new Random(SEED));
+            CsrGraph csr = graph.freeze();
+            final int[][] pairs = randomPairs(n, queryCount(n), new Random(SEED));
+            final int src = pairs[0][0];
+
+            // warm up and check that tree paths have the same costs
+            checkTree(graph, src, pairs);
+
+            long start = System.nanoTime();
+            for (int[] p : pairs)
+                csr.getShortestPath(src, p[1]);
+            final double queriesMs = (System.nanoTime() - start) / 1e6;
+
+            start = System.nanoTime();
+            ShortestPathTree tree = graph.getShortestPathTree(src);
+            for (int[] p : pairs)
+                tree.getPathTo(p[1]);
+            final double treeMs = (System.nanoTime() - start) / 1e6;
+
+            System.out.printf("%10d %10d %14.2f %14.2f%n",
+                n, pairs.length, queriesMs, treeMs);
+        }
+    }
+
+    /**
+     * Paths of the tree of src to the targets of the pairs must have the
+     * Dijkstra costs.
+     */
+    private static void checkTree(Graph graph, int src, int[][] pairs) {
+        CsrGraph csr = graph.freeze();
+        ShortestPathTree tree = graph.getShortestPathTree(src);
+        for (int[] p : pairs) {
+            if (pathCost(csr, tree.getPathTo(p[1])) !=
+                csr.engine().search(csr.indexOf(src), csr.indexOf(p[1])))
+                throw new IllegalStateException(
+                    "Tree mismatch for " + src + " -> " + p[1]);
+        }
+    }
+
+    /**
+     * Check the path from every campus building to every other one in its
+     * shortest path tree, as MapApp --no-route-table finds the routes of a
+     * repeated source, against the RouteTable of the campus.
+     */
+    private static void checkCampusTrees() {
+        Graph campus = new MappedFileReader(DAT_FILE, null).getCampusGraph();
+        CsrGraph csr = campus.freeze();
+        RouteTable table = new RouteTable(csr);
+        for (int s = 0; s < csr.nodeCount(); ++s) {
+            final int src = csr.idOf(s);
+            ShortestPathTree tree = campus.getShortestPathTree(src);
+            for (int t = 0; t < csr.nodeCount(); ++t) {
+                final int tgt = csr.idOf(t);
+                if (pathCost(csr, tree.getPathTo(tgt)) !=
+                    pathCost(csr, table.getShortestPath(src, tgt)))
+                    throw new IllegalStateException(
+                        "Campus tree mismatch for " + src + " -> " + tgt);
+            }
+        }
+    }
+
+    /**
+     * Compare three ways to find the nearest facility (1% of the nodes,
+     * at most 100):
+     * one search per candidate, one multi-source search, and a lookup in
+     * the precomputed NearestServiceTable.
+     */
+    private static void benchNearest(int[] sizes) {
+        System.out.printf("%10s %10s %16s %14s %12s %12s%n", "nodes",
+            "facilities", "per-cand us/q", "multi us/q", "table us/q",
+            "table ms");
+
+        for (int n : sizes) {
+            CsrGraph csr = gridGraph(n, new Random(SEED)).freeze();
+            DijkstraEngine engine = csr.engine();
+            Random rand = new Random(SEED);
+            final int[] facilities = rand.ints(0, n).distinct()
+                .limit(Math.max(1, Math.min(100, n / 100))).toArray();
+            final int[][] pairs = randomPairs(n, 20, rand);
+
+            long start = System.nanoTime();
+            NearestServiceTable table =
+                new NearestServiceTable(csr, facilities);
+            final double tableMs = (System.nanoTime() - start) / 1e6;
+
+            // one search per candidate, keeping the cheapest
+            start = System.nanoTime();
+            for (int[] p : pairs)
+                nearestByCandidate(engine, p[0], facilities);
+            final double perCandUs =
+                (System.nanoTime() - start) / 1e3 / pairs.length;
+
+            start = System.nanoTime();
+            for (int[] p : pairs)
+                engine.searchMulti(p[0], facilities);
+            final double multiUs =
+                (System.nanoTime() - start) / 1e3 / pairs.length;
+
+            start = System.nanoTime();
+            for (int[] p : pairs) {
+                table.distanceFrom(p[0]);
+                table.nearestTo(p[0]);
+            }
+            final double tableUs =
+                (System.nanoTime() - start) / 1e3 / pairs.length;
+            checkNearest(csr, table, facilities, pairs);
+
+            System.out.printf("%10d %10d %16.1f %14.1f %12.3f %12.1f%n", n,
+                facilities.length, perCandUs, multiUs, tableUs, tableMs);
+        }
+    }
+
+    /**
+     * @return Distance from src to the nearest facility, with one search
+     *         per facility.
+     */
+    private static int nearestByCandidate(DijkstraEngine engine, int src,
+                                          int[] facilities)
+    {
+        int best = DijkstraEngine.UNREACHABLE;
+        for (int f : facilities)
+            best = Math.min(best, engine.search(src, f));
+        return best;
+    }
+
+    /**
+     * The multi-source search and the NearestServiceTable must find the
+     * distance of one search per facility, and a facility at it.
+     */
+    private static void checkNearest(CsrGraph csr, NearestServiceTable table,
+                                     int[] facilities, int[][] pairs)
+    {
+        DijkstraEngine engine = csr.engine();
+        for (int[] p : pairs) {
+            final int expected = nearestByCandidate(engine, p[0], facilities);
+            if (engine.searchMulti(p[0], facilities) != expected)
+                throw new IllegalStateException("Multi-source mismatch");
+            if (table.distanceFrom(p[0]) != expected ||
+                !facilityContains(facilities, table.nearestTo(p[0])))
+                throw new IllegalStateException("Table mismatch");
+        }
+    }
+
+    /**
+     * Time k-shortest path queries for growing k, and report the cost of
+     * each route beyond the first one. Every route is checked to be
+     * loopless, to have the reported cost, and to be no shorter than the
+     * one before it.
+     */
+    private static void benchKShortest(int[] sizes) {
+        final int[] ks = {1, 2, 4, 8};
+        System.out.printf("%10s %4s %10s %12s %16s%n",
+            "nodes", "k", "routes", "ms/query", "ms/extra route");
+
+        for (int n : sizes) {
+            CsrGraph csr = gridGraph(n, new Random(SEED)).freeze();
+            KShortestPaths ksp = new KShortestPaths(csr);
+            final int[][] pairs = randomPairs(n, 20, new Random(SEED));
+
+            // warm up and check the routes
+            for (int[] p : pairs)
+                checkRoutes(csr, p, ksp.getShortestPaths(p[0], p[1], 8));
+
+            double baseMs = 0;
+            for (int k : ks) {
+                long routes = 0;
+                long start = System.nanoTime();
+                for (int[] p : pairs)
+                    routes += ksp.getShortestPaths(p[0], p[1], k).size();
+                final double ms = (System.nanoTime() - start) / 1e6 / pairs.length;
+                if (k == 1)
+                    baseMs = ms;
+
+                final double extra = (double) routes / pairs.length - 1;
+                System.out.printf("%10d %4d %10.1f %12.3f %16s%n", n, k,
+                    (double) routes / pairs.length, ms,
+                    extra > 0 ? String.format("%.3f", (ms - baseMs) / extra) : "-");
+            }
+        }
+    }
+
+    /**
+     * Time bulk closures: removing 1% of the nodes one at a time and as a
+     * batch, and applying edge changes to 10% of the nodes as a batch.
+     * With the reverse index every removal costs O(degree), so the time
+     * per node stays flat as the graph grows.
+     */
+    private static void benchMutation(int[] sizes) {
+        System.out.printf("%10s %10s %14s %14s %14s%n", "nodes", "removed",
+            "single us/op", "batch us/op", "edges us/op");
+
+        for (int n : sizes) {
+            Random rand = new Random(SEED);
+            final int count = Math.max(1, n / 100);
+            ArrayList<Integer> nids = new ArrayList<>();
+            rand.ints(0, n).distinct().limit(2 * count).forEach(nids::add);
+
+            Graph graph = gridGraph(n, new Random(SEED));
+            long start = System.nanoTime();
+            for (int nid : nids.subList(0, count))
+                graph.removeNode(nid);
+            final double singleUs = (System.nanoTime() - start) / 1e3 / count;
+
+            start = System.nanoTime();
+            graph.removeNodes(nids.subList(count, 2 * count));
+            final double batchUs = (System.nanoTime() - start) / 1e3 / count;
+
+            ArrayList<Graph.EdgeChange> changes =
+                randomEdgeChanges(n, n / 10, rand);
+            final int version = graph.getVersion();
+            start = System.nanoTime();
+            graph.applyEdgeChanges(changes);
+            final double edgesUs =
+                (System.nanoTime() - start) / 1e3 / Math.max(1, changes.size());
+
+            checkMutation(graph, n, version);
+
+            System.out.printf("%10d %10d %14.2f %14.2f %14.2f%n",
+                n, 2 * count, singleUs, batchUs, edgesUs);
+        }
+    }
+
+    /**
+     * @return count random edge changes on nodes below n: new costs of
+     *         random pairs, or removals of an edge to the next node.
+     */
+    private static ArrayList<Graph.EdgeChange> randomEdgeChanges(
+        int n, int count, Random rand)
+    {
+        ArrayList<Graph.EdgeChange> changes = new ArrayList<>();
+        for (int i = 0; i < count; ++i) {
+            final int u = rand.nextInt(n);
+            final int v = rand.nextInt(n);
+            changes.add(rand.nextBoolean() ?
+                Graph.EdgeChange.put(u, v, 1 + rand.nextInt(9)) :
+                Graph.EdgeChange.remove(u, u + 1));
+        }
+        return changes;
+    }
+
+    /**
+     * A batch of edge changes, applied at the given version, must take one
+     * version step, and the in-degrees of the reverse index must add up to
+     * the out-degrees and to the edges of the graph.
+     */
+    private static void checkMutation(Graph graph, int n, int version) {
+        if (graph.getVersion() != version + 1)
+            throw new IllegalStateException("Batch bumped version twice");
+        long in = 0, out = 0;
+        for (int v = 0; v < n; ++v) {
+            in  += graph.getInDegree(v);
+            out += graph.getOutDegree(v);
+        }
+        if (in != out || out != graph.freeze().edgeCount())
+            throw new IllegalStateException("Reverse index out of sync");
+    }
+
+    /**
+     * Compare repairing a DynamicShortestPathTree after each random edge
+     * cost change (decreases, increases and closures) against computing
+     * the whole tree again, and check that both give the same distances.
+     */
+    private static void benchRepair(int[] sizes) {
+        System.out.printf("%10s %10s %14s %14s %14s%n", "nodes", "changes",
+            "repair us/op", "full us/op", "touched/op");
+
+        for (int n : sizes) {
+            CsrGraph csr = gridGraph(n, new Random(SEED)).freeze();
+            Random rand = new Random(SEED);
+            final int count = Math.max(20, Math.min(200, 50_000_000 / n));
+            DynamicShortestPathTree tree =
+                new DynamicShortestPathTree(csr, rand.nextInt(n));
+
+            long repairNs = 0, fullNs = 0, touched = 0;
+            for (int i = 0; i < count; ++i) {
+                final int[] change = randomCostChange(csr, rand);
+                long start = System.nanoTime();
+                tree.setEdgeCost(change[0], change[1], change[2]);
+                repairNs += System.nanoTime() - start;
+                touched += tree.lastTouchedCount();
+
+                final int[] repaired = tree.distances();
+                start = System.nanoTime();
+                tree.recompute();
+                fullNs += System.nanoTime() - start;
+                if (!Arrays.equals(repaired, tree.distances()))
+                    throw new IllegalStateException("Repair mismatch at " + i);
+            }
+
+            System.out.printf("%10d %10d %14.1f %14.1f %14.1f%n", n, count,
+                repairNs / 1e3 / count, fullNs / 1e3 / count,
+                (double) touched / count);
+        }
+    }
+
+    /**
+     * @return {u, v, cost}: a random edge of the graph, by node ids, and a
+     *         new cost for it, mostly decreases and increases and one in
+     *         20 a closure.
+     */
+    private static int[] randomCostChange(CsrGraph csr, Random rand) {
+        final int n = csr.nodeCount();
+        final int[] offsets = csr.offsets();
+        int u = rand.nextInt(n);
+        while (offsets[u] == offsets[u + 1])
+            u = rand.nextInt(n);
+        final int e = offsets[u] + rand.nextInt(offsets[u + 1] - offsets[u]);
+        final int kind = rand.nextInt(20);
+        final int cost = kind == 0 ? DynamicShortestPathTree.CLOSED :
+            kind % 2 == 0 ? 1 + rand.nextInt(9) : 10 + rand.nextInt(30);
+        return new int[]{ csr.idOf(u), csr.idOf(csr.targets()[e]), cost };
+    }
+
+    /**
+     * After each of count random edge cost changes, the repaired tree must
+     * have the distances of a full recomputation.
+     */
+    private static void checkRepair(CsrGraph csr, int count) {
+        Random rand = new Random(SEED);
+        DynamicShortestPathTree tree =
+            new DynamicShortestPathTree(csr, rand.nextInt(csr.nodeCount()));
+        for (int i = 0; i < count; ++i) {
+            final int[] change = randomCostChange(csr, rand);
+            tree.setEdgeCost(change[0], change[1], change[2]);
+            final int[] repaired = tree.distances();
+            tree.recompute();
+            if (!Arrays.equals(repaired, tree.distances()))
+                throw new IllegalStateException("Repair mismatch at " + i);
+        }
+    }
+
+    /**
+     * Run STRESS_READERS threads routing on the latest GraphStore snapshot
+     * while one writer keeps publishing batches of edge cost changes. The
+     * writer logs the cost it gives each edge and the version that takes
+     * it, before publishing. Each reader checks the optimal cost it finds
+     * on a snapshot against the cost of its path under that log at the
+     * snapshot's version, so a snapshot changed after it was taken shows
+     * up, and that versions never go backwards.
+     */
+    private static void benchStress(int[] sizes) throws InterruptedException {
+        System.out.printf("%10s %8s %14s %12s %10s%n", "nodes", "readers",
+            "queries/s", "versions/s", "errors");
+
+        for (int n : sizes) {
+            GraphStore<Void> store =
+                new GraphStore<>(gridGraph(n, new Random(SEED)));
+            final CsrGraph initial = store.snapshot().graph();
+            ConcurrentHashMap<Long, ConcurrentSkipListMap<Integer, Integer>>
+                costLog = new ConcurrentHashMap<>();
+            AtomicBoolean running = new AtomicBoolean(true);
+            LongAdder queries = new LongAdder();
+            LongAdder errors  = new LongAdder();
+
+            Thread[] readers = new Thread[STRESS_READERS];
+            for (int r = 0; r < readers.length; ++r) {
+                final Random rand = new Random(SEED + r);
+                readers[r] = new Thread(() -> {
+                    int lastVersion = -1;
+                    while (running.get()) {
+                        GraphStore.Snapshot<Void> snap = store.snapshot();
+                        CsrGraph csr = snap.graph();
+                        final int a = rand.nextInt(n), b = rand.nextInt(n);
+                        ArrayList<Integer> path = csr.getShortestPath(a, b);
+                        if (snap.version() < lastVersion ||
+                            loggedCost(initial, costLog, snap.version(), path)
+                            != csr.engine().search(csr.indexOf(a),
+                                                   csr.indexOf(b)))
+                            errors.increment();
+                        lastVersion = snap.version();
+                        queries.increment();
+                    }
+                });
+            }
+
+            // the writer changes the costs of 10 random edges per version
+            Thread writer = new Thread(() -> {
+                final Random rand = new Random(SEED);
+                while (running.get()) {
+                    CsrGraph csr = store.snapshot().graph();
+                    ArrayList<Graph.EdgeChange> changes = new ArrayList<>();
+                    for (int i = 0; i < 10; ++i) {
+                        final int u = rand.nextInt(n);
+                        final int[] offsets = csr.offsets();
+                        if (offsets[u] == offsets[u + 1])
+                            continue;
+                        final int v = csr.targets()[offsets[u]];
+                        changes.add(Graph.EdgeChange.put(csr.idOf(u),
+                            csr.idOf(v), 1 + rand.nextInt(9)));
+                    }
+                    store.update(graph -> {
+                        graph.applyEdgeChanges(changes);
+                        for (Graph.EdgeChange c : changes)
+                            costLog.computeIfAbsent(edgeKey(c.u(), c.v()),
+                                key -> new ConcurrentSkipListMap<>())
+                                .put(graph.getVersion(), c.cost());
+                    });
+                }
+            });
+
+            final int startVersion = store.snapshot().version();
+            final long start = System.nanoTime();
+            for (Thread t : readers)
+                t.start();
+            writer.start();
+            Thread.sleep(STRESS_MILLIS);
+            running.set(false);
+            for (Thread t : readers)
+                t.join();
+            writer.join();
+            final double secs = (System.nanoTime() - start) / 1e9;
+
+            System.out.printf("%10d %8d %14.0f %12.1f %10d%n", n,
+                readers.length, queries.sum() / secs,
+                (store.snapshot().version() - startVersion) / secs,
+                errors.sum());
+        }
+    }
+
+    /**
+     * @return The cost of a path of getShortestPath at a version: the last
+     *         cost logged for each edge up to the version, or its cost in
+     *         the initial graph if it was never changed.
+     */
+    private static int loggedCost(CsrGraph initial,
+        ConcurrentHashMap<Long, ConcurrentSkipListMap<Integer, Integer>> log,
+        int version, ArrayList<Integer> path)
+    {
+        int total = 0;
+        for (int i = 0; i + 1 < path.size(); ++i) {
+            final int u = path.get(i + 1), v = path.get(i);
+            ConcurrentSkipListMap<Integer, Integer> costs =
+                log.get(edgeKey(u, v));
+            final Map.Entry<Integer, Integer> logged =
+                costs == null ? null : costs.floorEntry(version);
+            total += logged != null ? logged.getValue() : initial.costs()[
+                initial.edgeIndex(initial.indexOf(u), initial.indexOf(v))];
+        }
+        return total;
+    }
+
+    private static long edgeKey(int u, int v) {
+        return ((long) u << 32) | (v & 0xffffffffL);
+    }
+
+    /**
+     * Local load generator: start a RouteServer on the campus data, with
+     * TCP_NODELAY as MapApp --serve sets it, then for each client count run that many closed-loop clients sending
+     * random /route requests for STRESS_MILLIS. Client-side latencies of
+     * successful requests go into a histogram; refused requests (503) are
+     * counted separately.
+     */
+    private static void benchHttp(int[] clients)
+        throws IOException, InterruptedException
+    {
+        final FileReader reader = new FileReader(DAT_FILE, MAP_FILE);
+        final Graph campus = reader.getCampusGraph();
+        final int n = campus.freeze().nodeCount();
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        RouteServer server = new RouteServer(campus,
+            reader.getBuildingTable(), reader.getMapBoard(),
+            reader.getBorderTable());
+        final int port = server.start(0);
+        final HttpClient http = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1).build();
+
+        System.out.printf("%8s %12s %10s %10s %10s %10s%n", "clients",
+            "requests/s", "p50 us", "p99 us", "max us", "503s");
+
+        for (int c : clients) {
+            LatencyHistogram latency = new LatencyHistogram();
+            LongAdder refused = new LongAdder();
+            LongAdder failed  = new LongAdder();
+            AtomicBoolean running = new AtomicBoolean(true);
+
+            Thread[] threads = new Thread[c];
+            for (int i = 0; i < c; ++i) {
+                final Random rand = new Random(SEED + i);
+                threads[i] = new Thread(() -> {
+                    while (running.get()) {
+                        URI uri = URI.create("http://localhost:" + port +
+                            "/route?src=" + rand.nextInt(n) +
+                            "&tgt=" + rand.nextInt(n));
+                        final long start = System.nanoTime();
+                        try {
+                            HttpResponse<String> res = http.send(
+                                HttpRequest.newBuilder(uri).build(),
+                                HttpResponse.BodyHandlers.ofString());
+                            if (res.statusCode() == 200)
+                                latency.record(System.nanoTime() - start);
+                            else if (res.statusCode() == 503)
+                                refused.increment();
+                            else
+                                failed.increment();
+                        } catch (IOException | InterruptedException e) {
+                            failed.increment();
+                        }
+                    }
+                });
+            }
+
+            final long start = System.nanoTime();
+            for (Thread t : threads)
+                t.start();
+            Thread.sleep(STRESS_MILLIS);
+            running.set(false);
+            for (Thread t : threads)
+                t.join();
+            final double secs = (System.nanoTime() - start) / 1e9;
+
+            if (failed.sum() > 0)
+                System.err.println(failed.sum() + " requests failed");
+            System.out.printf("%8d %12.0f %10d %10d %10d %10d%n", c,
+                latency.count() / secs, latency.percentile(0.50),
+                latency.percentile(0.99), latency.percentile(1.0),
+                refused.sum());
+        }
+        System.out.println("server side: " + server.latency());
+        server.stop();
+    }
+
+    /**
+     * Compare load time and allocation of FileReader and MappedFileReader
+     * on synthetic data files of n buildings (grid neighbors, so about 4
+     * edges each) with the campus map, after checking that both readers
+     * produce the same graph, buildings and map.
+     */
+    private static void benchLoad(int[] sizes) throws IOException {
+        System.out.printf("%10s %10s %12s %12s %14s %14s%n", "buildings",
+            "file KB", "reader ms", "mapped ms", "reader MB", "mapped MB");
+        checkSameLoad(new FileReader(DAT_FILE, MAP_FILE),
+                      new MappedFileReader(DAT_FILE, MAP_FILE));
+
+        for (int n : sizes) {
+            final Path dat = writeDatFile(n, new Random(SEED));
+            final String file = dat.toString();
+            checkSameLoad(new FileReader(file, MAP_FILE),
+                          new MappedFileReader(file, MAP_FILE));
+
+            long bytes = allocatedBytes();
+            long start = System.nanoTime();
+            new FileReader(file, MAP_FILE);
+            final double readerMs = (System.nanoTime() - start) / 1e6;
+            final long readerBytes = allocatedBytes() - bytes;
+
+            bytes = allocatedBytes();
+            start = System.nanoTime();
+            new MappedFileReader(file, MAP_FILE);
+            final double mappedMs = (System.nanoTime() - start) / 1e6;
+            final long mappedBytes = allocatedBytes() - bytes;
+
+            System.out.printf("%10d %10d %12.1f %12.1f %14.1f %14.1f%n", n,
+                Files.size(dat) / 1024, readerMs, mappedMs,
+                readerBytes / 1e6, mappedBytes / 1e6);
+            Files.delete(dat);
+        }
+    }
+
+    /**
+     * Compare startup from the text files with startup from a binary
+     * snapshot of them, on synthetic data files of n buildings with the
+     * campus map. Checks that the snapshot holds the same data and routes
+     * the same.
+     */
+    private static void benchSnapshot(int[] sizes) throws IOException {
+        checkCorruptSnapshot();
+        checkBadLineSnapshot();
+        System.out.printf("%10s %10s %12s %12s %12s%n", "buildings",
+            "snap KB", "text ms", "write ms", "snap ms");
+
+        for (int n : sizes) {
+            final Path dat = writeDatFile(n, new Random(SEED));
+            final Path snap = Files.createTempFile("campus", ".snap");
+            final String file = dat.toString();
+            Files.delete(snap);
+
+            long start = System.nanoTime();
+            FileReader text = new MappedFileReader(file, MAP_FILE);
+            final double textMs = (System.nanoTime() - start) / 1e6;
+
+            start = System.nanoTime();
+            SnapshotReader.write(text, file, MAP_FILE, snap.toString());
+            final double writeMs = (System.nanoTime() - start) / 1e6;
+
+            // time the load without the text copy filling the heap
+            text = null;
+            System.gc();
+            start = System.nanoTime();
+            FileReader loaded =
+                SnapshotReader.load(file, MAP_FILE, snap.toString());
+            final double snapMs = (System.nanoTime() - start) / 1e6;
+
+            if (!(loaded instanceof SnapshotReader))
+                throw new IllegalStateException("Snapshot not loaded");
+            text = new MappedFileReader(file, MAP_FILE);
+            checkSameLoad(text, loaded);
+            Random rand = new Random(SEED);
+            for (int q = 0; q < 20; ++q) {
+                final int s = rand.nextInt(n), t = rand.nextInt(n);
+                if (!text.getCampusGraph().getShortestPath(s, t).equals(
+                        loaded.getCampusGraph().getShortestPath(s, t)))
+                    throw new IllegalStateException("Routes disagree");
+            }
+
+            System.out.printf("%10d %10d %12.1f %12.1f %12.1f%n", n,
+                Files.size(snap) / 1024, textMs, writeMs, snapMs);
+
+            Files.delete(snap);
+            Files.delete(dat);
+        }
+    }
+
+    /**
+     * Time the chunked parse of MappedFileReader on fork-join pools of
+     * different sizes, on synthetic data files of n buildings followed by
+     * one bad line. Checks the result against FileReader and that the bad
+     * line is reported with its line number.
+     */
+    private static void benchParse(int[] sizes)
+        throws IOException, InterruptedException
+    {
+        System.out.printf("%10s %10s", "buildings", "file KB");
+        for (int p : PARSE_THREADS)
+            System.out.printf(" %9s", p + " thr ms");
+        System.out.println();
+
+        for (int n : sizes) {
+            final Path dat = writeDatFile(n, new Random(SEED));
+            final String file = dat.toString();
+            Files.writeString(dat, "x Bad Hall $ 0 0 0\n",
+                              StandardOpenOption.APPEND);
+
+            checkParse(file, n);
+
+            System.out.printf("%10d %10d", n, Files.size(dat) / 1024);
+            for (int p : PARSE_THREADS) {
+                ForkJoinPool pool = new ForkJoinPool(p);
+                System.gc();
+                final long start = System.nanoTime();
+                try {
+                    pool.submit(() -> new MappedFileReader(file, MAP_FILE))
+                        .get();
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException(e.getCause());
+                } finally {
+                    pool.shutdown();
+                }
+                System.out.printf(" %9.1f", (System.nanoTime() - start) / 1e6);
+            }
+            System.out.println();
+            Files.delete(dat);
+        }
+    }
+
+    /**
+     * The data file of n buildings and one bad last line must load the
+     * same as with FileReader, and the bad line must be reported.
+     */
+    private static void checkParse(String file, int n) throws IOException {
+        MappedFileReader parsed = new MappedFileReader(file, MAP_FILE);
+        checkSameLoad(new FileReader(file, MAP_FILE), parsed);
+        if (parsed.getParseErrors().size() != 1 ||
+            parsed.getParseErrors().get(0).line() != n + 1)
+            throw new IllegalStateException(
+                "Bad line not reported: " + parsed.getParseErrors());
+    }
+
+    /**
+     * Replace a watched data file of n buildings with one of new random
+     * costs, and time until DataReloader hands over the diff (including its
+     * settle delay) and until the diff is applied to the live graph. The
+     * patched graph must equal a fresh load of the new file.
+     */
+    private static void benchReload(int[] sizes)
+        throws IOException, InterruptedException
+    {
+        checkPartialReload();
+        System.out.printf("%10s %10s %12s %12s%n", "buildings",
+            "changes", "reload ms", "apply ms");
+
+        for (int n : sizes) {
+            final Path dat = writeDatFile(n, new Random(SEED));
+            FileReader live = new MappedFileReader(dat.toString(), MAP_FILE);
+            Graph graph = live.getCampusGraph();
+            ArrayBlockingQueue<DataReloader.Reload> reloads =
+                new ArrayBlockingQueue<>(4);
+
+            final DataReloader reloader = new DataReloader(dat.toString(),
+                MAP_FILE, false, graph.freeze(), live.getBuildingTable(),
+                reloads::add).start();
+            try (reloader) {
+                final Path next = writeDatFile(n, new Random(SEED + 1));
+                final long start = System.nanoTime();
+                Files.move(next, dat, StandardCopyOption.REPLACE_EXISTING);
+                DataReloader.Reload reload =
+                    reloads.poll(60, TimeUnit.SECONDS);
+                final double reloadMs = (System.nanoTime() - start) / 1e6;
+                if (reload == null)
+                    throw new IllegalStateException("No reload seen");
+
+                final long applyStart = System.nanoTime();
+                graph.addNodes(reload.addedNodes());
+                graph.applyEdgeChanges(reload.edgeChanges());
+                graph.removeNodes(reload.removedNodes());
+                graph.freeze();
+                final double applyMs = (System.nanoTime() - applyStart) / 1e6;
+
+                checkPatched(graph, dat.toString());
+
+                System.out.printf("%10d %10d %12.1f %12.1f%n", n,
+                    reload.edgeChanges().size(), reloadMs, applyMs);
+            }
+            Files.delete(dat);
+        }
+    }
+
+    /**
+     * The graph patched by reloads must equal a fresh load of the file,
+     * and hold every node of it, also those without edges of their own.
+     */
+    private static void checkPatched(Graph graph, String file)
+        throws IOException
+    {
+        final CsrGraph patched = graph.freeze();
+        CsrGraph fresh =
+            new MappedFileReader(file, null).getCampusGraph().freeze();
+        for (int nid : fresh.nodeIds())
+            if (!graph.hasNode(nid))
+                throw new IllegalStateException("Node " + nid + " missing");
+        if (!Arrays.equals(patched.nodeIds(), fresh.nodeIds()) ||
+            !Arrays.equals(patched.offsets(), fresh.offsets()) ||
+            !Arrays.equals(patched.targets(), fresh.targets()) ||
+            !Arrays.equals(patched.costs(), fresh.costs()))
+            throw new IllegalStateException("Patched graph differs");
+    }
+
+    /**
+     * Compare a map of n cells stored as MapCell objects with a MapBoard:
+     * allocated bytes per cell, and the time of one frame, i.e. clearing
+     * the last highlights, highlighting BOARD_HIGHLIGHTS random cells and
+     * rendering. Both layouts must render the same text.
+     */
+    private static void benchBoard(int[] sizes) {
+        System.out.printf("%10s %12s %12s %12s %12s%n", "cells",
+            "cell B/cell", "board B/cell", "cell ms", "board ms");
+
+        for (int n : sizes) {
+            final int w = Math.max(2, (int) Math.sqrt(n));
+            ArrayList<char[]> lines = randomRows(w, new Random(SEED));
+
+            checkBoard(lines, 3);
+
+            long bytes = allocatedBytes();
+            MapCell[][] cells = cellsOf(lines);
+            final double cellBytes = (double) (allocatedBytes() - bytes) /
+                (w * w);
+
+            bytes = allocatedBytes();
+            MapBoard board = MapBoard.fromRows(lines);
+            final double boardBytes = (double) (allocatedBytes() - bytes) /
+                (w * w);
+
+            final int frames = Math.max(3, 20_000_000 / (w * w));
+            long start = System.nanoTime();
+            for (int f = 0; f < frames; ++f)
+                renderCells(cells, f);
+            final double cellMs = (System.nanoTime() - start) / 1e6 / frames;
+
+            start = System.nanoTime();
+            for (int f = 0; f < frames; ++f)
+                renderBoard(board, f);
+            final double boardMs = (System.nanoTime() - start) / 1e6 / frames;
+
+            System.out.printf("%10d %12.1f %12.1f %12.3f %12.3f%n", w * w,
+                cellBytes, boardBytes, cellMs, boardMs);
+        }
+    }
+
+    /**
+     * @return w rows of w - 1 random map chars.
+     */
+    private static ArrayList<char[]> randomRows(int w, Random rand) {
+        ArrayList<char[]> lines = new ArrayList<>();
+        for (int r = 0; r < w; ++r) {
+            char[] line = new char[w - 1];
+            for (int c = 0; c < line.length; ++c)
+                line[c] = "[]-| .#0123456789".charAt(rand.nextInt(17));
+            lines.add(line);
+        }
+        return lines;
+    }
+
+    /**
+     * @return The rows as MapCell objects, each row ending in a newline
+     *         cell.
+     */
+    private static MapCell[][] cellsOf(ArrayList<char[]> lines) {
+        final int w = lines.size();
+        MapCell[][] cells = new MapCell[w][w];
+        for (int r = 0; r < w; ++r) {
+            for (int c = 0; c < w - 1; ++c)
+                cells[r][c] = new MapCell(lines.get(r)[c]);
+            cells[r][w - 1] = new MapCell('\n');
+        }
+        return cells;
+    }
+
+    /**
+     * @return Frame f of the MapCell layout: the last highlights cleared,
+     *         BOARD_HIGHLIGHTS random cells highlighted, then rendered.
+     */
+    private static String renderCells(MapCell[][] cells, int f) {
+        final Color[] colors = { Color.C043, Color.C111, Color.C160 };
+        final int w = cells.length;
+        Random hl = new Random(f);
+        for (MapCell[] row : cells)
+            for (MapCell cell : row)
+                cell.clear();
+        for (int k = 0; k < BOARD_HIGHLIGHTS; ++k)
+            cells[hl.nextInt(w)][hl.nextInt(w)].setColor(
+                colors[k % colors.length].val);
+        StringBuilder sb = new StringBuilder();
+        for (MapCell[] row : cells)
+            for (MapCell cell : row)
+                sb.append(cell.prefix).append(cell.ch).append(cell.suffix);
+        return sb.toString();
+    }
+
+    /**
+     * @return Frame f of renderCells, drawn on a MapBoard.
+     */
+    private static String renderBoard(MapBoard board, int f) {
+        final Color[] colors = { Color.C043, Color.C111, Color.C160 };
+        final int w = board.rows();
+        Random hl = new Random(f);
+        board.clear();
+        for (int k = 0; k < BOARD_HIGHLIGHTS; ++k)
+            board.setColor(hl.nextInt(w), hl.nextInt(w),
+                           colors[k % colors.length]);
+        return board.render();
+    }
+
+    /**
+     * The MapCell and MapBoard layouts of the rows must render the same
+     * text for the first frames.
+     */
+    private static void checkBoard(ArrayList<char[]> lines, int frames) {
+        MapCell[][] cells = cellsOf(lines);
+        MapBoard board = MapBoard.fromRows(lines);
+        for (int f = 0; f < frames; ++f)
+            if (!renderCells(cells, f).equals(renderBoard(board, f)))
+                throw new IllegalStateException("Renders differ at " + f);
+    }
+
+    /**
+     * Compare a full MapBoard.render with the incremental MapRenderer on a
+     * map of n cells, where each frame highlights a few random buildings
+     * of 3 rows with a border cell on each side. Reports the full render,
+     * the renderer's refresh of the changed rows alone, and its render
+     * including handing the frame out as a String, which must be equal.
+     */
+    private static void benchRender(int[] sizes) {
+        System.out.printf("%10s %10s %10s %12s %12s %12s%n", "cells",
+            "buildings", "rows/frame", "full ms", "refresh us", "render ms");
+
+        for (int n : sizes) {
+            final int w = Math.max(8, (int) Math.sqrt(n));
+            ArrayList<char[]> lines = randomRows(w, new Random(SEED));
+            MapBoard board = MapBoard.fromRows(lines);
+            MapRenderer renderer = new MapRenderer(board);
+
+            for (int buildings : RENDER_BUILDINGS) {
+                checkRender(lines, buildings, 5);
+                final int frames = Math.max(5, 5_000_000 / (w * w));
+                long full = 0, refresh = 0, render = 0, rows = 0;
+                for (int f = 0; f < frames; ++f) {
+                    highlightBuildings(board, w, buildings, new Random(f));
+                    long start = System.nanoTime();
+                    board.render();
+                    full += System.nanoTime() - start;
+
+                    start = System.nanoTime();
+                    rows += renderer.refresh();
+                    refresh += System.nanoTime() - start;
+
+                    start = System.nanoTime();
+                    renderer.render();
+                    render += System.nanoTime() - start;
+                }
+                System.out.printf("%10d %10d %10d %12.3f %12.1f %12.3f%n",
+                    w * w, buildings, rows / frames, full / 1e6 / frames,
+                    refresh / 1e3 / frames, render / 1e6 / frames);
+            }
+        }
+    }
+
+    /**
+     * For the first frames highlighting the given number of buildings on
+     * the rows, MapRenderer must render what MapBoard.render does.
+     */
+    private static void checkRender(ArrayList<char[]> lines, int buildings,
+                                    int frames)
+    {
+        MapBoard board = MapBoard.fromRows(lines);
+        MapRenderer renderer = new MapRenderer(board);
+        for (int f = 0; f < frames; ++f) {
+            highlightBuildings(board, lines.size(), buildings, new Random(f));
+            if (!renderer.render().equals(board.render()))
+                throw new IllegalStateException("Renders differ at " + f);
+        }
+    }
+
+    /**
+     * Compare writing map frames to /dev/null the way MapApp used to, a
+     * String printed through a PrintStream like System.out, with the
+     * renderer writing its bytes to a FileChannel. Each frame highlights
+     * a few random buildings on a map of n cells. Reports frames per
+     * second, bytes written and bytes allocated per frame.
+     */
+    private static void benchOutput(int[] sizes) throws IOException {
+        System.out.printf("%10s %12s %12s %14s %12s %14s%n", "cells",
+            "frame bytes", "print fps", "print alloc B", "channel fps",
+            "channel alloc B");
+        final Path devNull = Path.of("/dev/null");
+
+        for (int n : sizes) {
+            final int w = Math.max(8, (int) Math.sqrt(n));
+            ArrayList<char[]> lines = randomRows(w, new Random(SEED));
+            MapBoard board = MapBoard.fromRows(lines);
+            MapRenderer renderer = new MapRenderer(board);
+            final int frames = Math.max(5, 20_000_000 / (w * w));
+
+            try (FileChannel ch = FileChannel.open(devNull,
+                     StandardOpenOption.WRITE);
+                 PrintStream ps = new PrintStream(new BufferedOutputStream(
+                     new FileOutputStream(devNull.toFile()), 8192),
+                     true, StandardCharsets.UTF_8))
+            {
+                long printNanos = 0, printAlloc = 0;
+                long channelNanos = 0, channelAlloc = 0, written = 0;
+                for (int f = 0; f < frames; ++f) {
+                    highlightBuildings(board, w, 4, new Random(f));
+
+                    long bytes = allocatedBytes();
+                    long start = System.nanoTime();
+                    ps.println(board.render());
+                    printNanos += System.nanoTime() - start;
+                    printAlloc += allocatedBytes() - bytes;
+
+                    bytes = allocatedBytes();
+                    start = System.nanoTime();
+                    written += renderer.writeTo(ch);
+                    channelNanos += System.nanoTime() - start;
+                    channelAlloc += allocatedBytes() - bytes;
+                }
+                System.out.printf("%10d %12d %12.1f %14d %12.1f %14d%n",
+                    w * w, written / frames, frames * 1e9 / printNanos,
+                    printAlloc / frames, frames * 1e9 / channelNanos,
+                    channelAlloc / frames);
+            }
+        }
+    }
+
+    /**
+     * Compare loading and drawing a whole map file of n cells with drawing
+     * views of a TiledMap, each around a random building as a route would
+     * be. Checks that a view is the same as that part of the whole board
+     * and that both find the same buildings. Reports the time and
+     * allocation of the whole load and of one full render, the time of
+     * one view, and the tiles held in memory after all views.
+     */
+    private static void benchTiles(int[] sizes) throws IOException {
+        System.out.printf("%10s %10s %10s %10s %10s %10s %10s%n", "cells",
+            "load ms", "load MB", "full ms", "scan ms", "view us",
+            "tiles MB");
+        final int views = 200;
+
+        for (int n : sizes) {
+            final int w = Math.max(8, (int) Math.sqrt(n));
+            final Path map = writeMapFile(w, new Random(SEED));
+            checkTiles(map.toString(), 20);
+
+            long bytes = allocatedBytes();
+            long start = System.nanoTime();
+            FileReader whole = new MappedFileReader(null, map.toString());
+            final double loadMs = (System.nanoTime() - start) / 1e6;
+            final long loadBytes = allocatedBytes() - bytes;
+            start = System.nanoTime();
+            whole.getMapBoard().render();
+            final double fullMs = (System.nanoTime() - start) / 1e6;
+
+            start = System.nanoTime();
+            TiledMap tiles = new TiledMap(map.toString());
+            HashMap<Integer, ArrayList<int[]>> borders = tiles.borderTable();
+            final double scanMs = (System.nanoTime() - start) / 1e6;
+
+            final Random rand = new Random(SEED);
+            final Integer[] ids = borders.keySet().toArray(new Integer[0]);
+            long viewNanos = 0;
+            for (int v = 0; v < views; ++v) {
+                ArrayList<int[]> cells =
+                    borders.get(ids[rand.nextInt(ids.length)]);
+                start = System.nanoTime();
+                TiledMap.View view = tiles.viewAround(cells,
+                    TiledMap.DEFAULT_VIEW_ROWS, TiledMap.DEFAULT_VIEW_COLS);
+                MapBoard board = tiles.board(view);
+                for (int[] p : cells)
+                    if (view.contains(p[0], p[1]))
+                        board.setColor(p[0] - view.top(),
+                                       p[1] - view.left(), Color.C043);
+                new MapRenderer(board).toBytes();
+                viewNanos += System.nanoTime() - start;
+            }
+            System.out.printf("%10d %10.1f %10.1f %10.2f %10.1f %10.1f " +
+                "%10.1f%n", w * w, loadMs, loadBytes / 1e6, fullMs, scanMs,
+                viewNanos / 1e3 / views, tiles.residentTiles() *
+                TiledMap.TILE_ROWS * TiledMap.TILE_COLS * 2 / 1e6);
+            Files.delete(map);
+        }
+    }
+
+    /**
+     * The TiledMap of the map file must find the buildings of a whole
+     * load, and views around random ones must show the same cells as that
+     * part of the whole board.
+     */
+    private static void checkTiles(String mapFile, int views)
+        throws IOException
+    {
+        FileReader whole = new MappedFileReader(null, mapFile);
+        TiledMap tiles = new TiledMap(mapFile);
+        HashMap<Integer, ArrayList<int[]>> borders = tiles.borderTable();
+        if (borders.size() != whole.getBorderTable().size())
+            throw new IllegalStateException("Border tables differ");
+
+        final Random rand = new Random(SEED);
+        final Integer[] ids = borders.keySet().toArray(new Integer[0]);
+        for (int v = 0; v < views; ++v) {
+            TiledMap.View view = tiles.viewAround(
+                borders.get(ids[rand.nextInt(ids.length)]),
+                TiledMap.DEFAULT_VIEW_ROWS, TiledMap.DEFAULT_VIEW_COLS);
+            MapBoard board = tiles.board(view);
+            for (int r = 0; r < view.rows(); ++r)
+                for (int c = 0; c < view.cols(); ++c)
+                    if (board.charAt(r, c) != whole.getMapBoard()
+                            .charAt(view.top() + r, view.left() + c))
+                        throw new IllegalStateException("Views differ");
+        }
+    }
+
+    /**
+     * @return A temporary map file of w by w cells: a frame of '+', '-'
+     *         and '|', streets of '=' and random buildings "[id]" over
+     *         "[..]" with two-digit ids, like data/campusMap.txt.
+     */
+    private static Path writeMapFile(int w, Random rand) throws IOException {
+        char[][] grid = new char[w][w];
+        for (char[] row : grid)
+            Arrays.fill(row, ' ');
+        for (int r = 4; r < w - 1; r += 8)
+            Arrays.fill(grid[r], 1, w - 1, '=');
+        for (int r = 1; r + 2 < w - 1; r += 4) {
+            if (r % 8 == 3 || r % 8 == 4)
+                continue;
+            for (int c = 1 + rand.nextInt(4); c + 4 < w - 1;
+                 c += 6 + rand.nextInt(8)) {
+                final int id = rand.nextInt(100);
+                "[00]".getChars(0, 4, grid[r], c);
+                grid[r][c + 1] = (char) ('0' + id / 10);
+                grid[r][c + 2] = (char) ('0' + id % 10);
+                "[..]".getChars(0, 4, grid[r + 1], c);
+            }
+        }
+        for (int r = 0; r < w; ++r)
+            grid[r][0] = grid[r][w - 1] = '|';
+        Arrays.fill(grid[0], '-');
+        Arrays.fill(grid[w - 1], '-');
+        grid[0][0] = grid[0][w - 1] = grid[w - 1][0] = grid[w - 1][w - 1] = '+';
+
+        Path map = Files.createTempFile("campus", ".txt");
+        try (BufferedWriter out = Files.newBufferedWriter(map)) {
+            for (char[] row : grid) {
+                out.write(row);
+                out.write("\n");
+            }
+        }
+        return map;
+    }
+
+    /**
+     * Compare selecting "dining and parking but not library" by checking
+     * every building, as MapApp did, with a ServiceIndex query on n
+     * buildings with random services, and check that both select the
+     * same ids. Also times a query over 32 more services, which the
+     * service bits of Building cannot hold.
+     */
+    private static void benchServices(int[] sizes) {
+        System.out.printf("%10s %10s %12s %12s %12s %14s%n", "buildings",
+            "selected", "build ms", "loop us", "index us", "32-service us");
+        final String wide = "(s0 or s1 or s2) and not (s3 or s4) and s31";
+
+        for (int n : sizes) {
+            final Random rand = new Random(SEED);
+            HashMap<Integer, Building> table = randomServices(n, rand);
+
+            long start = System.nanoTime();
+            ServiceIndex index = serviceIndex(table, rand);
+            final double buildMs = (System.nanoTime() - start) / 1e6;
+            checkServices(table, index);
+
+            final int reps = Math.max(5, 10_000_000 / n);
+            start = System.nanoTime();
+            for (int rep = 0; rep < reps; ++rep)
+                selectByLoop(table);
+            final double loopUs = (System.nanoTime() - start) / 1e3 / reps;
+
+            int[] selected = null;
+            start = System.nanoTime();
+            for (int rep = 0; rep < reps; ++rep)
+                selected = index.select(SERVICE_QUERY);
+            final double indexUs = (System.nanoTime() - start) / 1e3 / reps;
+
+            start = System.nanoTime();
+            for (int rep = 0; rep < reps; ++rep)
+                index.select(wide);
+            final double wideUs = (System.nanoTime() - start) / 1e3 / reps;
+
+            System.out.printf("%10d %10d %12.1f %12.1f %12.1f %14.1f%n", n,
+                selected.length, buildMs, loopUs, indexUs, wideUs);
+        }
+    }
+
+    /**
+     * @return n buildings with ids 0 to n - 1 and random service bits.
+     */
+    private static HashMap<Integer, Building> randomServices(int n,
+                                                             Random rand)
+    {
+        HashMap<Integer, Building> table = new HashMap<>();
+        for (int id = 0; id < n; ++id)
+            table.put(id, new Building(id, "Building " + id, rand.nextInt(8)));
+        return table;
+    }
+
+    /**
+     * @return A ServiceIndex of the table where each building also has
+     *         each of 32 services s0 to s31 with probability 1/4.
+     */
+    private static ServiceIndex serviceIndex(HashMap<Integer, Building> table,
+                                             Random rand)
+    {
+        ServiceIndex index = new ServiceIndex(table);
+        for (int id = 0; id < table.size(); ++id)
+            for (int k = 0; k < 32; ++k)
+                if (rand.nextInt(4) == 0)
+                    index.add("s" + k, id);
+        return index;
+    }
+
+    /**
+     * @return Ids of the buildings matching SERVICE_QUERY, found by
+     *         checking the service bits of every building.
+     */
+    private static int[] selectByLoop(HashMap<Integer, Building> table) {
+        ArrayList<Integer> looped = new ArrayList<>();
+        for (int id = 0; id < table.size(); ++id) {
+            Building b = table.get(id);
+            if (b.hasService(0b001) && b.hasService(0b100) &&
+                !b.hasService(0b010))
+                looped.add(id);
+        }
+        return looped.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * The index must select the buildings that selectByLoop does.
+     */
+    private static void checkServices(HashMap<Integer, Building> table,
+                                      ServiceIndex index)
+    {
+        if (!Arrays.equals(index.select(SERVICE_QUERY), selectByLoop(table)))
+            throw new IllegalStateException("Selections differ");
+    }
+
+    /**
+     * Time NameIndex lookups among the campus buildings and n synthetic
+     * building and room names, such as "Tovarin Hall Room 2043": exact
+     * prefixes of random names, and the same prefixes with one random
+     * typo. Reports how often the name sought is among the 10 matches,
+     * and checks that "compter sci" still finds Computer Sciences and that
+     * an exact prefix ranks above many matches with a typo.
+     */
+    private static void benchNames(int[] sizes) {
+        System.out.printf("%10s %10s %10s %12s %10s %12s %10s %12s%n",
+            "names", "build ms", "nodes", "prefix us", "found %", "typo us",
+            "found %", "letter us");
+        final String[] syllables = { "ta", "ro", "vin", "mel", "ka", "dor",
+            "si", "len", "bra", "quo", "ne", "fal", "gri", "mu", "pe", "zan" };
+        final String[] kinds = { "Hall", "Center", "Library", "Building",
+            "Laboratory", "Annex" };
+        final int queries = 2_000;
+        HashMap<Integer, Building> campus =
+            new MappedFileReader(DAT_FILE, null).getBuildingTable();
+
+        for (int n : sizes) {
+            final Random rand = new Random(SEED);
+            HashMap<Integer, Building> table = new HashMap<>(campus);
+            for (int i = 0; i < n; ++i) {
+                StringBuilder name = new StringBuilder();
+                for (int w = 0; w < 1 + rand.nextInt(2); ++w) {
+                    name.append(w > 0 ? " " : "");
+                    for (int k = 0; k < 2 + rand.nextInt(2); ++k)
+                        name.append(syllables[rand.nextInt(syllables.length)]);
+                }
+                name.setCharAt(0, Character.toUpperCase(name.charAt(0)));
+                name.append(' ').append(kinds[rand.nextInt(kinds.length)]);
+                if (rand.nextBoolean())
+                    name.append(" Room ").append(1000 + rand.nextInt(9000));
+                table.put(1000 + i, new Building(1000 + i, name.toString(), 0));
+            }
+
+            long start = System.nanoTime();
+            NameIndex index = new NameIndex(table);
+            final double buildMs = (System.nanoTime() - start) / 1e6;
+            checkMisspelledName(index);
+            checkPrefixRanking();
+
+            // prefixes of random names, then with one char replaced
+            final String[] exact = new String[queries];
+            final String[] typo = new String[queries];
+            final int[] sought = new int[queries];
+            for (int q = 0; q < queries; ++q) {
+                sought[q] = 1000 + rand.nextInt(n);
+                final String name = table.get(sought[q]).name;
+                exact[q] =
+                    name.substring(0, Math.max(4, 2 * name.length() / 3));
+                char[] chars = exact[q].toCharArray();
+                chars[1 + rand.nextInt(chars.length - 1)] =
+                    (char) ('a' + rand.nextInt(26));
+                typo[q] = new String(chars);
+            }
+
+            for (String q : exact)
+                index.lookup(q, 10);
+            start = System.nanoTime();
+            int exactFound = 0;
+            for (int q = 0; q < queries; ++q)
+                exactFound += hasMatch(index.lookup(exact[q], 10), sought[q]);
+            final double exactUs = (System.nanoTime() - start) / 1e3 / queries;
+
+            start = System.nanoTime();
+            int typoFound = 0;
+            for (int q = 0; q < queries; ++q)
+                typoFound += hasMatch(index.lookup(typo[q], 10), sought[q]);
+            final double typoUs = (System.nanoTime() - start) / 1e3 / queries;
+
+            // single letters, which match a large part of all the names
+            start = System.nanoTime();
+            for (int q = 0; q < queries; ++q)
+                index.lookup(String.valueOf((char) ('a' + q % 26)), 10);
+            final double letterUs =
+                (System.nanoTime() - start) / 1e3 / queries;
+            checkBoundedLookup(index, exact, typo);
+
+            System.out.printf(
+                "%10d %10.1f %10d %12.1f %10.1f %12.1f %10.1f %12.1f%n",
+                table.size(), buildMs, index.nodeCount(), exactUs,
+                100.0 * exactFound / queries, typoUs,
+                100.0 * typoFound / queries, letterUs);
+        }
+    }
+
+    /**
+     * Check that a lookup cut to 10 matches returns the first 10 of all
+     * the matches ranked, for single letters and some of the queries.
+     */
+    private static void checkBoundedLookup(NameIndex index, String[] exact,
+                                           String[] typo)
+    {
+        ArrayList<String> queries = new ArrayList<>();
+        for (char c = 'a'; c <= 'z'; ++c)
+            queries.add(String.valueOf(c));
+        for (int q = 0; q < Math.min(50, exact.length); ++q) {
+            queries.add(exact[q]);
+            queries.add(typo[q]);
+        }
+        for (String q : queries) {
+            ArrayList<NameIndex.Match> all =
+                index.lookup(q, Integer.MAX_VALUE);
+            if (!index.lookup(q, 10).equals(
+                    all.subList(0, Math.min(10, all.size()))))
+                throw new IllegalStateException("Bounded lookup of \"" + q +
+                                                "\" differs");
+        }
+    }
+
+    /**
+     * Check that "union so" finds Union South Hall, the only exact prefix,
+     * among a hundred names 1 edit away that the trie holds before it.
+     */
+    private static void checkPrefixRanking() {
+        HashMap<Integer, Building> table = new HashMap<>();
+        table.put(97, new Building(97, "Union", 0));
+        table.put(98, new Building(98, "Union South Hall", 0));
+        for (int i = 0; i < 100; ++i) {
+            table.put(100 + i, new Building(100 + i,
+                "Union Station Wing " + i, 0));
+            table.put(200 + i, new Building(200 + i,
+                "Memorial Union Annex " + i, 0));
+        }
+        if (new NameIndex(table).find("union so") != 98)
+            throw new IllegalStateException("Union South Hall not first");
+    }
+
+    private static int hasMatch(ArrayList<NameIndex.Match> matches, int id) {
+        for (NameIndex.Match m : matches)
+            if (m.id() == id)
+                return 1;
+        return 0;
+    }
+
+    /**
+     * An index holding the campus buildings must find Computer Sciences
+     * by the misspelled "compter sci".
+     */
+    private static void checkMisspelledName(NameIndex index) {
+        if (index.find("compter sci") != 11)
+            throw new IllegalStateException("Computer Sciences not found");
+    }
+
+    /**
+     * Highlight count random buildings of 3 rows with a border cell on each
+     * side on a board of w by w cells, clearing the previous ones.
+     */
+    private static void highlightBuildings(MapBoard board, int w, int count,
+                                           Random rand)
+    {
+        final Color[] colors = { Color.C043, Color.C111, Color.C160 };
+        board.clear();
+        for (int b = 0; b < count; ++b) {
+            final int r = rand.nextInt(w - 3);
+            final int c = rand.nextInt(w - 8);
+            for (int i = r; i < r + 3; ++i) {
+                board.setColor(i, c, colors[b % colors.length]);
+                board.setColor(i, c + 6, colors[b % colors.length]);
+            }
+        }
+    }
+
+    /**
+     * Snapshot the campus data, flip one payload byte and check that the
+     * checksum rejects the snapshot and the text files are loaded instead.
+     */
+    private static void checkCorruptSnapshot() throws IOException {
+        final Path snap = Files.createTempFile("campus", ".snap");
+        FileReader text = new MappedFileReader(DAT_FILE, MAP_FILE);
+        SnapshotReader.write(text, DAT_FILE, MAP_FILE, snap.toString());
+
+        try (FileChannel ch = FileChannel.open(snap,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer b = ByteBuffer.allocate(1);
+            final long pos = ch.size() / 2;
+            ch.read(b, pos);
+            b.put(0, (byte) ~b.get(0));
+            ch.write(b.rewind(), pos);
+        }
+        FileReader fallback =
+            SnapshotReader.open(DAT_FILE, MAP_FILE, snap.toString());
+        if (fallback instanceof SnapshotReader)
+            throw new IllegalStateException("Corrupt snapshot loaded");
+        checkSameLoad(text, fallback);
+
+        // open() wrote a good snapshot again
+        if (!(SnapshotReader.load(DAT_FILE, MAP_FILE, snap.toString())
+                instanceof SnapshotReader))
+            throw new IllegalStateException("Snapshot not rewritten");
+        Files.delete(snap);
+    }
+
+    /**
+     * A data file with a bad line must not be snapshotted, so that the
+     * line is reported again on every start.
+     */
+    private static void checkBadLineSnapshot() throws IOException {
+        final Path dat = writeDatFile(100, new Random(SEED));
+        final Path snap = Files.createTempFile("campus", ".snap");
+        Files.delete(snap);
+        Files.writeString(dat, "x Bad Hall $ 0 0 0\n",
+                          StandardOpenOption.APPEND);
+
+        SnapshotReader.open(dat.toString(), MAP_FILE, snap.toString());
+        if (Files.exists(snap))
+            throw new IllegalStateException("Bad data file snapshotted");
+        Files.delete(dat);
+    }
+
+    /**
+     * @return A temporary data file with n buildings on a grid, in the
+     *         format of data/buildingData.txt.
+     */
+    /**
+     * A data file replaced by one cut off in the middle of a line, as it
+     * can be halfway through a save, must not be handed over; the complete
+     * file that follows must.
+     */
+    /**
+     * Replace a watched data file of 200 buildings with one of new random
+     * costs and two more buildings, one only reached by a walkway from the
+     * other; the live graph patched with the reload must equal a fresh
+     * load of the new file.
+     */
+    private static void checkReload()
+        throws IOException, InterruptedException
+    {
+        final Path dat = writeDatFile(200, new Random(SEED));
+        FileReader live = new MappedFileReader(dat.toString(), MAP_FILE);
+        Graph graph = live.getCampusGraph();
+        ArrayBlockingQueue<DataReloader.Reload> reloads =
+            new ArrayBlockingQueue<>(4);
+
+        final DataReloader reloader = new DataReloader(dat.toString(),
+            MAP_FILE, false, graph.freeze(), live.getBuildingTable(),
+            reloads::add).start();
+        try (reloader) {
+            final Path next = writeDatFile(200, new Random(SEED + 1));
+            Files.writeString(next, "200\tNew Hall\t$\t0\t0\t0\t201\t5\n" +
+                              "201\tNew Annex\t$\t0\t0\t0\n",
+                              StandardOpenOption.APPEND);
+            Files.move(next, dat, StandardCopyOption.REPLACE_EXISTING);
+            DataReloader.Reload reload = reloads.poll(60, TimeUnit.SECONDS);
+            if (reload == null)
+                throw new IllegalStateException("No reload seen");
+            graph.addNodes(reload.addedNodes());
+            graph.applyEdgeChanges(reload.edgeChanges());
+            graph.removeNodes(reload.removedNodes());
+            checkPatched(graph, dat.toString());
+        }
+        Files.delete(dat);
+    }
+
+    private static void checkPartialReload()
+        throws IOException, InterruptedException
+    {
+        final Path dat = writeDatFile(100, new Random(SEED));
+        FileReader live = new MappedFileReader(dat.toString(), MAP_FILE);
+        ArrayBlockingQueue<DataReloader.Reload> reloads =
+            new ArrayBlockingQueue<>(4);
+
+        final DataReloader reloader = new DataReloader(dat.toString(),
+            MAP_FILE, false, live.getCampusGraph().freeze(),
+            live.getBuildingTable(), reloads::add).start();
+        try (reloader) {
+            final Path next = writeDatFile(100, new Random(SEED + 1));
+            final byte[] bytes = Files.readAllBytes(next);
+            final Path partial = Files.createTempFile("buildings", ".txt");
+            Files.write(partial, Arrays.copyOf(bytes, bytes.length / 2 + 1));
+
+            Files.move(partial, dat, StandardCopyOption.REPLACE_EXISTING);
+            if (reloads.poll(1, TimeUnit.SECONDS) != null)
+                throw new IllegalStateException("Partial file reloaded");
+            Files.move(next, dat, StandardCopyOption.REPLACE_EXISTING);
+            if (reloads.poll(60, TimeUnit.SECONDS) == null)
+                throw new IllegalStateException("Complete file not reloaded");
+        }
+        Files.delete(dat);
+    }
+
+    private static Path writeDatFile(int n, Random rand) throws IOException {
+        Graph graph = gridGraph(n, rand);
+        CsrGraph csr = graph.freeze();
+        Path dat = Files.createTempFile("buildings", ".txt");
+
+        try (BufferedWriter out = Files.newBufferedWriter(dat)) {
+            for (int u = 0; u < n; ++u) {
+                out.write(u + "\tBuilding " + u + " Hall\t$\t" +
+                    rand.nextInt(2) + "\t" + rand.nextInt(2) + "\t" +
+                    rand.nextInt(2));
+                for (int e = csr.offsets()[u]; e < csr.offsets()[u + 1]; ++e)
+                    out.write("\t" + csr.targets()[e] + "\t" + csr.costs()[e]);
+                out.write("\n");
+            }
+        }
+        return dat;
+    }
+
+    private static void checkSameLoad(FileReader a, FileReader b) {
+        CsrGraph ga = a.getCampusGraph().freeze();
+        CsrGraph gb = b.getCampusGraph().freeze();
+        boolean same = ga.nodeCount() == gb.nodeCount() &&
+            Arrays.equals(ga.offsets(), gb.offsets()) &&
+            Arrays.equals(ga.targets(), gb.targets()) &&
+            Arrays.equals(ga.costs(), gb.costs()) &&
+            a.getBorderTable().size() == b.getBorderTable().size() &&
+            a.getBuildingTable().size() == b.getBuildingTable().size();
+
+        for (Building x : a.getBuildingTable().values()) {
+            Building y = b.getBuildingTable().get(x.id);
+            same &= y != null && x.toString().equals(y.toString()) &&
+                x.getServiceMessage().equals(y.getServiceMessage());
+        }
+        MapBoard ma = a.getMapBoard(), mb = b.getMapBoard();
+        same &= ma.rows() == mb.rows() && ma.cols() == mb.cols() &&
+            Arrays.equals(ma.chars(), mb.chars());
+
+        if (!same)
+            throw new IllegalStateException("Readers disagree");
+    }
+
+    private static void checkRoutes(
+        CsrGraph csr, int[] p, ArrayList<KShortestPaths.Route> routes)
+    {
+        int previous = csr.engine().search(csr.indexOf(p[0]), csr.indexOf(p[1]));
+        if (routes.get(0).cost() != previous)
+            throw new IllegalStateException("First route is not shortest.");
+        for (KShortestPaths.Route r : routes) {
+            if (r.cost() < previous || pathCost(csr, r.path()) != r.cost() ||
+                r.path().stream().distinct().count() != r.path().size())
+                throw new IllegalStateException(
+                    "Bad route for " + p[0] + " -> " + p[1] + ": " + r);
+            previous = r.cost();
+        }
+    }
+
+    private static boolean facilityContains(int[] facilities, int id) {
+        for (int f : facilities)
+            if (f == id)
+                return true;
+        return false;
+    }
+
+    /**
+     * @return Average microseconds per distance-only A* search.
+     */
+    private static double runAStar(
+        DijkstraEngine engine, GridHeuristic h, int[][] pairs)
+    {
+        final long start = System.nanoTime();
+        for (int[] p : pairs)
+            engine.searchAStar(p[0], p[1], h);
+        return (System.nanoTime() - start) / 1e3 / pairs.length;
+    }
+
+    /**
+     * @return Average microseconds per distance-only search.
+     */
+    private static double runSearches(DijkstraEngine engine, int[][] pairs) {
+        final long start = System.nanoTime();
+        for (int[] p : pairs)
+            engine.search(p[0], p[1]);
+        return (System.nanoTime() - start) / 1e3 / pairs.length;
+    }
+
+    /**
+     * @return Bytes allocated so far by the calling thread.
+     */
+    static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean)
+            ManagementFactory.getThreadMXBean()).getCurrentThreadAllocatedBytes();
+    }
+
+    /**
+     * @return Total number of collections run by all garbage collectors.
+     */
+    static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc :
+                ManagementFactory.getGarbageCollectorMXBeans())
+            count += Math.max(0, gc.getCollectionCount());
+        return count;
+    }
+
+    /**
+     * @return Average microseconds per query on the HashMap graph.
+     */
+    private static double runQueries(Graph graph, int[][] pairs) {
+        final long start = System.nanoTime();
+        for (int[] p : pairs)
+            graph.getShortestPath(p[0], p[1]);
+        return (System.nanoTime() - start) / 1e3 / pairs.length;
+    }
+
+    /**
+     * @return Average microseconds per query on the CSR graph.
+     */
+    private static double runQueries(CsrGraph graph, int[][] pairs) {
+        final long start = System.nanoTime();
+        for (int[] p : pairs)
+            graph.getShortestPath(p[0], p[1]);
+        return (System.nanoTime() - start) / 1e3 / pairs.length;
+    }
+
+    /**
+     * Both engines must agree on the cost of every path.
+     */
+    private static void checkSameCost(Graph graph, CsrGraph csr, int[][] pairs) {
+        for (int[] p : pairs) {
+            int expected = pathCost(csr, graph.getShortestPath(p[0], p[1]));
+            int actual   = pathCost(csr, csr.getShortestPath(p[0], p[1]));
+            if (expected != actual)
+                throw new IllegalStateException(
+                    "Cost mismatch for " + p[0] + " -> " + p[1]);
+        }
+    }
+
+    /**
+     * Paths run from source to target, but are found by searching from the
+     * target, so each step (a, b) uses the edge (b, a).
+     *
+     * @return Total cost of the given path.
+     */
+    static int pathCost(CsrGraph csr, ArrayList<Integer> path) {
+        int total = 0;
+        for (int i = 0; i + 1 < path.size(); ++i) {
+            int e = csr.edgeIndex(csr.indexOf(path.get(i + 1)),
+                                  csr.indexOf(path.get(i)));
+            if (e < 0)
+                throw new IllegalStateException("Path uses a missing edge.");
+            total += csr.costs()[e];
+        }
+        return total;
+    }
+
+    /**
+     * @param n number of nodes
+     * @return Number of queries to time, fewer on large graphs.
+     */
+    private static int queryCount(int n) {
+        return Math.max(5, Math.min(500, 20_000_000 / n));
+    }
+
+    /**
+     * @return A synthetic grid graph with n nodes, ids 0..n-1.
+     */
+    static Graph gridGraph(int n, Random rand) {
+        return gridGraph(n, rand, 1, 9);
+    }
+
+    /**
+     * @param minCost smallest edge cost
+     * @param maxCost largest edge cost
+     * @return A synthetic grid graph with n nodes, ids 0..n-1.
+     */
+    static Graph gridGraph(int n, Random rand, int minCost, int maxCost) {
+        final int w = gridWidth(n);
+        final int range = maxCost - minCost + 1;
+        Graph graph = new Graph();
+
+        for (int i = 0; i < n; ++i) {
+            graph.addNode(i);
+            if ((i % w) + 1 < w && i + 1 < n)
+                graph.addBiEdge(i, i + 1, minCost + rand.nextInt(range));
+            if (i + w < n)
+                graph.addBiEdge(i, i + w, minCost + rand.nextInt(range));
+        }
+        return graph;
+    }
+
+    /**
+     * @return Width of the square grid holding n nodes.
+     */
+    static int gridWidth(int n) {
+        return (int) Math.ceil(Math.sqrt(n));
+    }
+
+    /**
+     * @return Every (source, target) pair over ids 0..n-1.
+     */
+    static int[][] allPairs(int n) {
+        int[][] pairs = new int[n * n][];
+        for (int i = 0; i < n * n; ++i)
+            pairs[i] = new int[]{ i / n, i % n };
+        return pairs;
+    }
+
+    /**
+     * @return `count` random (source, target) pairs over ids 0..n-1.
+     */
+    static int[][] randomPairs(int n, int count, Random rand) {
+        int[][] pairs = new int[count][];
+        for (int i = 0; i < count; ++i)
+            pairs[i] = new int[]{ rand.nextInt(n), rand.nextInt(n) };
+        return pairs;
+    }
+
+    /**
+     * @return Heap bytes in use after asking the JVM to collect garbage.
+     */
+    static long usedMemory() {
+        final Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 3; ++i) {
+            System.gc();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+}
@@ -6,6 +6,8 @@
  * @author Xin Cai
  */
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 
 class Building {
@@ -70,6 +72,13 @@ class Building {
         return (svBit & this.serviceBits) > 0;
     }
 
+    /**
+     * @return Names of the services provided by this building.
+     */
+    public List<String> getServices() {
+        return Collections.unmodifiableList(this.services);
+    }
+
     /**
      * Update the services message as a string in specified formatting.
      */
@@ -1,10 +1,14 @@
 /**
  * @file   Color.java
  * @brief  This is a enum contains constant Strings representing
- *         ANSI escape code of various colors.
+ *         ANSI escape code of various colors, also pre-encoded as bytes
+ *         for output written straight to a channel.
  *
  * @author Xin Cai
  */
+import java.nio.charset.StandardCharsets;
+
+
  enum Color {
     /** Instance of the Color, associated with 256-color mode */
     RESET("\u001B[0m"),
@@ -20,8 +24,12 @@
     /** ANSI escape seqence */
     public final String val;
 
+    /** ANSI escape seqence as bytes, the same in ASCII and UTF-8 */
+    final byte[] bytes;
+
     Color(String val) {
         this.val = val;
+        this.bytes = val.getBytes(StandardCharsets.US_ASCII);
     }
 
     /**
@@ -0,0 +1,467 @@
+/**
+ * @file   ContractionHierarchy.java
+ * @brief  Contraction Hierarchies (CH) preprocessing and queries over a
+ *         CsrGraph. Preprocessing contracts the nodes one by one in order
+ *         of their edge difference, adding a shortcut edge (u,w) through a
+ *         contracted node v whenever no witness path shorter than
+ *         u -> v -> w remains. A query is then a bidirectional Dijkstra
+ *         that only follows edges towards higher-ranked nodes, so it
+ *         settles a few hundred nodes even on large graphs. Shortcuts
+ *         remember the node they skip, so paths unpack back into real
+ *         building paths.
+ *
+ * @see    CsrGraph
+ * @see    DijkstraEngine
+ * @author Xin Cai
+ */
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+
+final class ContractionHierarchy {
+    /* witness searches give up after settling this many nodes, a lower
+       limit is enough to estimate the priority of a node */
+    private static final int WITNESS_SETTLE_LIMIT  = 500;
+    private static final int PRIORITY_SETTLE_LIMIT = 50;
+
+    /* query scratch buffers, one pair per thread */
+    private static final ThreadLocal<DijkstraEngine.SearchSpace> FORWARD =
+        ThreadLocal.withInitial(DijkstraEngine.SearchSpace::new);
+    private static final ThreadLocal<DijkstraEngine.SearchSpace> BACKWARD =
+        ThreadLocal.withInitial(DijkstraEngine.SearchSpace::new);
+
+    private final CsrGraph graph;
+
+    /* contraction order of each node, higher is more important */
+    private final int[] rank;
+    private final int shortcutCount;
+
+    /* upward out-edges (u,w) with rank[w] > rank[u], stored at u */
+    private final int[] upOffsets;
+    private final int[] upHeads;
+    private final int[] upCosts;
+    private final int[] upMids;
+
+    /* upward in-edges (w,u) with rank[w] > rank[u], stored at u */
+    private final int[] downOffsets;
+    private final int[] downTails;
+    private final int[] downCosts;
+    private final int[] downMids;
+
+    /**
+     * Preprocess the given graph. This is the expensive, offline step.
+     *
+     * @param graph a frozen graph
+     */
+    ContractionHierarchy(CsrGraph graph) {
+        this.graph = graph;
+        final int n = graph.nodeCount();
+
+        Contractor contractor = new Contractor(graph);
+        this.rank = contractor.run();
+        this.shortcutCount = contractor.shortcuts;
+
+        // split every remaining edge into the upward graph of its tail or
+        // the upward in-graph of its head
+        this.upOffsets   = new int[n + 1];
+        this.downOffsets = new int[n + 1];
+        for (int u = 0; u < n; ++u) {
+            EdgeBag out = contractor.out[u];
+            for (int i = 0; i < out.size; ++i) {
+                if (rank[out.heads[i]] > rank[u])
+                    upOffsets[u + 1]++;
+                else
+                    downOffsets[out.heads[i] + 1]++;
+            }
+        }
+        for (int i = 0; i < n; ++i) {
+            upOffsets[i + 1]   += upOffsets[i];
+            downOffsets[i + 1] += downOffsets[i];
+        }
+
+        this.upHeads   = new int[upOffsets[n]];
+        this.upCosts   = new int[upOffsets[n]];
+        this.upMids    = new int[upOffsets[n]];
+        this.downTails = new int[downOffsets[n]];
+        this.downCosts = new int[downOffsets[n]];
+        this.downMids  = new int[downOffsets[n]];
+
+        final int[] upNext   = Arrays.copyOf(upOffsets, n);
+        final int[] downNext = Arrays.copyOf(downOffsets, n);
+        for (int u = 0; u < n; ++u) {
+            EdgeBag out = contractor.out[u];
+            for (int i = 0; i < out.size; ++i) {
+                final int w = out.heads[i];
+                if (rank[w] > rank[u]) {
+                    upHeads[upNext[u]] = w;
+                    upCosts[upNext[u]] = out.costs[i];
+                    upMids[upNext[u]++] = out.mids[i];
+                } else {
+                    downTails[downNext[w]] = u;
+                    downCosts[downNext[w]] = out.costs[i];
+                    downMids[downNext[w]++] = out.mids[i];
+                }
+            }
+        }
+    }
+
+    /**
+     * @return Number of shortcut edges added by preprocessing.
+     */
+    int shortcutCount() {
+        return this.shortcutCount;
+    }
+
+    /**
+     * Same semantics as Graph.getShortestPath, answered on the hierarchy.
+     *
+     * @param sid Id of the source node.
+     * @param tid Id of the target node.
+     * @return shortest path between these nodes.
+     * @throws IllegalArgumentException if a node is missing or unreachable.
+     */
+    ArrayList<Integer> getShortestPath(int sid, int tid) {
+        final int s = graph.requireIndex(sid);
+        final int t = graph.requireIndex(tid);
+
+        if (this.search(s, t) == DijkstraEngine.UNREACHABLE)
+            throw new IllegalArgumentException(
+                "No path from " + sid + " to " + tid + ".");
+
+        return this.extractPath(s, t);
+    }
+
+    /**
+     * Upward search from t on the out-edges and from s on the in-edges.
+     * A side stops once its smallest key reaches the best distance.
+     *
+     * @param s dense index of the source node
+     * @param t dense index of the target node
+     * @return Distance between the nodes, or UNREACHABLE.
+     */
+    int search(int s, int t) {
+        final DijkstraEngine.SearchSpace fw = FORWARD.get();
+        final DijkstraEngine.SearchSpace bw = BACKWARD.get();
+        fw.begin(graph.nodeCount());
+        bw.begin(graph.nodeCount());
+        fw.reach(t, 0, -1, 0);
+        bw.reach(s, 0, -1, 0);
+        fw.best = DijkstraEngine.UNREACHABLE;
+        fw.meet = -1;
+
+        while (true) {
+            boolean fwGo = !fw.heap.isEmpty() && fw.heap.minKey() < fw.best;
+            boolean bwGo = !bw.heap.isEmpty() && bw.heap.minKey() < fw.best;
+            if (!fwGo && !bwGo)
+                break;
+
+            if (fwGo)
+                this.step(fw, bw, fw, upOffsets, upHeads, upCosts,
+                          downOffsets, downTails, downCosts);
+            if (bwGo)
+                this.step(bw, fw, fw, downOffsets, downTails, downCosts,
+                          upOffsets, upHeads, upCosts);
+        }
+        fw.settled += bw.settled;
+        return fw.best;
+    }
+
+    /**
+     * Settle one node on side `sp`, check it as a meeting node, and relax
+     * its upward edges. With stall-on-demand, a node that can be reached
+     * cheaper through a higher-ranked node seen by the same side is not
+     * expanded, as it cannot lie on a shortest up-down path.
+     */
+    private void step(DijkstraEngine.SearchSpace sp,
+                      DijkstraEngine.SearchSpace other,
+                      DijkstraEngine.SearchSpace result,
+                      int[] offsets, int[] heads, int[] costs,
+                      int[] stallOffsets, int[] stallHeads, int[] stallCosts)
+    {
+        final int u = sp.heap.poll();
+        final int du = sp.dist[u];
+        sp.settled++;
+
+        if (other.isSeen(u) && (long) du + other.dist[u] < result.best) {
+            result.best = du + other.dist[u];
+            result.meet = u;
+        }
+
+        // stall-on-demand check
+        for (int e = stallOffsets[u]; e < stallOffsets[u + 1]; ++e) {
+            final int w = stallHeads[e];
+            if (sp.isSeen(w) && (long) sp.dist[w] + stallCosts[e] < du)
+                return;
+        }
+
+        for (int e = offsets[u]; e < offsets[u + 1]; ++e)
+            sp.relax(heads[e], du + costs[e], u, 0);
+    }
+
+    /**
+     * Rebuild the path of the last search on this thread in graph edge
+     * order (t -> meet -> s), unpack its shortcuts, and return it from
+     * s to t as Graph.getShortestPath does.
+     */
+    private ArrayList<Integer> extractPath(int s, int t) {
+        final DijkstraEngine.SearchSpace fw = FORWARD.get();
+        final DijkstraEngine.SearchSpace bw = BACKWARD.get();
+
+        // packed path: t ... meet from the forward side, then on to s
+        ArrayList<Integer> packed = new ArrayList<>();
+        for (int v = fw.meet; v != -1; v = fw.prev[v])
+            packed.add(v);
+        Collections.reverse(packed);
+        for (int v = bw.prev[fw.meet]; v != -1; v = bw.prev[v])
+            packed.add(v);
+
+        // unpack every edge of the packed path
+        ArrayList<Integer> path = new ArrayList<>();
+        path.add(packed.get(0));
+        for (int i = 0; i + 1 < packed.size(); ++i) {
+            final int a = packed.get(i);
+            final int b = packed.get(i + 1);
+            this.unpack(a, b, this.midOf(a, b), path);
+        }
+
+        // map to ids, ordered from s to t
+        Collections.reverse(path);
+        path.replaceAll(graph::idOf);
+        return path;
+    }
+
+    /**
+     * Append the real nodes after `a` on the edge (a,b) to `path`.
+     *
+     * @param mid node skipped by the edge, or -1 for an original edge
+     */
+    private void unpack(int a, int b, int mid, ArrayList<Integer> path) {
+        if (mid < 0) {
+            path.add(b);
+            return;
+        }
+        this.unpack(a, mid, this.midOf(a, mid), path);
+        this.unpack(mid, b, this.midOf(mid, b), path);
+    }
+
+    /**
+     * @return The node skipped by edge (a,b), or -1 if it is an original.
+     */
+    private int midOf(int a, int b) {
+        if (rank[b] > rank[a]) {
+            for (int e = upOffsets[a]; e < upOffsets[a + 1]; ++e)
+                if (upHeads[e] == b)
+                    return upMids[e];
+        } else {
+            for (int e = downOffsets[b]; e < downOffsets[b + 1]; ++e)
+                if (downTails[e] == a)
+                    return downMids[e];
+        }
+        throw new IllegalStateException("Missing edge " + a + " -> " + b);
+    }
+
+    /**
+     * Mutable adjacency used while contracting. Edges to contracted nodes
+     * are kept but skipped, so contraction never has to delete edges.
+     */
+    private static final class Contractor {
+        final EdgeBag[] out;
+        final EdgeBag[] in;
+        final boolean[] contracted;
+        final int[] deletedNeibs;
+        final DijkstraEngine.SearchSpace witness =
+            new DijkstraEngine.SearchSpace();
+        int shortcuts = 0;
+
+        Contractor(CsrGraph graph) {
+            final int n = graph.nodeCount();
+            final int[] offsets = graph.offsets();
+            final int[] targets = graph.targets();
+            final int[] costs   = graph.costs();
+
+            this.out = new EdgeBag[n];
+            this.in  = new EdgeBag[n];
+            this.contracted   = new boolean[n];
+            this.deletedNeibs = new int[n];
+            for (int v = 0; v < n; ++v) {
+                out[v] = new EdgeBag();
+                in[v]  = new EdgeBag();
+            }
+            for (int u = 0; u < n; ++u) {
+                for (int e = offsets[u]; e < offsets[u + 1]; ++e) {
+                    if (targets[e] == u)
+                        continue;
+                    out[u].put(targets[e], costs[e], -1);
+                    in[targets[e]].put(u, costs[e], -1);
+                }
+            }
+        }
+
+        /**
+         * Contract all nodes, lazily re-checking the priority of the next
+         * node and eagerly updating the neighbors of each contracted one.
+         *
+         * @return The rank of every node.
+         */
+        int[] run() {
+            final int n = out.length;
+            final int[] rank = new int[n];
+            IndexedMinHeap order = new IndexedMinHeap(n);
+            for (int v = 0; v < n; ++v)
+                order.pushOrDecrease(v, priority(v));
+
+            int level = 0;
+            while (!order.isEmpty()) {
+                final int v = order.poll();
+                final int p = priority(v);
+                if (!order.isEmpty() && p > order.minKey()) {
+                    order.pushOrDecrease(v, p);
+                    continue;
+                }
+
+                contract(v, true, WITNESS_SETTLE_LIMIT);
+                contracted[v] = true;
+                rank[v] = level++;
+
+                // neighbors lost an edge, so their priority changed
+                updateNeibs(v, out[v], order);
+                updateNeibs(v, in[v], order);
+            }
+            return rank;
+        }
+
+        private void updateNeibs(int v, EdgeBag bag, IndexedMinHeap order) {
+            for (int i = 0; i < bag.size; ++i) {
+                final int w = bag.heads[i];
+                if (!contracted[w]) {
+                    deletedNeibs[w]++;
+                    order.update(w, priority(w));
+                }
+            }
+        }
+
+        /**
+         * Edge difference plus the number of contracted neighbors, which
+         * spreads the contraction evenly over the graph.
+         */
+        private int priority(int v) {
+            return contract(v, false, PRIORITY_SETTLE_LIMIT) -
+                liveDegree(in[v]) - liveDegree(out[v]) + deletedNeibs[v];
+        }
+
+        private int liveDegree(EdgeBag bag) {
+            int degree = 0;
+            for (int i = 0; i < bag.size; ++i)
+                if (!contracted[bag.heads[i]])
+                    ++degree;
+            return degree;
+        }
+
+        /**
+         * Find the shortcuts needed to contract v.
+         *
+         * @param apply true to add them, false to only count them
+         * @param limit settle limit of the witness searches
+         * @return Number of shortcuts needed.
+         */
+        private int contract(int v, boolean apply, int limit) {
+            final EdgeBag vin  = in[v];
+            final EdgeBag vout = out[v];
+            int count = 0;
+
+            for (int i = 0; i < vin.size; ++i) {
+                final int u = vin.heads[i];
+                if (contracted[u])
+                    continue;
+
+                // bound the witness search by the longest path via v
+                int maxCost = -1;
+                for (int j = 0; j < vout.size; ++j) {
+                    final int w = vout.heads[j];
+                    if (!contracted[w] && w != u)
+                        maxCost = Math.max(maxCost,
+                                           vin.costs[i] + vout.costs[j]);
+                }
+                if (maxCost < 0)
+                    continue;
+
+                witnessSearch(u, v, maxCost, limit);
+
+                for (int j = 0; j < vout.size; ++j) {
+                    final int w = vout.heads[j];
+                    final int viaV = vin.costs[i] + vout.costs[j];
+                    if (contracted[w] || w == u || witness.distOf(w) <= viaV)
+                        continue;
+
+                    ++count;
+                    if (apply) {
+                        if (out[u].put(w, viaV, v))
+                            ++shortcuts;
+                        in[w].put(u, viaV, v);
+                    }
+                }
+            }
+            return count;
+        }
+
+        /**
+         * Bounded Dijkstra from u over uncontracted nodes, avoiding v.
+         */
+        private void witnessSearch(int u, int v, int maxCost, int limit) {
+            witness.begin(out.length);
+            witness.reach(u, 0, -1, 0);
+
+            while (!witness.heap.isEmpty()) {
+                final int x = witness.heap.poll();
+                final int dx = witness.dist[x];
+                if (dx > maxCost || ++witness.settled > limit)
+                    return;
+
+                final EdgeBag bag = out[x];
+                for (int i = 0; i < bag.size; ++i) {
+                    final int y = bag.heads[i];
+                    if (y != v && !contracted[y])
+                        witness.relax(y, dx + bag.costs[i], x, 0);
+                }
+            }
+        }
+    }
+
+    /**
+     * A growable list of (head, cost, mid) edges of one node, with at most
+     * one edge per head.
+     */
+    private static final class EdgeBag {
+        int[] heads = new int[4];
+        int[] costs = new int[4];
+        int[] mids  = new int[4];
+        int size = 0;
+
+        /**
+         * Add an edge, or lower the cost of an existing one.
+         *
+         * @return True if a new edge was added.
+         */
+        boolean put(int head, int cost, int mid) {
+            for (int i = 0; i < size; ++i) {
+                if (heads[i] == head) {
+                    if (cost < costs[i]) {
+                        costs[i] = cost;
+                        mids[i]  = mid;
+                    }
+                    return false;
+                }
+            }
+            if (size == heads.length) {
+                heads = Arrays.copyOf(heads, 2 * size);
+                costs = Arrays.copyOf(costs, 2 * size);
+                mids  = Arrays.copyOf(mids, 2 * size);
+            }
+            heads[size] = head;
+            costs[size] = cost;
+            mids[size++] = mid;
+            return true;
+        }
+    }
+}
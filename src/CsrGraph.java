@@ -0,0 +1,401 @@
+/**
+ * @file   CsrGraph.java
+ * @brief  This class is a frozen, read-optimized copy of a Graph. The
+ *         adjacency is stored in compressed sparse row (CSR) form: the
+ *         out-edges of the node at index i are the slice
+ *         [offsets[i], offsets[i + 1]) of the `targets` and `costs` arrays.
+ *         Node ids are mapped to dense indices once per query, so the
+ *         search itself only touches primitive arrays. The in-edges are
+ *         kept in the same form for searches on the reverse graph.
+ *
+ * @see    Graph
+ * @see    DijkstraEngine
+ * @author Xin Cai
+ */
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.stream.IntStream;
+
+
+public final class CsrGraph {
+    /* Sorted node ids, the position of an id is its dense index */
+    private final int[] nodeIds;
+
+    /* True if nodeIds is exactly 0..n-1, so an id is its own index */
+    private final boolean denseIds;
+
+    /* CSR adjacency, rows are sorted by target index */
+    private final int[] offsets;
+    private final int[] targets;
+    private final int[] costs;
+
+    /* reverse CSR adjacency, in-edges of node i sorted by source index */
+    private final int[] revOffsets;
+    private final int[] revSources;
+    private final int[] revCosts;
+
+    /* allocation-free search engine over the arrays above */
+    private final DijkstraEngine engine;
+
+    /**
+     * Construct the CSR form from the adjacency list of a Graph. Every id
+     * appearing as a key or as a neighbor becomes a node.
+     *
+     * @param graphData nodes and edges info of the graph.
+     */
+    CsrGraph(HashMap<Integer, HashMap<Integer, Integer>> graphData) {
+        // collect and sort all node ids
+        int[] ids = new int[graphData.size()];
+        int size = 0;
+        for (int id : graphData.keySet())
+            ids[size++] = id;
+
+        for (HashMap<Integer, Integer> neibs : graphData.values()) {
+            for (int neib : neibs.keySet()) {
+                if (!graphData.containsKey(neib)) {
+                    if (size == ids.length)
+                        ids = Arrays.copyOf(ids, 2 * size + 1);
+                    ids[size++] = neib;
+                }
+            }
+        }
+        Arrays.sort(ids, 0, size);
+        this.nodeIds  = uniqueSorted(ids, size);
+        this.denseIds = nodeIds.length == 0 || (nodeIds[0] == 0 &&
+            nodeIds[nodeIds.length - 1] == nodeIds.length - 1);
+
+        // count out-degrees and compute row offsets
+        final int n = nodeIds.length;
+        this.offsets = new int[n + 1];
+        graphData.forEach((id, neibs) ->
+            offsets[this.indexOf(id) + 1] = neibs.size());
+
+        for (int i = 0; i < n; ++i)
+            offsets[i + 1] += offsets[i];
+
+        // fill each row with (target, cost) pairs
+        this.targets = new int[offsets[n]];
+        this.costs   = new int[offsets[n]];
+        graphData.forEach((id, neibs) -> {
+            final int row = this.indexOf(id);
+            final int[] next = { offsets[row] };
+            neibs.forEach((neib, cost) -> {
+                targets[next[0]] = this.indexOf(neib);
+                costs[next[0]++] = cost;
+            });
+            sortRow(targets, costs, offsets[row], offsets[row + 1]);
+        });
+
+        // transpose into the reverse adjacency
+        this.revOffsets = new int[n + 1];
+        this.revSources = new int[targets.length];
+        this.revCosts   = new int[targets.length];
+        this.transpose();
+
+        this.engine = new DijkstraEngine(this);
+    }
+
+    /**
+     * Construct the CSR form from its arrays, e.g. as read back from a 
+     * snapshot file. The arrays are used as they are, not copied.
+     *
+     * @param nodeIds sorted, distinct node ids
+     * @param offsets row offsets, nodeIds.length + 1 of them
+     * @param targets dense target index of each edge, rows sorted
+     * @param costs cost of each edge
+     */
+    CsrGraph(int[] nodeIds, int[] offsets, int[] targets, int[] costs) {
+        final int n = nodeIds.length;
+        this.nodeIds  = nodeIds;
+        this.denseIds = n == 0 || (nodeIds[0] == 0 && nodeIds[n - 1] == n - 1);
+        this.offsets  = offsets;
+        this.targets  = targets;
+        this.costs    = costs;
+
+        this.revOffsets = new int[n + 1];
+        this.revSources = new int[targets.length];
+        this.revCosts   = new int[targets.length];
+        this.transpose();
+
+        this.engine = new DijkstraEngine(this);
+    }
+
+    /**
+     * Build the CSR form straight from an edge list, without going through
+     * the adjacency lists of a Graph. Every id appearing as a source or a
+     * target becomes a node. An edge listed more than once keeps its last
+     * cost, as repeated Graph.addEdge calls would.
+     *
+     * @param us source id of each edge
+     * @param vs target id of each edge
+     * @param cs cost of each edge
+     * @return The frozen graph of these edges.
+     */
+    static CsrGraph fromEdges(int[] us, int[] vs, int[] cs) {
+        // collect and sort all node ids
+        final int m = us.length;
+        int[] ids = Arrays.copyOf(us, 2 * m);
+        System.arraycopy(vs, 0, ids, m, m);
+        Arrays.parallelSort(ids);
+        final int[] nodeIds = uniqueSorted(ids, ids.length);
+        final int n = nodeIds.length;
+
+        // map both ends of every edge to dense indices
+        final int[] src = new int[m];
+        final int[] dst = new int[m];
+        IntStream.range(0, m).parallel().forEach(e -> {
+            src[e] = Arrays.binarySearch(nodeIds, us[e]);
+            dst[e] = Arrays.binarySearch(nodeIds, vs[e]);
+        });
+
+        // counting sort by source, keeping the input order within a row
+        final int[] offsets = new int[n + 1];
+        for (int u : src)
+            offsets[u + 1]++;
+        for (int i = 0; i < n; ++i)
+            offsets[i + 1] += offsets[i];
+
+        int[] targets = new int[m];
+        int[] costs   = new int[m];
+        final int[] next = Arrays.copyOf(offsets, n);
+        for (int e = 0; e < m; ++e) {
+            targets[next[src[e]]] = dst[e];
+            costs[next[src[e]]++] = cs[e];
+        }
+
+        // sort each row by target, the stable sort leaves the last cost of
+        // a repeated edge at the end of its run, and keep only that one
+        int size = 0;
+        for (int u = 0; u < n; ++u) {
+            final int from = offsets[u];
+            final int to   = offsets[u + 1];
+            sortRow(targets, costs, from, to);
+
+            offsets[u] = size;
+            for (int e = from; e < to; ++e) {
+                if (e + 1 < to && targets[e + 1] == targets[e])
+                    continue;
+                targets[size] = targets[e];
+                costs[size++] = costs[e];
+            }
+        }
+        offsets[n] = size;
+        if (size < m) {
+            targets = Arrays.copyOf(targets, size);
+            costs   = Arrays.copyOf(costs, size);
+        }
+        return new CsrGraph(nodeIds, offsets, targets, costs);
+    }
+
+    /**
+     * Fill the reverse adjacency arrays from the forward ones.
+     */
+    private void transpose() {
+        final int n = nodeIds.length;
+        for (int v : targets)
+            revOffsets[v + 1]++;
+
+        for (int i = 0; i < n; ++i)
+            revOffsets[i + 1] += revOffsets[i];
+
+        final int[] next = Arrays.copyOf(revOffsets, n);
+        for (int u = 0; u < n; ++u) {
+            for (int e = offsets[u]; e < offsets[u + 1]; ++e) {
+                revSources[next[targets[e]]] = u;
+                revCosts[next[targets[e]]++] = costs[e];
+            }
+        }
+    }
+
+    /**
+     * @param ids a sorted array of ids, possibly with duplicates
+     * @param size number of valid entries in `ids`
+     * @return A new array of the distinct ids.
+     */
+    private static int[] uniqueSorted(int[] ids, int size) {
+        int k = 0;
+        for (int i = 0; i < size; ++i) {
+            if (k == 0 || ids[k - 1] != ids[i])
+                ids[k++] = ids[i];
+        }
+        return Arrays.copyOf(ids, k);
+    }
+
+    /**
+     * Insertion sort of one CSR row by target index. Rows are short, so
+     * this is cheaper than boxing them for a library sort. The sort is
+     * stable, equal targets keep their order.
+     */
+    private static void sortRow(int[] targets, int[] costs, int from, int to) {
+        for (int i = from + 1; i < to; ++i) {
+            int t = targets[i];
+            int c = costs[i];
+            int j = i - 1;
+            while (j >= from && targets[j] > t) {
+                targets[j + 1] = targets[j];
+                costs[j + 1]   = costs[j];
+                --j;
+            }
+            targets[j + 1] = t;
+            costs[j + 1]   = c;
+        }
+    }
+
+    /**
+     * @param nid a node id
+     * @return The dense index of the node, or -1 if it is not in the graph.
+     */
+    int indexOf(int nid) {
+        if (denseIds)
+            return (nid >= 0 && nid < nodeIds.length) ? nid : -1;
+
+        int idx = Arrays.binarySearch(nodeIds, nid);
+        return idx >= 0 ? idx : -1;
+    }
+
+    /**
+     * @param idx a dense node index
+     * @return The node id at that index.
+     */
+    int idOf(int idx) {
+        return nodeIds[idx];
+    }
+
+    /**
+     * @return Number of nodes in this graph.
+     */
+    public int nodeCount() {
+        return nodeIds.length;
+    }
+
+    /**
+     * @return Number of directed edges in this graph.
+     */
+    public int edgeCount() {
+        return targets.length;
+    }
+
+    /**
+     * @return Estimated heap size of the CSR arrays in bytes.
+     */
+    public long footprintBytes() {
+        final long header = 16;
+        return 4L * (nodeIds.length + 2L * offsets.length + 4L * targets.length) +
+            7 * header;
+    }
+
+    /**
+     * Same semantics as Graph.getShortestPath: the search starts at the
+     * target node and stops once the source node is settled.
+     *
+     * @param sid Id of the source node.
+     * @param tid Id of the target node.
+     * @return shortest path between these nodes.
+     * @throws IllegalArgumentException if a node is missing or unreachable.
+     */
+    public ArrayList<Integer> getShortestPath(int sid, int tid) {
+        return this.engine.getShortestPath(sid, tid);
+    }
+
+    /**
+     * A* variant of getShortestPath. It returns a path of the same cost,
+     * but settles fewer nodes when the heuristic is informative.
+     *
+     * @param sid Id of the source node.
+     * @param tid Id of the target node.
+     * @param heuristic grid positions of the nodes of this graph
+     * @return shortest path between these nodes.
+     * @throws IllegalArgumentException if a node is missing or unreachable.
+     */
+    public ArrayList<Integer> getShortestPath(
+        int sid, int tid, GridHeuristic heuristic)
+    {
+        return this.engine.getShortestPath(sid, tid, heuristic);
+    }
+
+    /**
+     * Multi-source variant of getShortestPath: one search seeded with all
+     * the targets finds the nearest one and the path to it.
+     *
+     * @param sid Id of the source node.
+     * @param tids Ids of the candidate target nodes.
+     * @return shortest path from the source to its nearest target, which
+     *         is the last node of the path.
+     * @throws IllegalArgumentException if a node is missing or no target
+     *         is reachable.
+     */
+    public ArrayList<Integer> getShortestPathToNearest(int sid, int[] tids) {
+        return this.engine.getShortestPathToNearest(sid, tids);
+    }
+
+    /**
+     * Bidirectional variant of getShortestPath: a search from the target
+     * on the out-edges and a search from the source on the in-edges run
+     * in alternation until they meet.
+     *
+     * @param sid Id of the source node.
+     * @param tid Id of the target node.
+     * @return shortest path between these nodes.
+     * @throws IllegalArgumentException if a node is missing or unreachable.
+     */
+    public ArrayList<Integer> getShortestPathBidirectional(int sid, int tid) {
+        return this.engine.getShortestPathBidirectional(sid, tid);
+    }
+
+    /**
+     * @param nid a node id
+     * @return The dense index of the node.
+     * @throws IllegalArgumentException if the node is not in the graph.
+     */
+    int requireIndex(int nid) {
+        int idx = this.indexOf(nid);
+        if (idx < 0)
+            throw new IllegalArgumentException("Node " + nid + " not found.");
+        return idx;
+    }
+
+    /**
+     * Check if a node id is in this graph.
+     *
+     * @param nid Node id for checking.
+     * @return True if this graph contains the given node id, otherwise, false.
+     */
+    public boolean hasNode(int nid) {
+        return this.indexOf(nid) >= 0;
+    }
+
+    /**
+     * Check if a given edge (u,v) is in this graph.
+     *
+     * @param u One node on an edge.
+     * @param v The other node on the edge.
+     * @return True if this graph contains that edge, otherwise, false.
+     */
+    public boolean hasEdge(int u, int v) {
+        return this.edgeIndex(this.indexOf(u), this.indexOf(v)) >= 0;
+    }
+
+    /**
+     * @param u dense index of the tail node
+     * @param v dense index of the head node
+     * @return Position of edge (u,v) in the CSR arrays, or -1.
+     */
+    int edgeIndex(int u, int v) {
+        if (u < 0 || v < 0)
+            return -1;
+
+        int e = Arrays.binarySearch(targets, offsets[u], offsets[u + 1], v);
+        return e >= 0 ? e : -1;
+    }
+
+    /* Raw CSR access for the search engines in this package */
+    int[] nodeIds() { return nodeIds; }
+    int[] offsets() { return offsets; }
+    int[] targets() { return targets; }
+    int[] costs()   { return costs; }
+    int[] revOffsets() { return revOffsets; }
+    int[] revSources() { return revSources; }
+    int[] revCosts()   { return revCosts; }
+    DijkstraEngine engine() { return engine; }
+}
@@ -0,0 +1,325 @@
+/**
+ * @file   DataReloader.java
+ * @brief  Watches the data file and the map file with a WatchService and
+ *         reloads whichever of them changed on a background thread. The
+ *         new building table and edge set are diffed against the previous
+ *         load, and the result is handed over as one Reload: the new
+ *         tables plus the edge changes that turn the live graph into the
+ *         new one. The listener only swaps references and applies the
+ *         diff, so queries keep running on the old data until the swap.
+ *         A map drawn from tiles is only reopened as a TiledMap, and its
+ *         border table scanned tile by tile, so a reload never builds the
+ *         whole MapBoard.
+ *
+ * @see    MappedFileReader
+ * @see    TiledMap
+ * @see    Graph.EdgeChange
+ * @author Xin Cai
+ */
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+
+final class DataReloader implements AutoCloseable {
+    /* quiet time after the last event before a file is read, so that an
+       editor saving in several writes causes one reload */
+    private static final long SETTLE_MILLIS = 100;
+
+    /**
+     * The outcome of one reload. Fields of a file that did not change are
+     * null. Nothing in a Reload is modified after it is handed over.
+     *
+     * @param buildingTable the new buildings, or null
+     * @param edgeChanges edges to add, re-cost or remove in the live graph
+     * @param addedNodes nodes new in the data file, added before the edge
+     *        changes so that those only reached by new edges are nodes
+     *        of the live graph too
+     * @param removedNodes nodes no longer in the data file
+     * @param mapBoard the new campus map, or null
+     * @param tiledMap the new campus map opened for tiled rendering, or
+     *        null
+     * @param borderTable border cells on the new map, or null
+     * @param summary what changed, for display
+     */
+    record Reload(HashMap<Integer, Building> buildingTable,
+                  ArrayList<Graph.EdgeChange> edgeChanges,
+                  ArrayList<Integer> addedNodes,
+                  ArrayList<Integer> removedNodes,
+                  MapBoard mapBoard,
+                  TiledMap tiledMap,
+                  HashMap<Integer, ArrayList<int[]>> borderTable,
+                  String summary) {}
+
+    private final Path datFile;
+    private final Path mapFile;
+    private final boolean tiled;
+    private final Consumer<Reload> listener;
+    private final WatchService watcher;
+    private final Thread thread;
+
+    /* the last load, which the next one is diffed against */
+    private CsrGraph graph;
+    private HashMap<Integer, Building> buildingTable;
+
+    /**
+     * @param datFile input file path for campus buildings
+     * @param mapFile input file path for campus map
+     * @param tiled true to reopen a changed map as a TiledMap rather than
+     *        load it as a MapBoard
+     * @param graph the graph as loaded from the data file
+     * @param buildingTable the buildings as loaded from the data file
+     * @param listener called on the watcher thread after each reload
+     * @throws IOException if the directories cannot be watched.
+     */
+    DataReloader(String datFile, String mapFile, boolean tiled,
+                 CsrGraph graph, HashMap<Integer, Building> buildingTable,
+                 Consumer<Reload> listener) throws IOException
+    {
+        this.datFile  = Path.of(datFile).toAbsolutePath().normalize();
+        this.mapFile  = Path.of(mapFile).toAbsolutePath().normalize();
+        this.tiled    = tiled;
+        this.graph    = graph;
+        this.buildingTable = buildingTable;
+        this.listener = listener;
+
+        this.watcher = this.datFile.getFileSystem().newWatchService();
+        for (Path dir : new HashSet<>(List.of(
+                this.datFile.getParent(), this.mapFile.getParent())))
+            dir.register(this.watcher,
+                         StandardWatchEventKinds.ENTRY_CREATE,
+                         StandardWatchEventKinds.ENTRY_MODIFY);
+
+        this.thread = new Thread(this::watch, "data-reloader");
+        this.thread.setDaemon(true);
+    }
+
+    /**
+     * Start watching in the background.
+     *
+     * @return This reloader.
+     */
+    DataReloader start() {
+        this.thread.start();
+        return this;
+    }
+
+    /**
+     * Stop watching.
+     */
+    @Override
+    public void close() throws IOException {
+        this.watcher.close();
+    }
+
+    /**
+     * Wait for changes to either file and reload them, until closed.
+     */
+    private void watch() {
+        try {
+            while (true) {
+                // block for the first event, then until events settle
+                HashSet<Path> changed = new HashSet<>();
+                WatchKey key = this.watcher.take();
+                while (key != null) {
+                    final Path dir = (Path) key.watchable();
+                    for (WatchEvent<?> event : key.pollEvents())
+                        if (event.context() instanceof Path name)
+                            changed.add(dir.resolve(name));
+                    key.reset();
+                    key = this.watcher.poll(SETTLE_MILLIS,
+                                            TimeUnit.MILLISECONDS);
+                }
+
+                final boolean dat = changed.contains(this.datFile);
+                final boolean map = changed.contains(this.mapFile);
+                if (dat || map)
+                    this.reload(dat, map);
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // closed, stop watching
+        }
+    }
+
+    /**
+     * Parse the changed files, diff them against the last load and hand
+     * the result to the listener. A file that is missing or empty, or a
+     * data file with lines that fail to parse or a last line without its
+     * line break, as it can be halfway through a save, is left for the
+     * next event.
+     */
+    private void reload(boolean dat, boolean map) {
+        dat &= readable(this.datFile);
+        map &= readable(this.mapFile);
+        if (!dat && !map)
+            return;
+
+        MappedFileReader reader = new MappedFileReader(
+            dat ? this.datFile.toString() : null,
+            map && !this.tiled ? this.mapFile.toString() : null);
+        if (dat && (!reader.getParseErrors().isEmpty() ||
+                    reader.isTruncated())) {
+            System.err.println("Reload of " + this.datFile.getFileName() +
+                " skipped: " + (reader.isTruncated() ?
+                "last line is incomplete" :
+                reader.getParseErrors().size() + " lines failed to parse"));
+            dat = false;
+        }
+        final TiledMap tiles = map && this.tiled ? this.openTiles() : null;
+        if (map && (this.tiled ? tiles : reader.getMapBoard()) == null)
+            map = false;
+        if (!dat && !map)
+            return;
+        final HashMap<Integer, ArrayList<int[]>> borderTable = !map ? null :
+            tiles != null ? tiles.borderTable() : reader.getBorderTable();
+
+        StringBuilder summary = new StringBuilder();
+        ArrayList<Graph.EdgeChange> edgeChanges = new ArrayList<>();
+        ArrayList<Integer> addedNodes = new ArrayList<>();
+        ArrayList<Integer> removedNodes = new ArrayList<>();
+
+        if (dat) {
+            final CsrGraph next = reader.getCampusGraph().freeze();
+            diffEdges(this.graph, next, edgeChanges, addedNodes, removedNodes);
+            summary.append(this.datFile.getFileName()).append(": ")
+                .append(changedBuildings(this.buildingTable,
+                                         reader.getBuildingTable()))
+                .append(" buildings and ").append(edgeChanges.size())
+                .append(" edges changed");
+            this.graph = next;
+            this.buildingTable = reader.getBuildingTable();
+        }
+        if (map) {
+            summary.append(dat ? ", " : "")
+                .append(this.mapFile.getFileName()).append(": ")
+                .append(borderTable.size())
+                .append(" buildings on the map");
+        }
+
+        this.listener.accept(new Reload(
+            dat ? reader.getBuildingTable() : null,
+            edgeChanges, addedNodes, removedNodes,
+            map && tiles == null ? reader.getMapBoard() : null,
+            tiles,
+            borderTable,
+            summary.toString()));
+    }
+
+    /**
+     * @return The map file opened for tiled rendering, or null if it
+     *         cannot be read.
+     */
+    private TiledMap openTiles() {
+        try {
+            return new TiledMap(this.mapFile.toString());
+        } catch (IOException e) {
+            System.err.println("Error reading file: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static boolean readable(Path file) {
+        try {
+            return Files.isReadable(file) && Files.size(file) > 0;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Compute the edge changes that turn graph `from` into graph `to`,
+     * merging the rows of both graphs in node id order.
+     *
+     * @param from the previous graph
+     * @param to the new graph
+     * @param changes receives the edges added, re-costed or removed
+     * @param added receives the nodes of `to` that are not in `from`
+     * @param removed receives the nodes of `from` that are not in `to`
+     */
+    static void diffEdges(CsrGraph from, CsrGraph to,
+                          ArrayList<Graph.EdgeChange> changes,
+                          ArrayList<Integer> added,
+                          ArrayList<Integer> removed)
+    {
+        final int n = from.nodeCount();
+        final int m = to.nodeCount();
+        int i = 0, j = 0;
+        while (i < n || j < m) {
+            final int a = i < n ? from.idOf(i) : Integer.MAX_VALUE;
+            final int b = j < m ? to.idOf(j) : Integer.MAX_VALUE;
+            if (j >= m || (i < n && a < b)) {
+                diffRow(from, i++, to, -1, changes);
+                removed.add(a);
+            } else if (i >= n || b < a) {
+                diffRow(from, -1, to, j++, changes);
+                added.add(b);
+            } else {
+                diffRow(from, i++, to, j++, changes);
+            }
+        }
+    }
+
+    /**
+     * Diff the out-edges of one node, given by its index in each graph or
+     * -1 if it is missing there. Rows are sorted by target index, which is
+     * also target id order.
+     */
+    private static void diffRow(CsrGraph from, int u, CsrGraph to, int v,
+                                ArrayList<Graph.EdgeChange> changes)
+    {
+        final int id = u >= 0 ? from.idOf(u) : to.idOf(v);
+        int e = u >= 0 ? from.offsets()[u] : 0;
+        final int eEnd = u >= 0 ? from.offsets()[u + 1] : 0;
+        int f = v >= 0 ? to.offsets()[v] : 0;
+        final int fEnd = v >= 0 ? to.offsets()[v + 1] : 0;
+
+        while (e < eEnd || f < fEnd) {
+            final int a = e < eEnd ?
+                from.idOf(from.targets()[e]) : Integer.MAX_VALUE;
+            final int b = f < fEnd ?
+                to.idOf(to.targets()[f]) : Integer.MAX_VALUE;
+            if (f >= fEnd || (e < eEnd && a < b)) {
+                changes.add(Graph.EdgeChange.remove(id, a));
+                ++e;
+            } else if (e >= eEnd || b < a) {
+                changes.add(Graph.EdgeChange.put(id, b, to.costs()[f++]));
+            } else {
+                if (from.costs()[e] != to.costs()[f])
+                    changes.add(Graph.EdgeChange.put(id, b, to.costs()[f]));
+                ++e;
+                ++f;
+            }
+        }
+    }
+
+    /**
+     * @return Number of buildings added, removed or changed in name or
+     *         services.
+     */
+    private static int changedBuildings(HashMap<Integer, Building> before,
+                                        HashMap<Integer, Building> after)
+    {
+        int count = 0;
+        for (Building b : after.values()) {
+            Building old = before.get(b.id);
+            if (old == null || !old.name.equals(b.name) ||
+                !old.getServiceMessage().equals(b.getServiceMessage()))
+                ++count;
+        }
+        for (int id : before.keySet())
+            if (!after.containsKey(id))
+                ++count;
+        return count;
+    }
+}
@@ -0,0 +1,465 @@
+/**
+ * @file   DijkstraEngine.java
+ * @brief  An allocation-free Dijkstra search over a CsrGraph. It uses an
+ *         indexed min-heap with decrease-key instead of lazy deletion, and
+ *         keeps its dist/prev scratch arrays in a per-thread SearchSpace
+ *         that is reset in O(1) with epoch stamps. After warm-up, a query
+ *         allocates nothing except the returned path. An A* mode orders
+ *         the heap by distance plus a GridHeuristic estimate instead, and
+ *         a bidirectional mode searches the reverse graph as well.
+ *
+ * @see    CsrGraph
+ * @see    IndexedMinHeap
+ * @see    GridHeuristic
+ * @author Xin Cai
+ */
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+
+final class DijkstraEngine {
+    /** Distance reported for nodes that cannot be reached */
+    static final int UNREACHABLE = Integer.MAX_VALUE;
+
+    /* scratch buffers, one set per thread, shared by all engines */
+    private static final ThreadLocal<SearchSpace> SPACE =
+        ThreadLocal.withInitial(SearchSpace::new);
+
+    /* second set for the backward half of bidirectional searches */
+    private static final ThreadLocal<SearchSpace> BACKWARD =
+        ThreadLocal.withInitial(SearchSpace::new);
+
+    private final CsrGraph graph;
+
+    /**
+     * Construct an engine answering queries on the given graph.
+     *
+     * @param graph a frozen graph
+     */
+    DijkstraEngine(CsrGraph graph) {
+        this.graph = graph;
+    }
+
+    /**
+     * Same semantics as Graph.getShortestPath: the search starts at the
+     * target node and stops once the source node is settled.
+     *
+     * @param sid Id of the source node.
+     * @param tid Id of the target node.
+     * @return shortest path between these nodes.
+     * @throws IllegalArgumentException if a node is missing or unreachable.
+     */
+    ArrayList<Integer> getShortestPath(int sid, int tid) {
+        final int s = graph.requireIndex(sid);
+        final int t = graph.requireIndex(tid);
+
+        if (this.search(s, t) == UNREACHABLE)
+            throw new IllegalArgumentException(
+                "No path from " + sid + " to " + tid + ".");
+
+        return this.extractPath(s);
+    }
+
+    /**
+     * Settle every node reachable from t and copy the distances and
+     * predecessors into one row of caller-owned tables. Unreachable nodes
+     * get distance UNREACHABLE and predecessor -1.
+     *
+     * @param t dense index of the root node
+     * @param dist output distances, indexed by offset + node index
+     * @param prev output predecessors, indexed by offset + node index
+     * @param offset start of the row in the output tables
+     */
+    void searchTree(int t, int[] dist, int[] prev, int offset) {
+        this.search(-1, t);
+        this.copyTree(dist, prev, offset);
+    }
+
+    /**
+     * Same as searchTree, but on the in-edges: the tree rooted at s holds
+     * the shortest paths into s, so prev leads from any node towards s.
+     */
+    void searchReverseTree(int s, int[] dist, int[] prev, int offset) {
+        this.search(-1, s, graph.revOffsets(), graph.revSources(),
+                    graph.revCosts());
+        this.copyTree(dist, prev, offset);
+    }
+
+    /**
+     * Copy the result of the last search on this thread into one row of
+     * caller-owned tables.
+     */
+    private void copyTree(int[] dist, int[] prev, int offset) {
+        final SearchSpace sp = SPACE.get();
+        for (int v = 0; v < graph.nodeCount(); ++v) {
+            final boolean seen = sp.isSeen(v);
+            dist[offset + v] = seen ? sp.dist[v] : UNREACHABLE;
+            prev[offset + v] = seen ? sp.prev[v] : -1;
+        }
+    }
+
+    /**
+     * A* variant of getShortestPath, guided by grid positions.
+     *
+     * @param sid Id of the source node.
+     * @param tid Id of the target node.
+     * @param heuristic estimate of the remaining cost to the source node
+     * @return shortest path between these nodes.
+     * @throws IllegalArgumentException if a node is missing or unreachable.
+     */
+    ArrayList<Integer> getShortestPath(
+        int sid, int tid, GridHeuristic heuristic)
+    {
+        final int s = graph.requireIndex(sid);
+        final int t = graph.requireIndex(tid);
+
+        if (this.searchAStar(s, t, heuristic) == UNREACHABLE)
+            throw new IllegalArgumentException(
+                "No path from " + sid + " to " + tid + ".");
+
+        return this.extractPath(s);
+    }
+
+    /**
+     * Multi-source variant of getShortestPath: the path from the source to
+     * whichever target is nearest, found in one search.
+     *
+     * @param sid Id of the source node.
+     * @param tids Ids of the candidate target nodes.
+     * @return shortest path from the source to its nearest target.
+     * @throws IllegalArgumentException if a node is missing or no target
+     *         is reachable.
+     */
+    ArrayList<Integer> getShortestPathToNearest(int sid, int[] tids) {
+        final int s = graph.requireIndex(sid);
+        final int[] seeds = new int[tids.length];
+        for (int i = 0; i < tids.length; ++i)
+            seeds[i] = graph.requireIndex(tids[i]);
+
+        if (this.searchMulti(s, seeds) == UNREACHABLE)
+            throw new IllegalArgumentException(
+                "No target reachable from " + sid + ".");
+
+        return this.extractPath(s);
+    }
+
+    /**
+     * Bidirectional variant of getShortestPath.
+     *
+     * @param sid Id of the source node.
+     * @param tid Id of the target node.
+     * @return shortest path between these nodes.
+     * @throws IllegalArgumentException if a node is missing or unreachable.
+     */
+    ArrayList<Integer> getShortestPathBidirectional(int sid, int tid) {
+        final int s = graph.requireIndex(sid);
+        final int t = graph.requireIndex(tid);
+
+        if (this.searchBidirectional(s, t) == UNREACHABLE)
+            throw new IllegalArgumentException(
+                "No path from " + sid + " to " + tid + ".");
+
+        return this.extractBidirectionalPath(s, t);
+    }
+
+    /**
+     * Run Dijkstra's algorithm from index t until index s is settled. The
+     * predecessors are left in the calling thread's SearchSpace.
+     *
+     * @param s dense index of the source node, -1 to settle every node
+     * @param t dense index of the target node
+     * @return Distance between the nodes, or UNREACHABLE.
+     */
+    int search(int s, int t) {
+        return this.search(s, t, graph.offsets(), graph.targets(),
+                           graph.costs());
+    }
+
+    /**
+     * Dijkstra's algorithm on the given adjacency arrays, which are either
+     * the out-edges or the in-edges of the graph.
+     */
+    private int search(int s, int t, int[] offsets, int[] heads, int[] costs) {
+        final SearchSpace sp = SPACE.get();
+        sp.begin(graph.nodeCount());
+        sp.reach(t, 0, -1, 0);
+        return this.run(sp, s, offsets, heads, costs);
+    }
+
+    /**
+     * Multi-source variant of search: every seed starts at distance 0, so
+     * index s is settled from its nearest seed in a single search.
+     *
+     * @param s dense index of the source node, -1 to settle every node
+     * @param seeds dense indices of the target nodes
+     * @return Distance to the nearest seed, or UNREACHABLE.
+     */
+    int searchMulti(int s, int[] seeds) {
+        final SearchSpace sp = SPACE.get();
+        sp.begin(graph.nodeCount());
+        for (int seed : seeds)
+            sp.reach(seed, 0, -1, 0);
+        return this.run(sp, s, graph.offsets(), graph.targets(), graph.costs());
+    }
+
+    /**
+     * Settle every node reachable from the seeds and copy the forest into
+     * caller-owned tables, as searchTree does for a single root.
+     */
+    void searchMultiTree(int[] seeds, int[] dist, int[] prev) {
+        this.searchMulti(-1, seeds);
+        this.copyTree(dist, prev, 0);
+    }
+
+    /**
+     * Main loop of Dijkstra's algorithm on a started search space.
+     */
+    private int run(SearchSpace sp, int s, int[] offsets, int[] heads,
+                    int[] costs)
+    {
+        final IndexedMinHeap heap = sp.heap;
+
+        while (!heap.isEmpty()) {
+            final int u = heap.poll();
+            sp.settled++;
+
+            // termination check
+            if (u == s)
+                return sp.dist[u];
+
+            // relax the CSR row of u
+            final int du = sp.dist[u];
+            for (int e = offsets[u]; e < offsets[u + 1]; ++e)
+                sp.relax(heads[e], du + costs[e], u, 0);
+        }
+        return UNREACHABLE;
+    }
+
+    /**
+     * Run A* from index t until index s is settled. The heuristic is
+     * consistent, so a settled node never has to be reopened.
+     *
+     * @param s dense index of the source node
+     * @param t dense index of the target node
+     * @param heuristic estimate of the remaining cost to s
+     * @return Distance between the nodes, or UNREACHABLE.
+     */
+    int searchAStar(int s, int t, GridHeuristic heuristic) {
+        final int[] offsets = graph.offsets();
+        final int[] targets = graph.targets();
+        final int[] costs   = graph.costs();
+
+        final SearchSpace sp = SPACE.get();
+        final IndexedMinHeap heap = sp.heap;
+        sp.begin(graph.nodeCount());
+        sp.reach(t, 0, -1, heuristic.estimate(t, s));
+
+        while (!heap.isEmpty()) {
+            final int u = heap.poll();
+            sp.settled++;
+
+            // termination check
+            if (u == s)
+                return sp.dist[u];
+
+            // relax the CSR row of u, keyed by distance plus estimate
+            final int du = sp.dist[u];
+            for (int e = offsets[u]; e < offsets[u + 1]; ++e) {
+                final int v = targets[e];
+                if (!sp.isSettled(v))
+                    sp.relax(v, du + costs[e], u, heuristic.estimate(v, s));
+            }
+        }
+        return UNREACHABLE;
+    }
+
+    /**
+     * Search from t on the out-edges and from s on the in-edges, one step
+     * each in turn. The best meeting node is tracked while relaxing edges,
+     * and the search stops once the two smallest heap keys add up to at
+     * least the best distance found, at which point it is optimal.
+     *
+     * @param s dense index of the source node
+     * @param t dense index of the target node
+     * @return Distance between the nodes, or UNREACHABLE.
+     */
+    int searchBidirectional(int s, int t) {
+        final SearchSpace fw = SPACE.get();
+        final SearchSpace bw = BACKWARD.get();
+        fw.begin(graph.nodeCount());
+        bw.begin(graph.nodeCount());
+        fw.reach(t, 0, -1, 0);
+        bw.reach(s, 0, -1, 0);
+
+        fw.best = (s == t) ? 0 : UNREACHABLE;
+        fw.meet = (s == t) ? s : -1;
+        boolean forward = true;
+
+        while (!fw.heap.isEmpty() && !bw.heap.isEmpty()) {
+            // stop rule: no later meeting can beat the best one
+            if ((long) fw.heap.minKey() + bw.heap.minKey() >= fw.best)
+                break;
+
+            if (forward)
+                this.step(fw, bw, graph.offsets(), graph.targets(), graph.costs());
+            else
+                this.step(bw, fw, graph.revOffsets(), graph.revSources(),
+                          graph.revCosts());
+            forward = !forward;
+        }
+
+        // report the work of both directions
+        fw.settled += bw.settled;
+        return fw.best;
+    }
+
+    /**
+     * Settle one node on side `sp` and relax its edges, updating the best
+     * meeting point kept in the forward space.
+     */
+    private void step(SearchSpace sp, SearchSpace other,
+                      int[] offsets, int[] heads, int[] costs)
+    {
+        final SearchSpace fw = SPACE.get();
+        final int u = sp.heap.poll();
+        final int du = sp.dist[u];
+        sp.settled++;
+
+        for (int e = offsets[u]; e < offsets[u + 1]; ++e) {
+            final int v = heads[e];
+            final int dv = du + costs[e];
+            sp.relax(v, dv, u, 0);
+
+            // a path through edge (u,v) joins the two searches
+            if (other.isSeen(v) && (long) dv + other.dist[v] < fw.best) {
+                fw.best = dv + other.dist[v];
+                fw.meet = v;
+            }
+        }
+    }
+
+    /**
+     * Join the two halves of the last bidirectional search: from s to the
+     * meeting node along the backward predecessors, then on to t along the
+     * forward ones.
+     */
+    private ArrayList<Integer> extractBidirectionalPath(int s, int t) {
+        final SearchSpace fw = SPACE.get();
+        final SearchSpace bw = BACKWARD.get();
+        ArrayList<Integer> path = new ArrayList<>();
+
+        for (int v = fw.meet; v != s; v = bw.prev[v])
+            path.add(graph.idOf(v));
+        path.add(graph.idOf(s));
+        Collections.reverse(path);
+
+        for (int v = fw.meet; v != t; ) {
+            v = fw.prev[v];
+            path.add(graph.idOf(v));
+        }
+        return path;
+    }
+
+    /**
+     * Follow the predecessors of the last search on this thread, up to the
+     * target (or seed) the search started from.
+     *
+     * @param s dense index of the source node
+     * @return The node ids on the path from s to the target.
+     */
+    ArrayList<Integer> extractPath(int s) {
+        final int[] prev = SPACE.get().prev;
+        ArrayList<Integer> path = new ArrayList<>();
+
+        for (int v = s; v != -1; v = prev[v])
+            path.add(graph.idOf(v));
+
+        return path;
+    }
+
+    /**
+     * @return Number of nodes settled by the last search on this thread.
+     */
+    static int lastSettledCount() {
+        return SPACE.get().settled;
+    }
+
+    /**
+     * Scratch state of one search. An entry of dist/prev is only valid if
+     * its stamp equals the current epoch, so starting a new search does not
+     * touch the arrays. A node is settled once it is seen and has left the
+     * heap.
+     */
+    static final class SearchSpace {
+        int[] dist  = new int[0];
+        int[] prev  = new int[0];
+        int[] stamp = new int[0];
+        int epoch   = 0;
+        int settled = 0;
+
+        /* best distance and meeting node of a bidirectional search */
+        int best = UNREACHABLE;
+        int meet = -1;
+        final IndexedMinHeap heap = new IndexedMinHeap(0);
+
+        /**
+         * Start a new search on a graph with n nodes.
+         */
+        void begin(int n) {
+            if (stamp.length < n) {
+                dist  = Arrays.copyOf(dist, n);
+                prev  = Arrays.copyOf(prev, n);
+                stamp = Arrays.copyOf(stamp, n);
+                heap.ensureCapacity(n);
+            }
+            heap.clear();
+            settled = 0;
+
+            // on overflow, invalidate every stamp once
+            if (++epoch == Integer.MAX_VALUE) {
+                Arrays.fill(stamp, 0);
+                epoch = 1;
+            }
+        }
+
+        boolean isSeen(int v) {
+            return stamp[v] == epoch;
+        }
+
+        boolean isSettled(int v) {
+            return stamp[v] == epoch && !heap.contains(v);
+        }
+
+        /**
+         * @return Tentative distance of v, or UNREACHABLE if not seen yet.
+         */
+        int distOf(int v) {
+            return stamp[v] == epoch ? dist[v] : UNREACHABLE;
+        }
+
+        /**
+         * Record v as seen with the given distance and predecessor. The
+         * heap key is the distance plus the estimate h (0 for Dijkstra).
+         */
+        void reach(int v, int d, int p, int h) {
+            stamp[v] = epoch;
+            dist[v]  = d;
+            prev[v]  = p;
+            heap.pushOrDecrease(v, d + h);
+        }
+
+        /**
+         * Lower the tentative distance of v, unless v is already settled.
+         */
+        void relax(int v, int d, int p, int h) {
+            if (stamp[v] != epoch)
+                reach(v, d, p, h);
+            else if (d < dist[v] && heap.contains(v)) {
+                dist[v] = d;
+                prev[v] = p;
+                heap.pushOrDecrease(v, d + h);
+            }
+        }
+    }
+}
@@ -0,0 +1,285 @@
+/**
+ * @file   DynamicShortestPathTree.java
+ * @brief  A shortest path tree of one source node that stays correct while
+ *         edge costs change, e.g. through construction or crowding. The
+ *         tree keeps its own copy of the edge costs of a frozen graph and
+ *         repairs itself after every change in the style of Ramalingam and
+ *         Reps: a cheaper edge starts a Dijkstra from its tail, and a more
+ *         expensive or closed tree edge only re-searches the subtree that
+ *         hung from it. Either way, only the affected region is touched.
+ *
+ * @see    ShortestPathTree
+ * @author Xin Cai
+ */
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+
+
+final class DynamicShortestPathTree {
+    /** Cost of a closed edge, which no path may use */
+    static final int CLOSED = DijkstraEngine.UNREACHABLE;
+
+    private final CsrGraph graph;
+    private final int source;
+    private final int s;
+
+    /* mutable copies of the costs of the out-edges and in-edges */
+    private final int[] costs;
+    private final int[] revCosts;
+
+    /* dist[v] is the path cost between source and v, and next[v] the
+       node after v on that path when walking towards the source */
+    private final int[] dist;
+    private final int[] next;
+
+    /* repair scratch: queue of nodes to settle and the affected subtree */
+    private final IndexedMinHeap heap;
+    private final int[] mark;
+    private int epoch = 0;
+    private int touched = 0;
+
+    /**
+     * Compute the tree of the given source node with the current costs
+     * of the graph.
+     *
+     * @param graph a frozen graph
+     * @param sid Id of the source node.
+     * @throws IllegalArgumentException if the source node is missing.
+     */
+    DynamicShortestPathTree(CsrGraph graph, int sid) {
+        final int n = graph.nodeCount();
+        this.graph    = graph;
+        this.source   = sid;
+        this.s        = graph.requireIndex(sid);
+        this.costs    = graph.costs().clone();
+        this.revCosts = graph.revCosts().clone();
+        this.dist     = new int[n];
+        this.next     = new int[n];
+        this.heap     = new IndexedMinHeap(n);
+        this.mark     = new int[n];
+        this.recompute();
+    }
+
+    /**
+     * Rebuild the whole tree from scratch with the current costs.
+     */
+    void recompute() {
+        Arrays.fill(dist, CLOSED);
+        Arrays.fill(next, -1);
+        heap.clear();
+        touched = 0;
+
+        dist[s] = 0;
+        heap.pushOrDecrease(s, 0);
+        this.propagate(false);
+    }
+
+    /**
+     * Change the cost of edge (u,v) and repair the tree.
+     *
+     * @param uid Id of the tail node.
+     * @param vid Id of the head node.
+     * @param cost New cost of the edge, or CLOSED.
+     * @throws IllegalArgumentException if the edge is not in the graph.
+     */
+    void setEdgeCost(int uid, int vid, int cost) {
+        final int u = graph.requireIndex(uid);
+        final int v = graph.requireIndex(vid);
+        final int e = graph.edgeIndex(u, v);
+        if (e < 0)
+            throw new IllegalArgumentException(
+                "Edge (" + uid + "," + vid + ") not found.");
+        if (cost < 0)
+            throw new IllegalArgumentException("Negative cost " + cost + ".");
+
+        final int old = costs[e];
+        final int[] revOffsets = graph.revOffsets();
+        costs[e] = cost;
+        revCosts[Arrays.binarySearch(graph.revSources(),
+            revOffsets[v], revOffsets[v + 1], u)] = cost;
+
+        touched = 0;
+        if (cost < old)
+            this.repairDecrease(u, v, cost);
+        else if (cost > old && next[u] == v)
+            this.repairIncrease(u);
+    }
+
+    /**
+     * Apply a batch of cost changes, repairing after each one. Removals
+     * close the edge; edges must already exist in the frozen graph.
+     *
+     * @param changes edge changes, applied in order.
+     * @return Number of nodes touched by all repairs.
+     */
+    int applyEdgeChanges(Collection<Graph.EdgeChange> changes) {
+        int total = 0;
+        for (Graph.EdgeChange change : changes) {
+            this.setEdgeCost(change.u(), change.v(),
+                             change.isRemoval() ? CLOSED : change.cost());
+            total += touched;
+        }
+        return total;
+    }
+
+    /**
+     * A cheaper edge (u,v) can only shorten the paths through u, so run a
+     * Dijkstra on the in-edges starting at u alone.
+     */
+    private void repairDecrease(int u, int v, int cost) {
+        if (dist[v] == CLOSED || cost == CLOSED || dist[v] + cost >= dist[u])
+            return;
+
+        dist[u] = dist[v] + cost;
+        next[u] = v;
+        heap.clear();
+        heap.pushOrDecrease(u, dist[u]);
+        this.propagate(false);
+    }
+
+    /**
+     * A tree edge (u,next[u]) became more expensive, so the distances of
+     * u and of every node whose path runs through u may grow. Collect that
+     * subtree, give each node its best distance through an edge leaving
+     * the subtree, then settle the subtree with a Dijkstra restricted to it.
+     */
+    private void repairIncrease(int u) {
+        final int[] offsets    = graph.offsets();
+        final int[] targets    = graph.targets();
+        final int[] revOffsets = graph.revOffsets();
+        final int[] revSources = graph.revSources();
+
+        // mark the subtree hanging from u
+        if (++epoch == Integer.MAX_VALUE) {
+            Arrays.fill(mark, 0);
+            epoch = 1;
+        }
+        ArrayList<Integer> subtree = new ArrayList<>();
+        subtree.add(u);
+        mark[u] = epoch;
+        for (int i = 0; i < subtree.size(); ++i) {
+            final int x = subtree.get(i);
+            for (int r = revOffsets[x]; r < revOffsets[x + 1]; ++r) {
+                final int y = revSources[r];
+                if (next[y] == x && mark[y] != epoch) {
+                    mark[y] = epoch;
+                    subtree.add(y);
+                }
+            }
+        }
+
+        // best distance of each node through an edge out of the subtree
+        heap.clear();
+        for (int x : subtree) {
+            dist[x] = CLOSED;
+            next[x] = -1;
+            for (int e = offsets[x]; e < offsets[x + 1]; ++e) {
+                final int w = targets[e];
+                if (mark[w] == epoch || dist[w] == CLOSED ||
+                    costs[e] == CLOSED)
+                    continue;
+                if (dist[w] + costs[e] < dist[x]) {
+                    dist[x] = dist[w] + costs[e];
+                    next[x] = w;
+                }
+            }
+            if (dist[x] != CLOSED)
+                heap.pushOrDecrease(x, dist[x]);
+        }
+        touched = subtree.size();
+        this.propagate(true);
+    }
+
+    /**
+     * Dijkstra on the in-edges from the nodes in the heap.
+     *
+     * @param marked true to only relax nodes of the marked subtree
+     */
+    private void propagate(boolean marked) {
+        final int[] revOffsets = graph.revOffsets();
+        final int[] revSources = graph.revSources();
+
+        while (!heap.isEmpty()) {
+            final int x = heap.poll();
+            final int dx = dist[x];
+            if (!marked)
+                ++touched;
+
+            for (int r = revOffsets[x]; r < revOffsets[x + 1]; ++r) {
+                final int y = revSources[r];
+                final int c = revCosts[r];
+                if (c == CLOSED || (marked && mark[y] != epoch))
+                    continue;
+                if (dx + c < dist[y]) {
+                    dist[y] = dx + c;
+                    next[y] = x;
+                    heap.pushOrDecrease(y, dist[y]);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return Number of nodes touched by the last repair.
+     */
+    int lastTouchedCount() {
+        return this.touched;
+    }
+
+    /**
+     * @return A copy of the distances, indexed by dense node index.
+     */
+    int[] distances() {
+        return this.dist.clone();
+    }
+
+    /**
+     * @return Id of the source node of this tree.
+     */
+    int getSource() {
+        return this.source;
+    }
+
+    /**
+     * @param tid Id of a target node.
+     * @return True if the target can be reached from the source.
+     */
+    boolean hasPathTo(int tid) {
+        final int t = graph.indexOf(tid);
+        return t >= 0 && dist[t] != CLOSED;
+    }
+
+    /**
+     * @param tid Id of a target node.
+     * @return Cost of the shortest path with the current costs, or
+     *         UNREACHABLE.
+     */
+    int getDistanceTo(int tid) {
+        return dist[graph.requireIndex(tid)];
+    }
+
+    /**
+     * Same result as Graph.getShortestPath(source, tid) on a graph with
+     * the current costs, in O(path length).
+     *
+     * @param tid Id of the target node.
+     * @return shortest path between the source and the target.
+     * @throws IllegalArgumentException if the target is missing or
+     *         unreachable.
+     */
+    ArrayList<Integer> getPathTo(int tid) {
+        final int t = graph.requireIndex(tid);
+        if (dist[t] == CLOSED)
+            throw new IllegalArgumentException(
+                "No path from " + source + " to " + tid + ".");
+
+        ArrayList<Integer> path = new ArrayList<>();
+        for (int v = t; v != -1; v = next[v])
+            path.add(graph.idOf(v));
+
+        Collections.reverse(path);
+        return path;
+    }
+}
@@ -23,11 +23,22 @@ interface LineReader {
 }
 
 class FileReader {
-    private Graph campusGraph;
-    private HashMap<Integer, Building> buildingTable;
+    protected Graph campusGraph;
+    protected HashMap<Integer, Building> buildingTable;
     private ArrayList<String> campusMapRows;
-    private MapCell[][] mapBoard;
-    private HashMap<Integer, ArrayList<int[]>> borderTable;
+    protected MapBoard mapBoard;
+    protected HashMap<Integer, ArrayList<int[]>> borderTable;
+    private int lineNumber;
+
+    /**
+     * Construct an empty reader, for subclasses that read the files in 
+     * their own way and then call buildBorderTable.
+     */
+    protected FileReader() {
+        this.campusGraph   = new Graph();
+        this.buildingTable = new HashMap<>();
+        this.borderTable   = new HashMap<>();
+    }
     
     /**
      * Construct a DataReader, reading the specified files.
@@ -64,8 +75,11 @@ class FileReader {
             BufferedReader bfReader = new BufferedReader(inReader)
         ) {
             // Read file line by line
-            while ((line = bfReader.readLine()) != null)
+            this.lineNumber = 0;
+            while ((line = bfReader.readLine()) != null) {
+                ++this.lineNumber;
                 lnReader.readLine(line);
+            }
     
         } catch (IOException e) {
             // Handle exception
@@ -118,7 +132,8 @@ class FileReader {
             }
         } catch (NumberFormatException e) {
             // handle exception
-            System.err.println("Error parsing integer: " + e.getMessage());
+            System.err.println("Error parsing line " + this.lineNumber + 
+                               ": " + e.getMessage());
         }
     }
 
@@ -132,40 +147,41 @@ class FileReader {
     }
 
     /**
-     * Construct a 2d Array of MapCell.
+     * Construct the MapBoard, one row per line plus a newline cell.
      */
     private void buildMap() {
-        final int nrow = this.campusMapRows.size();
-        final int ncol = this.campusMapRows.get(0).length();
-
-        // Add one to ncol to include the newline-char cell
-        mapBoard = new MapCell[nrow][ncol + 1];
-
-        for (int r = 0; r < nrow; ++r) {
-            // convert each row to char array
-            char[] currRow = this.campusMapRows.get(r).toCharArray();
-
-            for (int c = 0; c < ncol; ++c) {
-                mapBoard[r][c] = new MapCell(currRow[c]);
-            }
-            // add an end cell with newline char
-            mapBoard[r][ncol] = new MapCell('\n');
-        }
+        ArrayList<char[]> rows = new ArrayList<>(this.campusMapRows.size());
+        for (String row : this.campusMapRows)
+            rows.add(row.toCharArray());
+        mapBoard = MapBoard.fromRows(rows);
     }
 
     /**
      * Consturct the borderTable, which maps from the building ID to a list 
      * of coordinates of the (most left and most right) border cells.
      */
-    private void buildBorderTable() {
-        for (int r = 1; r < mapBoard.length - 1; ++r) {
-            for (int c = 1; c < mapBoard[0].length; ++c) {
+    protected void buildBorderTable() {
+        scanBorders(this.mapBoard, this.borderTable);
+    }
+
+    /**
+     * Scan a map grid for buildings and put the coordinates of their 
+     * border cells into the borderTable.
+     * 
+     * @param grid the map
+     * @param borderTable receives the border cells of each building
+     */
+    static void scanBorders(MapGrid grid, 
+                            HashMap<Integer, ArrayList<int[]>> borderTable) 
+    {
+        for (int r = 1; r < grid.rows() - 1; ++r) {
+            for (int c = 1; c < grid.cols(); ++c) {
                 // Locate an entry point of a building
-                if (foundNewBuilding(r, c)) {
+                if (foundNewBuilding(grid, r, c)) {
                     // Parse building Id and find row/col bounds
-                    int bid    = parseBuildingId(r, c);
-                    int endCol = foundEndCol(r, c);
-                    int endRow = foundEndRow(r, c);
+                    int bid    = parseBuildingId(grid, r, c);
+                    int endCol = foundEndCol(grid, r, c);
+                    int endRow = foundEndRow(grid, r, c);
                     
                     // Create a list of border-coordinates
                     ArrayList<int[]> borders = new ArrayList<>();
@@ -186,9 +202,9 @@ class FileReader {
      * @param c col index
      * @return True if current cell is en entry point of a building.
      */
-    private boolean foundNewBuilding(int r, int c) {
-        return mapBoard[r][c - 1].ch == '[' && 
-            Character.isDigit(mapBoard[r][c].ch);
+    private static boolean foundNewBuilding(MapGrid grid, int r, int c) {
+        return grid.charAt(r, c - 1) == '[' && 
+            Character.isDigit(grid.charAt(r, c));
     }
 
     /**
@@ -196,9 +212,9 @@ class FileReader {
      * @param c col index
      * @return The Id of the building.
      */
-    private int parseBuildingId(int r, int c) {
-        int a = (int) (mapBoard[r][c].ch - '0');
-        int b = (int) (mapBoard[r][c + 1].ch - '0');
+    private static int parseBuildingId(MapGrid grid, int r, int c) {
+        int a = (int) (grid.charAt(r, c) - '0');
+        int b = (int) (grid.charAt(r, c + 1) - '0');
         return 10 * a + b;
     }
 
@@ -207,10 +223,10 @@ class FileReader {
      * @param c col index
      * @return The column index of the closed tag of this building.
      */
-    private int foundEndCol(int r, int c) {
-        if (mapBoard[r][c].ch == ']')
+    private static int foundEndCol(MapGrid grid, int r, int c) {
+        if (grid.charAt(r, c) == ']')
             return c;
-        return foundEndCol(r, c + 1);
+        return foundEndCol(grid, r, c + 1);
     }
 
     /**
@@ -218,12 +234,12 @@ class FileReader {
      * @param c col index
      * @return The row index of the closed tag of this building.
      */
-    private int foundEndRow(int r, int c) {
-        if (mapBoard[r + 1][c - 1].ch != '[' || 
-            Character.isDigit(mapBoard[r + 1][c].ch)) {
+    private static int foundEndRow(MapGrid grid, int r, int c) {
+        if (grid.charAt(r + 1, c - 1) != '[' || 
+            Character.isDigit(grid.charAt(r + 1, c))) {
             return r;
         }
-        return foundEndRow(r + 1, c);
+        return foundEndRow(grid, r + 1, c);
     }
     
     /**
@@ -241,9 +257,9 @@ class FileReader {
     }
 
     /**
-     * @return A 2D Array of MapCell representing the campus map.
+     * @return The campus map.
      */
-    public MapCell[][] getMapBoard() {
+    public MapBoard getMapBoard() {
         return this.mapBoard;
     }
 
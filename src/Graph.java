@@ -1,23 +1,40 @@
 /**
  * @file   Graph.java
  * @brief  This class represents a directed graph and provides methods for
- *         graph manipulation and Dijkstra's shortest path algorithm.
+ *         graph manipulation and Dijkstra's shortest path algorithm. A
+ *         reverse adjacency list keeps node removal at O(degree).
  *
  * @see    NodeTuple
+ * @see    ShortestPathTree
  * @author Xin Cai
  */
 import java.util.HashMap;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.PriorityQueue;
+import java.util.Set;
 
 
 public class Graph {
     /* An adjacency list for representing the graph */
     private HashMap<Integer, HashMap<Integer, Integer>> nodeNeibsMap;
+
+    /* Reverse adjacency list: for each node, the sources of its incoming
+       edges and their costs. Kept in sync with nodeNeibsMap */
+    private HashMap<Integer, HashMap<Integer, Integer>> nodeSrcsMap;
+
+    /* Incremented on every topology change, lets caches detect staleness */
+    private int version = 0;
+
+    /* Frozen copy of this graph and the version it was built from */
+    private CsrGraph frozen;
+    private int frozenVersion;
     
     /** default constructor */
     public Graph() {
         this.nodeNeibsMap = new HashMap<>();
+        this.nodeSrcsMap  = new HashMap<>();
     }
 
     /**
@@ -27,6 +44,75 @@ public class Graph {
      */
     public Graph(HashMap<Integer, HashMap<Integer, Integer>> graphData) {
         this.nodeNeibsMap = new HashMap<>(graphData);
+        this.nodeSrcsMap  = new HashMap<>();
+
+        graphData.forEach((u, neibs) -> neibs.forEach((v, cost) ->
+            this.nodeSrcsMap.computeIfAbsent(v, k -> new HashMap<>())
+                            .put(u, cost)));
+    }
+
+    /**
+     * Construct the graph from a frozen copy, e.g. one loaded from a 
+     * snapshot file. The adjacency lists are only built on the first 
+     * call that needs them, so read-only use through freeze() costs 
+     * nothing extra.
+     * 
+     * @param frozen the graph in compressed sparse row form.
+     */
+    Graph(CsrGraph frozen) {
+        this.frozen = frozen;
+        this.frozenVersion = this.version;
+    }
+
+    /**
+     * Build the adjacency lists from the frozen copy if they do not exist 
+     * yet. Every node of the frozen copy becomes a key.
+     */
+    private void inflate() {
+        if (this.nodeNeibsMap != null)
+            return;
+
+        this.nodeNeibsMap = new HashMap<>();
+        this.nodeSrcsMap  = new HashMap<>();
+        final int[] offsets = frozen.offsets();
+        final int[] targets = frozen.targets();
+        final int[] costs   = frozen.costs();
+
+        for (int u = 0; u < frozen.nodeCount(); ++u)
+            this.nodeNeibsMap.put(frozen.idOf(u), new HashMap<>());
+        for (int u = 0; u < frozen.nodeCount(); ++u) {
+            final int uid = frozen.idOf(u);
+            for (int e = offsets[u]; e < offsets[u + 1]; ++e)
+                this.putEdge(uid, frozen.idOf(targets[e]), costs[e]);
+        }
+    }
+
+    /**
+     * A change to one edge, applied in a batch by applyEdgeChanges.
+     * 
+     * @param kind Whether the edge is put or removed.
+     * @param u Source node of the edge.
+     * @param v Target node of the edge.
+     * @param cost New cost of the edge; unused for a removal.
+     */
+    public record EdgeChange(Kind kind, int u, int v, int cost) {
+        /** What a change does to its edge */
+        public enum Kind { PUT, REMOVE }
+
+        /** @return A change adding edge (u,v), or setting its cost. */
+        public static EdgeChange put(int u, int v, int cost) {
+            return new EdgeChange(Kind.PUT, u, v, cost);
+        }
+
+        /** @return A change removing edge (u,v). */
+        public static EdgeChange remove(int u, int v) {
+            return new EdgeChange(Kind.REMOVE, u, v, 0);
+        }
+
+        /** @return True if this change removes the edge. */
+        public boolean isRemoval() {
+            return this.kind == Kind.REMOVE;
+        }
     }
 
     /**
@@ -37,6 +123,8 @@ public class Graph {
      * @return shortest path between these nodes.
      */
     public ArrayList<Integer> getShortestPath(int sid, int tid) {
+        this.inflate();
+
         // data structures for Dijkstra's shortest path
         PriorityQueue<NodeTuple> costQueue = new PriorityQueue<>();
         HashMap<Integer, Integer> result = new HashMap<>();
@@ -81,6 +169,57 @@ public class Graph {
         return path;
     }
 
+    /**
+     * @return A number that changes whenever a node or edge is added,
+     *         removed, or has its cost changed.
+     */
+    public int getVersion() {
+        return this.version;
+    }
+
+    /**
+     * Compute the shortest paths from one source to every other node. The
+     * tree answers getShortestPath(sid, tid) for any tid in O(path length).
+     * 
+     * @param sid Id of the source node.
+     * @return shortest path tree of the source node.
+     * @throws IllegalArgumentException if the source node is missing.
+     */
+    public ShortestPathTree getShortestPathTree(int sid) {
+        return new ShortestPathTree(this.freeze(), sid);
+    }
+
+    /**
+     * Find whichever of the target nodes is nearest to the source, with a 
+     * single multi-source search instead of one search per target.
+     * 
+     * @param sid Id of the source node.
+     * @param tids Ids of the candidate target nodes.
+     * @return shortest path from the source to its nearest target, which 
+     *         is the last node of the path.
+     * @throws IllegalArgumentException if a node is missing or no target 
+     *         is reachable.
+     */
+    public ArrayList<Integer> getShortestPathToNearest(int sid, int[] tids) {
+        return this.freeze().getShortestPathToNearest(sid, tids);
+    }
+
+    /**
+     * Build a frozen, read-optimized copy of this graph. Later changes to
+     * this graph are not reflected in the returned copy. The copy is 
+     * cached until the next change, so repeated calls are cheap.
+     *
+     * @return the graph in compressed sparse row form.
+     */
+    public CsrGraph freeze() {
+        if (this.frozen == null || this.frozenVersion != this.version) {
+            this.inflate();
+            this.frozen = new CsrGraph(this.nodeNeibsMap);
+            this.frozenVersion = this.version;
+        }
+        return this.frozen;
+    }
+
     /**
      * Check if a node id is in this graph.
      * 
@@ -88,6 +227,8 @@ public class Graph {
      * @return True if this graph contains the given node id, otherwise, false.
      */
     public boolean hasNode(int nid) {
+        if (this.nodeNeibsMap == null)
+            return this.frozen.hasNode(nid);
         return this.nodeNeibsMap.containsKey(nid);
     }
 
@@ -99,10 +240,44 @@ public class Graph {
      * @return True if this graph contains that edge, otherwise, false.
      */
     public boolean hasEdge(int u, int v) {
+        if (this.nodeNeibsMap == null)
+            return this.frozen.hasEdge(u, v);
         return this.nodeNeibsMap.containsKey(u) &&
                this.nodeNeibsMap.get(u).containsKey(v);
     }
 
+    /**
+     * @param nid Id of a node.
+     * @return Number of edges leaving the node.
+     */
+    public int getOutDegree(int nid) {
+        this.inflate();
+        HashMap<Integer, Integer> neibs = this.nodeNeibsMap.get(nid);
+        return neibs == null ? 0 : neibs.size();
+    }
+
+    /**
+     * @param nid Id of a node.
+     * @return Number of edges entering the node, read from the reverse
+     *         index in O(1).
+     */
+    public int getInDegree(int nid) {
+        this.inflate();
+        HashMap<Integer, Integer> srcs = this.nodeSrcsMap.get(nid);
+        return srcs == null ? 0 : srcs.size();
+    }
+
+    /**
+     * @param nid Id of a node.
+     * @return A read-only view of the sources of edges entering the node.
+     */
+    public Set<Integer> getSources(int nid) {
+        this.inflate();
+        HashMap<Integer, Integer> srcs = this.nodeSrcsMap.get(nid);
+        return srcs == null ? Collections.emptySet() :
+            Collections.unmodifiableSet(srcs.keySet());
+    }
+
     /**
      * Add a node in the graph.
      * 
@@ -110,13 +285,34 @@ public class Graph {
      * @return True if adding a new node, otherwise, false.
      */
     public boolean addNode(int nid) {
+        this.inflate();
         if (this.nodeNeibsMap.containsKey(nid))
             return false;
         
         this.nodeNeibsMap.put(nid, new HashMap<>());
+        this.version++;
         return true;
     }
 
+    /**
+     * Add many nodes in one pass, e.g. those of a reloaded data file. The 
+     * version changes once for the whole batch.
+     * 
+     * @param nids node Ids to be added.
+     * @return Number of nodes added.
+     */
+    public int addNodes(Collection<Integer> nids) {
+        this.inflate();
+        int added = 0;
+        for (int nid : nids)
+            if (this.nodeNeibsMap.putIfAbsent(nid, new HashMap<>()) == null)
+                ++added;
+
+        if (added > 0)
+            this.version++;
+        return added;
+    }
+
     /**
      * Remove a node from the graph.
      * 
@@ -124,13 +320,51 @@ public class Graph {
      * @return True if removed the node, otherwise, false.
      */
     public boolean removeNode(int nid) {
-        if (!this.hasNode(nid)) {
+        if (!this.deleteNode(nid))
             return false;
-        }
-        this.nodeNeibsMap.remove(nid);
 
-        for (Integer key : this.nodeNeibsMap.keySet()) {
-            this.nodeNeibsMap.get(key).remove(nid);
+        this.version++;
+        return true;
+    }
+
+    /**
+     * Remove many nodes in one pass, e.g. to close a whole quad. The 
+     * version changes once for the whole batch.
+     * 
+     * @param nids node Ids to be removed.
+     * @return Number of nodes removed.
+     */
+    public int removeNodes(Collection<Integer> nids) {
+        int removed = 0;
+        for (int nid : nids)
+            if (this.deleteNode(nid))
+                ++removed;
+
+        if (removed > 0)
+            this.version++;
+        return removed;
+    }
+
+    /**
+     * Remove a node and its incoming and outgoing edges in O(degree), 
+     * using the reverse index instead of scanning every node.
+     */
+    private boolean deleteNode(int nid) {
+        this.inflate();
+        HashMap<Integer, Integer> neibs = this.nodeNeibsMap.remove(nid);
+        if (neibs == null)
+            return false;
+
+        for (int v : neibs.keySet())
+            this.nodeSrcsMap.get(v).remove(nid);
+
+        HashMap<Integer, Integer> srcs = this.nodeSrcsMap.remove(nid);
+        if (srcs != null) {
+            for (int u : srcs.keySet()) {
+                HashMap<Integer, Integer> row = this.nodeNeibsMap.get(u);
+                if (row != null)
+                    row.remove(nid);
+            }
         }
         return true;
     }
@@ -143,7 +377,19 @@ public class Graph {
      * @param cost Cost of the edge.
      */
     public void addEdge(int u, int v, int cost) {
-        this.nodeNeibsMap.computeIfAbsent(u, HashMap::new).put(v, cost);
+        this.putEdge(u, v, cost);
+        this.version++;
+    }
+
+    /**
+     * Add or set the cost of edge (u,v) in both adjacency lists.
+     */
+    private void putEdge(int u, int v, int cost) {
+        this.inflate();
+        this.nodeNeibsMap.computeIfAbsent(u, k -> new HashMap<>())
+                         .put(v, cost);
+        this.nodeSrcsMap.computeIfAbsent(v, k -> new HashMap<>())
+                        .put(u, cost);
     }
 
     /**
@@ -165,8 +411,48 @@ public class Graph {
      * @param v Another node of the edge.
      */
     public void removeEdge(int u, int v) {
-        if (this.nodeNeibsMap.containsKey(u))
-            this.nodeNeibsMap.get(u).remove(v);
+        if (this.deleteEdge(u, v))
+            this.version++;
+    }
+
+    /**
+     * Remove edge (u,v) from both adjacency lists.
+     * 
+     * @return True if the edge existed.
+     */
+    private boolean deleteEdge(int u, int v) {
+        this.inflate();
+        HashMap<Integer, Integer> neibs = this.nodeNeibsMap.get(u);
+        if (neibs == null || neibs.remove(v) == null)
+            return false;
+
+        this.nodeSrcsMap.get(v).remove(u);
+        return true;
+    }
+
+    /**
+     * Apply many edge additions, cost changes and removals in one pass.
+     * The version changes once for the whole batch, so caches and frozen
+     * copies are rebuilt once rather than after every edge.
+     * 
+     * @param changes edge changes, applied in order.
+     * @return Number of changes applied; removals of missing edges are 
+     *         skipped.
+     */
+    public int applyEdgeChanges(Collection<EdgeChange> changes) {
+        int applied = 0;
+        for (EdgeChange change : changes) {
+            if (!change.isRemoval()) {
+                this.putEdge(change.u(), change.v(), change.cost());
+                ++applied;
+            } else if (this.deleteEdge(change.u(), change.v())) {
+                ++applied;
+            }
+        }
+
+        if (applied > 0)
+            this.version++;
+        return applied;
     }
 
     /**
@@ -185,6 +471,7 @@ public class Graph {
      */
     @Override
     public String toString() {
+        this.inflate();
         StringBuilder graphStruct = new StringBuilder();
 
         for (Integer node : this.nodeNeibsMap.keySet()) {
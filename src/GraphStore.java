@@ -0,0 +1,137 @@
+/**
+ * @file   GraphStore.java
+ * @brief  Copy-on-write publication of immutable graph snapshots, so that
+ *         many threads can route while an admin thread edits the graph.
+ *         Writers are serialized: each one edits the private master Graph,
+ *         freezes it into a new CsrGraph and swaps it in through an atomic
+ *         reference. Readers only read that reference, so every query runs
+ *         without locks against one consistent version of the graph.
+ *         Data derived from the graph, e.g. the tables a server renders
+ *         with, can be published in the same snapshot, so a reader never
+ *         sees a new graph with old data or the other way round.
+ *
+ * @see    Graph
+ * @see    CsrGraph
+ * @author Xin Cai
+ */
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+
+
+final class GraphStore<T> {
+    /**
+     * One published version of the graph, with the data published along
+     * with it. The frozen graph never changes, and its search buffers are
+     * per thread, so it is safe to share; the data must be immutable too.
+     *
+     * @param version version of the master graph that was frozen
+     * @param graph the frozen graph
+     * @param data data published with the graph, or null
+     */
+    record Snapshot<T>(int version, CsrGraph graph, T data) {}
+
+    /* master copy, only touched while holding the writer lock */
+    private final Graph master;
+    private final AtomicReference<Snapshot<T>> current;
+
+    /**
+     * Take ownership of a graph. Later edits must go through this store.
+     *
+     * @param graph the initial graph
+     */
+    GraphStore(Graph graph) {
+        this(graph, null);
+    }
+
+    /**
+     * Take ownership of a graph, published with the given data.
+     *
+     * @param graph the initial graph
+     * @param data the initial data
+     */
+    GraphStore(Graph graph, T data) {
+        this.master  = graph;
+        this.current = new AtomicReference<>(
+            new Snapshot<>(graph.getVersion(), graph.freeze(), data));
+    }
+
+    /**
+     * @return The latest published snapshot; never blocks.
+     */
+    Snapshot<T> snapshot() {
+        return this.current.get();
+    }
+
+    /**
+     * Same semantics as Graph.getShortestPath, on the latest snapshot.
+     *
+     * @param sid Id of the source node.
+     * @param tid Id of the target node.
+     * @return shortest path between these nodes.
+     * @throws IllegalArgumentException if a node is missing or unreachable.
+     */
+    ArrayList<Integer> getShortestPath(int sid, int tid) {
+        return this.current.get().graph().getShortestPath(sid, tid);
+    }
+
+    /**
+     * Apply an edit to the master graph and publish the result. Writers
+     * run one at a time; readers keep using the previous snapshot until
+     * the new one is swapped in.
+     *
+     * @param edit changes to apply to the master graph
+     * @return The snapshot published by this edit.
+     */
+    Snapshot<T> update(Consumer<Graph> edit) {
+        return this.update(edit, UnaryOperator.identity());
+    }
+
+    /**
+     * Apply an edit to the master graph and publish the result together
+     * with new data, in one snapshot.
+     *
+     * @param edit changes to apply to the master graph
+     * @param data maps the data of the latest snapshot to the new data
+     * @return The snapshot published by this edit.
+     */
+    synchronized Snapshot<T> update(Consumer<Graph> edit,
+                                    UnaryOperator<T> data)
+    {
+        final Snapshot<T> last = this.current.get();
+        edit.accept(this.master);
+        final T nextData = data.apply(last.data());
+        if (this.master.getVersion() == last.version() &&
+            nextData == last.data())
+            return last;
+
+        final CsrGraph graph = this.master.getVersion() == last.version() ?
+            last.graph() : this.master.freeze();
+        Snapshot<T> next = new Snapshot<>(this.master.getVersion(), graph,
+                                          nextData);
+        this.current.set(next);
+        return next;
+    }
+
+    /**
+     * Apply a batch of edge changes as one new version.
+     *
+     * @param changes edge changes, applied in order.
+     * @return The snapshot published by this batch.
+     */
+    Snapshot<T> applyEdgeChanges(Collection<Graph.EdgeChange> changes) {
+        return this.update(graph -> graph.applyEdgeChanges(changes));
+    }
+
+    /**
+     * Remove a batch of nodes as one new version.
+     *
+     * @param nids node Ids to be removed.
+     * @return The snapshot published by this batch.
+     */
+    Snapshot<T> removeNodes(Collection<Integer> nids) {
+        return this.update(graph -> graph.removeNodes(nids));
+    }
+}
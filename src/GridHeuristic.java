@@ -0,0 +1,116 @@
+/**
+ * @file   GridHeuristic.java
+ * @brief  An admissible A* heuristic from the positions of the nodes on the
+ *         map grid. The estimate is the Manhattan distance in grid cells
+ *         between two nodes scaled by the minimum cost per grid cell seen
+ *         on any edge, so it never exceeds the real path cost, and it is
+ *         consistent because the grid distance obeys the triangle
+ *         inequality.
+ *
+ * @see    DijkstraEngine
+ * @author Xin Cai
+ */
+import java.util.ArrayList;
+import java.util.HashMap;
+
+
+final class GridHeuristic {
+    /* grid position of each node, indexed by dense node index */
+    private final double[] rows;
+    private final double[] cols;
+
+    /* minimum edge cost per grid cell, 0 disables the heuristic */
+    private final double scale;
+
+    /**
+     * Construct the heuristic from node positions on the grid.
+     *
+     * @param graph graph whose edges determine the scale
+     * @param rows row of each node, by dense node index
+     * @param cols column of each node, by dense node index
+     * @param known true for nodes whose position is known
+     */
+    GridHeuristic(CsrGraph graph, double[] rows, double[] cols, boolean[] known) {
+        this.rows  = rows;
+        this.cols  = cols;
+        this.scale = minCostPerCell(graph, rows, cols, known);
+    }
+
+    /**
+     * Place each building at the center of its border cells on the map.
+     *
+     * @param graph the campus graph
+     * @param borderTable building id to border cell coordinates
+     * @return A heuristic for A* searches on the graph.
+     */
+    static GridHeuristic fromBorderTable(
+        CsrGraph graph, HashMap<Integer, ArrayList<int[]>> borderTable)
+    {
+        final int n = graph.nodeCount();
+        double[] rows = new double[n];
+        double[] cols = new double[n];
+        boolean[] known = new boolean[n];
+
+        borderTable.forEach((id, borders) -> {
+            final int v = graph.indexOf(id);
+            if (v < 0 || borders.isEmpty())
+                return;
+
+            for (int[] p : borders) {
+                rows[v] += p[0];
+                cols[v] += p[1];
+            }
+            rows[v] /= borders.size();
+            cols[v] /= borders.size();
+            known[v] = true;
+        });
+        return new GridHeuristic(graph, rows, cols, known);
+    }
+
+    /**
+     * The scale must hold on every edge for the estimate to be admissible.
+     * If any node has no position, a scale of 0 turns A* into Dijkstra.
+     *
+     * @return Minimum of cost / grid distance over all edges.
+     */
+    private static double minCostPerCell(
+        CsrGraph graph, double[] rows, double[] cols, boolean[] known)
+    {
+        final int[] offsets = graph.offsets();
+        final int[] targets = graph.targets();
+        final int[] costs   = graph.costs();
+        double min = Double.POSITIVE_INFINITY;
+
+        for (int u = 0; u < graph.nodeCount(); ++u) {
+            if (!known[u])
+                return 0;
+
+            for (int e = offsets[u]; e < offsets[u + 1]; ++e) {
+                double cells = Math.abs(rows[u] - rows[targets[e]]) +
+                               Math.abs(cols[u] - cols[targets[e]]);
+                if (cells > 0)
+                    min = Math.min(min, costs[e] / cells);
+            }
+        }
+        return Double.isInfinite(min) ? 0 : min;
+    }
+
+    /**
+     * @param v dense index of a node
+     * @param goal dense index of the goal node
+     * @return A lower bound of the path cost between the two nodes.
+     */
+    int estimate(int v, int goal) {
+        // the small margin keeps rounding errors from breaking consistency
+        final double cells = Math.abs(rows[v] - rows[goal]) +
+                             Math.abs(cols[v] - cols[goal]);
+        return (int) (scale * cells - 1e-6);
+    }
+
+    /**
+     * @return Minimum edge cost per grid cell used to scale the estimate.
+     */
+    double scale() {
+        return this.scale;
+    }
+}
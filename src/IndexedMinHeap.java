@@ -0,0 +1,157 @@
+/**
+ * @file   IndexedMinHeap.java
+ * @brief  A binary min-heap of dense node indices keyed by int costs, with
+ *         decrease-key. Positions of nodes in the heap are tracked in an
+ *         int array, so no node is ever pushed twice and no objects are
+ *         allocated once the arrays are large enough.
+ *
+ * @see    DijkstraEngine
+ * @author Xin Cai
+ */
+import java.util.Arrays;
+
+
+final class IndexedMinHeap {
+    /* heap[i] is a node index, keys[node] its cost */
+    private int[] heap;
+    private int[] keys;
+
+    /* pos[node] is its position in heap, or -1 if not in the heap */
+    private int[] pos;
+    private int size;
+
+    /**
+     * Construct an empty heap for node indices 0..capacity-1.
+     *
+     * @param capacity number of nodes
+     */
+    IndexedMinHeap(int capacity) {
+        this.heap = new int[capacity];
+        this.keys = new int[capacity];
+        this.pos  = new int[capacity];
+        Arrays.fill(pos, -1);
+    }
+
+    /**
+     * Grow the heap so that it accepts node indices 0..capacity-1.
+     */
+    void ensureCapacity(int capacity) {
+        if (capacity <= pos.length)
+            return;
+
+        final int old = pos.length;
+        heap = Arrays.copyOf(heap, capacity);
+        keys = Arrays.copyOf(keys, capacity);
+        pos  = Arrays.copyOf(pos, capacity);
+        Arrays.fill(pos, old, capacity, -1);
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    boolean contains(int node) {
+        return pos[node] >= 0;
+    }
+
+    /**
+     * @return The smallest key in the heap, the heap must not be empty.
+     */
+    int minKey() {
+        return keys[heap[0]];
+    }
+
+    /**
+     * Insert a node, or lower its key if it is already in the heap. A key
+     * larger than the current one is ignored.
+     *
+     * @param node node index
+     * @param key cost of the node
+     */
+    void pushOrDecrease(int node, int key) {
+        if (pos[node] < 0) {
+            heap[size] = node;
+            pos[node]  = size++;
+        } else if (key >= keys[node]) {
+            return;
+        }
+        keys[node] = key;
+        siftUp(pos[node]);
+    }
+
+    /**
+     * Insert a node, or change its key in either direction.
+     *
+     * @param node node index
+     * @param key new cost of the node
+     */
+    void update(int node, int key) {
+        if (pos[node] < 0 || key < keys[node]) {
+            this.pushOrDecrease(node, key);
+            return;
+        }
+        keys[node] = key;
+        siftDown(pos[node]);
+    }
+
+    /**
+     * Remove and return the node with the smallest key.
+     *
+     * @return a node index
+     */
+    int poll() {
+        final int top = heap[0];
+        pos[top] = -1;
+
+        if (--size > 0) {
+            heap[0] = heap[size];
+            pos[heap[0]] = 0;
+            siftDown(0);
+        }
+        return top;
+    }
+
+    /**
+     * Empty the heap. Costs O(size), not O(capacity).
+     */
+    void clear() {
+        for (int i = 0; i < size; ++i)
+            pos[heap[i]] = -1;
+        size = 0;
+    }
+
+    private void siftUp(int i) {
+        final int node = heap[i];
+        final int key  = keys[node];
+
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (keys[heap[parent]] <= key)
+                break;
+            heap[i] = heap[parent];
+            pos[heap[i]] = i;
+            i = parent;
+        }
+        heap[i] = node;
+        pos[node] = i;
+    }
+
+    private void siftDown(int i) {
+        final int node = heap[i];
+        final int key  = keys[node];
+        final int half = size >>> 1;
+
+        while (i < half) {
+            int child = 2 * i + 1;
+            if (child + 1 < size && keys[heap[child + 1]] < keys[heap[child]])
+                ++child;
+            if (key <= keys[heap[child]])
+                break;
+            heap[i] = heap[child];
+            pos[heap[i]] = i;
+            i = child;
+        }
+        heap[i] = node;
+        pos[node] = i;
+    }
+}
@@ -0,0 +1,239 @@
+/**
+ * @file   KShortestPaths.java
+ * @brief  Yen's algorithm for the k shortest loopless paths between two
+ *         nodes of a CsrGraph, used to offer alternative routes. Every
+ *         spur search reuses one exact distance table: a single Dijkstra
+ *         on the reverse graph gives the distance of every node to the
+ *         end of the path, which is a consistent A* heuristic for all spur
+ *         searches since banning nodes and edges only makes paths longer.
+ *         Each spur search therefore settles little more than its path.
+ *
+ * @see    DijkstraEngine
+ * @author Xin Cai
+ */
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.PriorityQueue;
+
+
+final class KShortestPaths {
+    /**
+     * One route and its total cost, ordered from source to target.
+     */
+    record Route(int cost, ArrayList<Integer> path) {}
+
+    /* a candidate path in search order, over dense node indices */
+    private record Candidate(int cost, int[] nodes)
+        implements Comparable<Candidate>
+    {
+        @Override
+        public int compareTo(Candidate other) {
+            return Integer.compare(this.cost, other.cost);
+        }
+    }
+
+    /* scratch buffers, one set per thread */
+    private static final ThreadLocal<Scratch> SCRATCH =
+        ThreadLocal.withInitial(Scratch::new);
+
+    private final CsrGraph graph;
+
+    /**
+     * @param graph a frozen graph
+     */
+    KShortestPaths(CsrGraph graph) {
+        this.graph = graph;
+    }
+
+    /**
+     * Find up to k loopless routes in increasing order of cost. The first
+     * one is a shortest path, as returned by Graph.getShortestPath.
+     *
+     * @param sid Id of the source node.
+     * @param tid Id of the target node.
+     * @param k maximum number of routes
+     * @return The routes found, at least one.
+     * @throws IllegalArgumentException if a node is missing or unreachable.
+     */
+    ArrayList<Route> getShortestPaths(int sid, int tid, int k) {
+        // the search runs from t to s, as in Graph.getShortestPath
+        final int from = graph.requireIndex(tid);
+        final int to   = graph.requireIndex(sid);
+        final int[] offsets = graph.offsets();
+        final int[] targets = graph.targets();
+        final int[] costs   = graph.costs();
+
+        final Scratch sc = SCRATCH.get();
+        sc.begin(graph.nodeCount(), graph.edgeCount());
+
+        // exact distance of every node to `to`, and the first path
+        graph.engine().searchReverseTree(to, sc.toDist, sc.toNext, 0);
+        if (sc.toDist[from] == DijkstraEngine.UNREACHABLE)
+            throw new IllegalArgumentException(
+                "No path from " + sid + " to " + tid + ".");
+
+        ArrayList<int[]> found = new ArrayList<>();
+        found.add(treePath(sc, from));
+        ArrayList<Route> routes = new ArrayList<>();
+        routes.add(this.toRoute(sc.toDist[from], found.get(0)));
+
+        PriorityQueue<Candidate> candidates = new PriorityQueue<>();
+        HashSet<String> seen = new HashSet<>();
+        seen.add(Arrays.toString(found.get(0)));
+
+        while (routes.size() < k) {
+            final int[] last = found.get(found.size() - 1);
+            int rootCost = 0;
+
+            for (int i = 0; i + 1 < last.length; ++i) {
+                final int spur = last[i];
+                sc.newBanSet();
+
+                // ban the next edge of every found path sharing this root
+                for (int[] p : found) {
+                    if (p.length > i + 1 && samePrefix(p, last, i))
+                        sc.edgeBan[graph.edgeIndex(p[i], p[i + 1])] =
+                            sc.banStamp;
+                }
+                // ban the root nodes, so spur paths stay loopless
+                for (int j = 0; j < i; ++j)
+                    sc.nodeBan[last[j]] = sc.banStamp;
+
+                final int spurCost = this.spurSearch(sc, spur, to,
+                                                     offsets, targets, costs);
+                if (spurCost != DijkstraEngine.UNREACHABLE) {
+                    int[] nodes = joinSpur(sc, last, i, to);
+                    if (seen.add(Arrays.toString(nodes)))
+                        candidates.add(
+                            new Candidate(rootCost + spurCost, nodes));
+                }
+                rootCost += costs[graph.edgeIndex(last[i], last[i + 1])];
+            }
+
+            if (candidates.isEmpty())
+                break;
+
+            Candidate best = candidates.poll();
+            found.add(best.nodes());
+            routes.add(this.toRoute(best.cost(), best.nodes()));
+        }
+        return routes;
+    }
+
+    /**
+     * A* from the spur node to `to` over edges and nodes not banned, with
+     * the exact unrestricted distance to `to` as heuristic.
+     *
+     * @return Cost of the spur path, or UNREACHABLE.
+     */
+    private int spurSearch(Scratch sc, int spur, int to,
+                           int[] offsets, int[] targets, int[] costs)
+    {
+        final DijkstraEngine.SearchSpace sp = sc.space;
+        final int[] h = sc.toDist;
+        if (h[spur] == DijkstraEngine.UNREACHABLE)
+            return DijkstraEngine.UNREACHABLE;
+
+        sp.begin(graph.nodeCount());
+        sp.reach(spur, 0, -1, h[spur]);
+
+        while (!sp.heap.isEmpty()) {
+            final int u = sp.heap.poll();
+            sp.settled++;
+            if (u == to)
+                return sp.dist[u];
+
+            final int du = sp.dist[u];
+            for (int e = offsets[u]; e < offsets[u + 1]; ++e) {
+                final int v = targets[e];
+                if (sc.edgeBan[e] == sc.banStamp ||
+                    sc.nodeBan[v] == sc.banStamp ||
+                    h[v] == DijkstraEngine.UNREACHABLE ||
+                    sp.isSettled(v))
+                    continue;
+                sp.relax(v, du + costs[e], u, h[v]);
+            }
+        }
+        return DijkstraEngine.UNREACHABLE;
+    }
+
+    /**
+     * @return Root path last[0..i] followed by the spur path found last.
+     */
+    private static int[] joinSpur(Scratch sc, int[] last, int i, int to) {
+        int hops = 0;
+        for (int v = to; v != last[i]; v = sc.space.prev[v])
+            ++hops;
+
+        int[] nodes = Arrays.copyOf(last, i + 1 + hops);
+        int j = nodes.length - 1;
+        for (int v = to; v != last[i]; v = sc.space.prev[v])
+            nodes[j--] = v;
+        return nodes;
+    }
+
+    /**
+     * @return The path from `from` in the reverse tree, in search order.
+     */
+    private static int[] treePath(Scratch sc, int from) {
+        int hops = 0;
+        for (int v = from; sc.toNext[v] != -1; v = sc.toNext[v])
+            ++hops;
+
+        int[] nodes = new int[hops + 1];
+        int v = from;
+        for (int j = 0; j <= hops; ++j, v = sc.toNext[v])
+            nodes[j] = v;
+        return nodes;
+    }
+
+    /**
+     * @return True if a[0..i] equals b[0..i].
+     */
+    private static boolean samePrefix(int[] a, int[] b, int i) {
+        return Arrays.equals(a, 0, i + 1, b, 0, i + 1);
+    }
+
+    /**
+     * @return The route with ids, ordered from source to target.
+     */
+    private Route toRoute(int cost, int[] nodes) {
+        ArrayList<Integer> path = new ArrayList<>(nodes.length);
+        for (int j = nodes.length - 1; j >= 0; --j)
+            path.add(graph.idOf(nodes[j]));
+        return new Route(cost, path);
+    }
+
+    /**
+     * Per-thread buffers: the distance table, the spur search space, and
+     * node/edge bans that are reset by bumping a stamp.
+     */
+    private static final class Scratch {
+        int[] toDist  = new int[0];
+        int[] toNext  = new int[0];
+        int[] nodeBan = new int[0];
+        int[] edgeBan = new int[0];
+        int banStamp  = 0;
+        final DijkstraEngine.SearchSpace space =
+            new DijkstraEngine.SearchSpace();
+
+        void begin(int n, int m) {
+            if (toDist.length < n) {
+                toDist  = new int[n];
+                toNext  = new int[n];
+                nodeBan = new int[n];
+            }
+            if (edgeBan.length < m)
+                edgeBan = new int[m];
+        }
+
+        void newBanSet() {
+            if (++banStamp == Integer.MAX_VALUE) {
+                Arrays.fill(nodeBan, 0);
+                Arrays.fill(edgeBan, 0);
+                banStamp = 1;
+            }
+        }
+    }
+}
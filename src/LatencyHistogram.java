@@ -0,0 +1,93 @@
+/**
+ * @file   LatencyHistogram.java
+ * @brief  A lock-free histogram of latencies in microseconds. Values below
+ *         64 us get a bucket each; larger values share log-linear buckets,
+ *         32 per power of two, so any percentile is exact to about 3%.
+ *         Many threads can record at once while another reads percentiles.
+ *
+ * @see    RouteServer
+ * @author Xin Cai
+ */
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+final class LatencyHistogram {
+    /* 64 linear buckets, then 32 buckets for each power of two up to 2^40 */
+    private static final int LINEAR   = 64;
+    private static final int SUB_BITS = 5;
+    private static final int BUCKETS  = LINEAR + (40 - 6) * (1 << SUB_BITS);
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max   = new AtomicLong();
+
+    /**
+     * @param nanos a latency in nanoseconds
+     */
+    void record(long nanos) {
+        final long micros = Math.max(0, nanos / 1_000);
+        counts.incrementAndGet(bucketOf(micros));
+        total.incrementAndGet();
+        max.accumulateAndGet(micros, Math::max);
+    }
+
+    /**
+     * @return Number of latencies recorded.
+     */
+    long count() {
+        return total.get();
+    }
+
+    /**
+     * @param q a quantile in [0, 1], e.g. 0.99
+     * @return The latency in microseconds below which a fraction q of the
+     *         recorded latencies fall, or 0 if none were recorded.
+     */
+    long percentile(double q) {
+        final long n = total.get();
+        if (n == 0)
+            return 0;
+
+        final long rank = Math.max(1, (long) Math.ceil(q * n));
+        long seen = 0;
+        for (int b = 0; b < BUCKETS; ++b) {
+            seen += counts.get(b);
+            if (seen >= rank)
+                return Math.min(upperBound(b), max.get());
+        }
+        return max.get();
+    }
+
+    private static int bucketOf(long micros) {
+        if (micros < LINEAR)
+            return (int) micros;
+
+        final int exp = 63 - Long.numberOfLeadingZeros(micros);
+        final int sub =
+            (int) (micros >>> (exp - SUB_BITS)) & ((1 << SUB_BITS) - 1);
+        return Math.min(BUCKETS - 1, LINEAR + ((exp - 6) << SUB_BITS) + sub);
+    }
+
+    /**
+     * @return The largest value that falls into bucket b.
+     */
+    private static long upperBound(int b) {
+        if (b < LINEAR)
+            return b;
+
+        final int exp = 6 + ((b - LINEAR) >> SUB_BITS);
+        final long sub = (b - LINEAR) & ((1 << SUB_BITS) - 1);
+        return (((1L << SUB_BITS) + sub + 1) << (exp - SUB_BITS)) - 1;
+    }
+
+    /**
+     * @return Count and p50/p90/p99/max latencies.
+     */
+    @Override
+    public String toString() {
+        return "count " + count() + ", p50 " + percentile(0.50) +
+            " us, p90 " + percentile(0.90) + " us, p99 " +
+            percentile(0.99) + " us, max " + max.get() + " us";
+    }
+}
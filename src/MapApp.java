@@ -10,28 +10,86 @@
  * @dependency MapApp.java
  *             |-- Building.java
  *             |-- DataReader.java
+ *             |-- SnapshotReader.java
+ *             |    |-- MappedFileReader.java
  *             |-- Graph.java
  *             |    |-- NodeTuple.java
+ *             |    |-- ShortestPathTree.java
+ *             |    |-- CsrGraph.java
+ *             |         |-- DijkstraEngine.java
+ *             |         |-- IndexedMinHeap.java
+ *             |-- GridHeuristic.java
+ *             |-- RouteTable.java
+ *             |-- RouteCache.java
+ *             |-- NearestServiceTable.java
+ *             |-- ServiceIndex.java
+ *             |-- NameIndex.java
+ *             |-- KShortestPaths.java
+ *             |-- DataReloader.java
+ *             |-- BatchRunner.java
+ *             |-- RouteServer.java
+ *             |    |-- GraphStore.java
+ *             |    |-- LatencyHistogram.java
  *             |-- Color.java
  *             |-- Text.java
- *             |-- MapCell.java
+ *             |-- MapBoard.java
+ *             |    |-- MapGrid.java
+ *             |-- MapRenderer.java
+ *             |-- TiledMap.java
  * 
  * @author Xin Cai
  */
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Scanner;
 import java.util.StringJoiner;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
 
 
 public class MapApp {
 
+    /* stdout as a channel, for writing rendered maps as bytes */
+    private static final FileChannel STDOUT =
+        new FileOutputStream(FileDescriptor.out).getChannel();
+
     private static Graph campusGraph;
+    private static CsrGraph routeGraph;
+    private static GridHeuristic heuristic;
+    private static RouteTable routeTable;
+    private static RouteCache routeCache;
+    private static ShortestPathTree lastTree;
+    private static int lastSource = -1;
+    private static boolean useTable;
+    private static int routeVersion;
     private static HashMap<Integer, Building> buildingTable;
-    private static MapCell[][] mapBoard;
+    private static ServiceIndex serviceIndex;
+    private static NameIndex nameIndex;
+    private static MapBoard mapBoard;
+    private static MapRenderer renderer;
+    private static TiledMap tiledMap;
+    private static TiledMap.View view;
+    private static int viewRows = TiledMap.DEFAULT_VIEW_ROWS;
+    private static int viewCols = TiledMap.DEFAULT_VIEW_COLS;
     private static HashMap<Integer, ArrayList<int[]>> borderTable;
-    private static HashMap<String, String> renderedMap;
+    private static HashMap<String, byte[]> renderedMap;
     private static HashMap<String, String> renderedLst;
+    private static HashMap<String, NearestServiceTable> nearestTables;
+    private static KShortestPaths alternatives;
+    private static ConcurrentLinkedQueue<DataReloader.Reload> reloads;
     private static String input;
     private static boolean defaultDisplay;
     private static boolean runProgram;
@@ -40,22 +98,82 @@ public class MapApp {
         // Read files
         final String DAT_FILE = "./data/buildingData.txt";
         final String MAP_FILE = "./data/campusMap.txt";
-        final FileReader reader = new FileReader(DAT_FILE, MAP_FILE);
+        final String SNAP_FILE = "./data/campus.snap";
+        final boolean noSnapshot = List.of(args).contains("--no-snapshot");
+        final TiledMap tiles = List.of(args).contains("--tiled") &&
+            !List.of(args).contains("--serve") ? openTiles(MAP_FILE) : null;
+        final FileReader reader = tiles != null ?
+            new MappedFileReader(DAT_FILE, null) : noSnapshot ?
+            new MappedFileReader(DAT_FILE, MAP_FILE) :
+            SnapshotReader.open(DAT_FILE, MAP_FILE, SNAP_FILE);
         
-        // Access Data
+        // Access Data; a tiled map is drawn a view at a time
         campusGraph   = reader.getCampusGraph();
         buildingTable = reader.getBuildingTable();
-        mapBoard      = reader.getMapBoard();
-        borderTable   = reader.getBorderTable();
+        serviceIndex  = new ServiceIndex(buildingTable);
+
+        // Precompute all routes on small maps, unless overridden by flags
+        useTable = RouteTable.fits(campusGraph.freeze());
+        String batchInput = null;
+        int servePort = -1;
+        BatchRunner.Format format = BatchRunner.Format.CSV;
+        for (int i = 0; i < args.length; ++i) {
+            switch (args[i]) {
+                case "--route-table"    -> useTable = true;
+                case "--no-route-table" -> useTable = false;
+                case "--json"           -> format = BatchRunner.Format.JSON;
+                case "--batch"          -> batchInput =
+                    (i + 1 < args.length && !args[i + 1].startsWith("--")) ?
+                    args[++i] : "-";
+                case "--serve"          -> servePort =
+                    (i + 1 < args.length && !args[i + 1].startsWith("--")) ?
+                    Integer.parseInt(args[++i]) : RouteServer.DEFAULT_PORT;
+                case "--view"           -> setViewSize(
+                    (i + 1 < args.length && !args[i + 1].startsWith("--")) ?
+                    args[++i] : "");
+                default -> {}
+            }
+        }
+        tiledMap = tiles;
+        if (tiledMap != null) {
+            borderTable = tiledMap.borderTable();
+            moveView(List.of());
+        } else {
+            borderTable = reader.getBorderTable();
+            setMapBoard(reader.getMapBoard());
+        }
         
         // Init fields for this app
         renderedMap    = new HashMap<>();
         renderedLst    = new HashMap<>();
+        nearestTables  = new HashMap<>();
         defaultDisplay = true;
         runProgram     = true;
 
+        // Prepare routing data and caches
+        refreshRouting();
+        routeCache = new RouteCache(campusGraph, RouteCache.DEFAULT_CAPACITY,
+                                    RouteCache.DEFAULT_MAX_BYTES);
+
+        // Headless mode: route every request of the input, then exit
+        if (batchInput != null) {
+            runBatch(batchInput, format);
+            return;
+        }
+
+        // Server mode: serve HTTP requests until the process is killed
+        if (servePort >= 0) {
+            RouteServer server = runServer(servePort);
+            watchFiles(DAT_FILE, MAP_FILE, false, server::reload);
+            return;
+        }
+
+        // Reload the data files in the background whenever they change
+        reloads = new ConcurrentLinkedQueue<>();
+        watchFiles(DAT_FILE, MAP_FILE, tiledMap != null, reloads::add);
+
         // construct and render campus map
-        renderedMap.put("default", renderMap());
+        renderedMap.put("default", renderer.toBytes());
         renderedLst.put("default", getBuildingMessage());
         
         // Run program with user interaction
@@ -71,7 +189,7 @@ public class MapApp {
                 System.out.println(Text.BUILDING_LIST);
                 System.out.println(renderedLst.get("default"));
                 System.out.println(Text.CAMPUS_MAP);
-                System.out.println(renderedMap.get("default"));
+                printMap(renderedMap.get("default"));
                 System.out.println(Text.USAGE);
                 defaultDisplay = false;
             }
@@ -83,12 +201,19 @@ public class MapApp {
 
             // Parse and process user's input
             String[] cmd = input.toLowerCase().trim().split("\\s+");
+            applyReloads();
             switch(cmd[0]) {
                 case "x" -> runProgram = false;
                 case "m" -> defaultDisplay = true;
-                case "d" -> displayMapWithService("Dining", 0b001);
-                case "l" -> displayMapWithService("Library", 0b010);
-                case "p" -> displayMapWithService("Parking", 0b100);
+                case "d" -> selectService(cmd, "Dining");
+                case "l" -> selectService(cmd, "Library");
+                case "p" -> selectService(cmd, "Parking");
+                case "s" -> displayMapWithService(
+                    String.join(" ", List.of(cmd).subList(1, cmd.length)));
+                case "a" -> displayAlternativeRoutes(cmd);
+                case "f" -> displayNameMatches(
+                    String.join(" ", List.of(cmd).subList(1, cmd.length)));
+                case "c" -> System.out.println(Text.ROUTE_CACHE + routeCache);
                 default  -> displayShortestPath(cmd);
             }
         }
@@ -99,37 +224,347 @@ public class MapApp {
     }
 
     /**
-     * Parses the ID of source building and target building. Checks the 
-     * range of these parsed ID and (if id's are valid) find the shortest 
-     * path between these two buildings. 
+     * Set the size of the views of a tiled map from a "ROWSxCOLS" flag 
+     * value, or report a usage error and keep the default size.
+     * 
+     * @param size the value of the --view flag, e.g. "60x200"
+     */
+    private static void setViewSize(String size) {
+        final String[] dims = size.split("x");
+        try {
+            if (dims.length == 2 && dims[0].matches("\\d+") && 
+                dims[1].matches("\\d+")) 
+            {
+                final int rows = Integer.parseInt(dims[0]);
+                final int cols = Integer.parseInt(dims[1]);
+                if (rows > 0 && cols > 0) {
+                    viewRows = rows;
+                    viewCols = cols;
+                    return;
+                }
+            }
+        } catch (NumberFormatException e) {
+            // too large, reported below
+        }
+        System.err.println("Usage: --view ROWSxCOLS, e.g. --view " + 
+            TiledMap.DEFAULT_VIEW_ROWS + "x" + TiledMap.DEFAULT_VIEW_COLS + 
+            "; keeping the default view.");
+    }
+
+    /**
+     * Runs the headless batch mode on a file, or on stdin for "-", and 
+     * writes the results to stdout.
+     * 
+     * @param source path of the request file, or "-" for stdin
+     * @param format output format of the results
+     */
+    private static void runBatch(String source, BatchRunner.Format format) {
+        BatchRunner runner = new BatchRunner(routeGraph, routeTable, format);
+        BufferedWriter out = new BufferedWriter(
+            new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+
+        try (BufferedReader in = source.equals("-") ?
+                new BufferedReader(new InputStreamReader(System.in)) :
+                Files.newBufferedReader(Path.of(source))) 
+        {
+            runner.run(in, out);
+        } catch (IOException e) {
+            System.err.println("Batch failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Runs the HTTP server mode on the given port. The campus graph is 
+     * handed to the server, so it must not be edited here afterwards.
+     * 
+     * @param port port to listen on
+     * @return The server.
+     */
+    private static RouteServer runServer(int port) {
+        // small replies are written as headers then body; without 
+        // TCP_NODELAY Nagle's algorithm holds the body back for a delayed 
+        // ACK (~40 ms). Read once, when the first HttpServer is created.
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        RouteServer server = new RouteServer(campusGraph, buildingTable,
+                                             mapBoard, borderTable);
+        try {
+            System.out.println("Serving on port " + server.start(port));
+        } catch (IOException e) {
+            System.err.println("Server failed: " + e.getMessage());
+        }
+        return server;
+    }
+
+    /**
+     * Watch the data files and hand every reload to the listener, on a 
+     * background thread. Without file watching the app keeps running on 
+     * the data it loaded.
+     * 
+     * @param datFile input file path for campus buildings
+     * @param mapFile input file path for campus map
+     * @param tiled true if the map is drawn from tiles
+     * @param listener receives each reload
+     */
+    private static void watchFiles(String datFile, String mapFile, 
+                                   boolean tiled,
+                                   Consumer<DataReloader.Reload> listener) 
+    {
+        try {
+            new DataReloader(datFile, mapFile, tiled, routeGraph, 
+                             buildingTable, listener).start();
+        } catch (IOException e) {
+            System.err.println("File watching disabled: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Swap in the data reloaded in the background since the last command. 
+     * The files are already parsed and diffed, so only the edge changes 
+     * are applied here and the routing data and renders rebuilt.
+     */
+    private static void applyReloads() {
+        DataReloader.Reload reload;
+        while ((reload = reloads.poll()) != null) {
+            if (reload.buildingTable() != null) {
+                buildingTable = reload.buildingTable();
+                serviceIndex  = new ServiceIndex(buildingTable);
+                nameIndex     = null;
+                campusGraph.addNodes(reload.addedNodes());
+                campusGraph.applyEdgeChanges(reload.edgeChanges());
+                campusGraph.removeNodes(reload.removedNodes());
+            }
+            if (reload.tiledMap() != null) {
+                tiledMap    = reload.tiledMap();
+                borderTable = reload.borderTable();
+                view        = null;
+            } else if (reload.mapBoard() != null) {
+                setMapBoard(reload.mapBoard());
+                borderTable = reload.borderTable();
+            }
+
+            // Drop every render and route built from the old data
+            refreshRouting();
+            routeCache = new RouteCache(campusGraph,
+                                        RouteCache.DEFAULT_CAPACITY,
+                                        RouteCache.DEFAULT_MAX_BYTES);
+            renderedMap.clear();
+            renderedLst.clear();
+            moveView(List.of());
+            resetMapBoard();
+            renderedMap.put("default", renderer.toBytes());
+            renderedLst.put("default", getBuildingMessage());
+            System.out.println(Text.RELOADED + reload.summary());
+        }
+    }
+
+    /**
+     * Parses the ID or name of source building and target building. Checks 
+     * the range of these parsed ID and (if id's are valid) find the 
+     * shortest path between these two buildings. 
      * 
      * @param cmd String Array representing user's command
      */
     private static void displayShortestPath(String[] cmd) {
         try {
             // find shortest path
-            int src = Integer.parseInt(cmd[0]);
-            int tgt = Integer.parseInt(cmd[1]);
-            ArrayList<Integer> path = campusGraph.getShortestPath(src, tgt);
-        
-            // Display campus map with shortest path highlighted
-            updateMap(path, Color.C043);
+            final int[] ends = findBuildings(cmd, 0);
+            int src = ends[0];
+            int tgt = ends[1];
+
+            // Render and cache the route unless it is cached already
+            RouteCache.Entry route = routeCache.get(src, tgt);
+            if (route == null) {
+                ArrayList<Integer> path = findPath(src, tgt);
+
+                // Campus map with shortest path highlighted
+                updateMap(path, Color.C043);
+                byte[] map = renderer.toBytes();
+
+                // List of building in the shortest path
+                StringJoiner sj = new StringJoiner("\n", Color.C056.val, Color.RESET.val);
+                path.forEach(id -> sj.add("  " + buildingTable.get(id)));
+
+                route = new RouteCache.Entry(path, map,
+                                             clipNote(path) + sj.toString());
+                routeCache.put(src, tgt, route);
+            } else {
+                // a cached route still counts as a query from its source
+                lastSource = src;
+            }
+
+            // Display campus map and list of the shortest path
             System.out.println(Text.SHORTEST_PATH);
-            System.out.println(renderMap());
+            printMap(route.map());
+            System.out.println(route.list());
 
-            // Display a list of building in the shortest path
-            StringJoiner sj = new StringJoiner("\n", Color.C056.val, Color.RESET.val);
-            path.forEach(id -> sj.add("  " + buildingTable.get(id)));
-            System.out.println(sj.toString());
+        } catch (IllegalArgumentException | 
+                 NullPointerException     |
+                 ArrayIndexOutOfBoundsException e) 
+        {
+            System.out.println(Text.ERROR + e.getMessage());
+        }
+    }
 
-        } catch (NumberFormatException | 
-                 NullPointerException  |
+    /**
+     * Parses the ID of source and target building and an optional number 
+     * of routes, or the names of the buildings joined by "to", then 
+     * displays up to that many loopless routes between the buildings, 
+     * each highlighted in its own color. The shortest route is 
+     * drawn last so it stays on top where routes overlap.
+     * 
+     * @param cmd String Array representing user's command
+     */
+    private static void displayAlternativeRoutes(String[] cmd) {
+        final Color[] colors = { Color.C043, Color.C160, Color.C222, Color.C020 };
+        try {
+            final int[] ends = findBuildings(cmd, 1);
+            int src = ends[0];
+            int tgt = ends[1];
+            int k = cmd.length > 3 && !List.of(cmd).contains("to") ?
+                Integer.parseInt(cmd[3]) : 3;
+            k = Math.max(1, Math.min(k, colors.length));
+
+            ensureRouting();
+            ArrayList<KShortestPaths.Route> routes = 
+                alternatives.getShortestPaths(src, tgt, k);
+
+            // Campus map with every route highlighted
+            ArrayList<Integer> all = new ArrayList<>();
+            routes.forEach(route -> all.addAll(route.path()));
+            moveView(all);
+            resetMapBoard();
+            for (int i = routes.size() - 1; i >= 0; --i)
+                highlightMap(routes.get(i).path(), colors[i]);
+            System.out.println(Text.ALTERNATIVE_ROUTES);
+            printMap();
+            System.out.print(clipNote(all));
+
+            // List of building in each route, in the color of the route
+            for (int i = 0; i < routes.size(); ++i) {
+                KShortestPaths.Route route = routes.get(i);
+                StringJoiner sj = new StringJoiner(
+                    "\n", colors[i].val, Color.RESET.val);
+                sj.add("  Route " + (i + 1) + " (cost " + route.cost() + ")");
+                route.path().forEach(
+                    id -> sj.add("    " + buildingTable.get(id)));
+                System.out.println(sj.toString());
+            }
+
+        } catch (IllegalArgumentException | 
+                 NullPointerException     |
                  ArrayIndexOutOfBoundsException e) 
         {
             System.out.println(Text.ERROR + e.getMessage());
         }
     }
 
+    /**
+     * Lists the buildings whose names best match the query, which may be 
+     * only the start of a name or a word of it, and may be misspelled.
+     * 
+     * @param query part of a building name
+     */
+    private static void displayNameMatches(String query) {
+        ArrayList<NameIndex.Match> matches = nameIndex().lookup(query, 10);
+        if (matches.isEmpty()) {
+            System.out.println(Text.ERROR + 
+                "No building matches \"" + query + "\".");
+            return;
+        }
+
+        StringJoiner sj = new StringJoiner("\n", Color.C056.val, Color.RESET.val);
+        matches.forEach(m -> sj.add("  " + buildingTable.get(m.id())));
+        System.out.println(Text.MATCHING_BUILDINGS);
+        System.out.println(sj.toString());
+    }
+
+    /**
+     * @param words an ID, or words of a building name
+     * @return Id of the building: the ID, or the best match of the name.
+     * @throws IllegalArgumentException if no building matches the name.
+     */
+    private static int findBuilding(List<String> words) {
+        if (words.size() == 1 && words.get(0).matches("\\d+"))
+            return Integer.parseInt(words.get(0));
+        return nameIndex().find(String.join(" ", words));
+    }
+
+    /**
+     * @param cmd String Array representing user's command
+     * @param from index of the first word after the command
+     * @return Ids of the two buildings named from cmd[from]: two ID's, or 
+     *         two IDs or names joined by "to".
+     * @throws IllegalArgumentException if a building is not found.
+     */
+    private static int[] findBuildings(String[] cmd, int from) {
+        final List<String> words = List.of(cmd).subList(from, cmd.length);
+        final int to = words.indexOf("to");
+        if (to < 0)
+            return new int[]{ Integer.parseInt(cmd[from]), 
+                              Integer.parseInt(cmd[from + 1]) };
+        return new int[]{ findBuilding(words.subList(0, to)),
+                          findBuilding(words.subList(to + 1, words.size())) };
+    }
+
+    /**
+     * Look the path up in the route table if there is one. Otherwise, a 
+     * one-off query runs an A* search on the frozen graph, and once two 
+     * consecutive queries share a source, its shortest path tree is built 
+     * and reused until the source changes.
+     * 
+     * @param src Id of the source building.
+     * @param tgt Id of the target building.
+     * @return shortest path between these buildings.
+     */
+    private static ArrayList<Integer> findPath(int src, int tgt) {
+        ensureRouting();
+
+        if (routeTable != null)
+            return routeTable.getShortestPath(src, tgt);
+
+        final boolean sameSource = (src == lastSource);
+        lastSource = src;
+        if (!sameSource)
+            return routeGraph.getShortestPath(src, tgt, heuristic);
+
+        if (lastTree == null || lastTree.getSource() != src ||
+            lastTree.getGraph() != routeGraph)
+            lastTree = campusGraph.getShortestPathTree(src);
+        return lastTree.getPathTo(tgt);
+    }
+
+    /**
+     * Freeze the campus graph for A* routing guided by map positions, and 
+     * rebuild the route table if it is used. Called again whenever the 
+     * graph has changed since the last freeze.
+     */
+    private static void refreshRouting() {
+        routeGraph   = campusGraph.freeze();
+        heuristic    = GridHeuristic.fromBorderTable(routeGraph, borderTable);
+        routeTable   = useTable ? new RouteTable(routeGraph) : null;
+        alternatives = new KShortestPaths(routeGraph);
+        routeVersion = campusGraph.getVersion();
+        nearestTables.clear();
+    }
+
+    /**
+     * Refresh the routing data if the campus graph has changed.
+     */
+    private static void ensureRouting() {
+        if (routeVersion != campusGraph.getVersion())
+            refreshRouting();
+    }
+
+    /**
+     * @return The name index of the buildings, built on the first lookup by
+     *         name after startup or a reload.
+     */
+    private static NameIndex nameIndex() {
+        if (nameIndex == null)
+            nameIndex = new NameIndex(buildingTable);
+        return nameIndex;
+    }
+
     /**
      * @return a String displaying the 'Id-Name' pair of all the buildings 
      *         in two columns.
@@ -158,13 +593,61 @@ public class MapApp {
     }
 
     /**
-     * Clear the prefix and suffix for all cells on the `mapBoard`.
+     * Clear the highlights of all cells on the `mapBoard`.
      */
     private static void resetMapBoard() {
-        for (int i = 0 ; i < mapBoard.length; ++i) {
-            for (int j = 0; j < mapBoard[0].length; ++j) {
-                mapBoard[i][j].clear();
-            }
+        mapBoard.clear();
+    }
+
+    /**
+     * Dispatch a service command: a service key alone highlights all the 
+     * buildings with that service, followed by a building ID it finds the 
+     * nearest one of them.
+     * 
+     * @param cmd String Array representing user's command
+     * @param service service name
+     */
+    private static void selectService(String[] cmd, String service) {
+        if (cmd.length > 1)
+            displayNearestService(
+                List.of(cmd).subList(1, cmd.length), service);
+        else
+            displayMapWithService(service);
+    }
+
+    /**
+     * Finds the building with the specified service that is nearest to 
+     * the given building, and displays the path to it. Each service has a 
+     * precomputed nearest-facility table, so the lookup needs no search.
+     * 
+     * @param arg Id or name of the source building, as words
+     * @param service service name
+     */
+    private static void displayNearestService(List<String> arg, 
+                                              String service) 
+    {
+        try {
+            int src = findBuilding(arg);
+            ensureRouting();
+
+            // Partition the campus among the buildings with this service
+            NearestServiceTable table = nearestTables.computeIfAbsent(
+                service, key -> new NearestServiceTable(
+                    routeGraph, serviceIndex.select(service)));
+            ArrayList<Integer> path = table.getPathFrom(src);
+
+            // Display campus map with the path highlighted
+            updateMap(path, Color.C043);
+            System.out.println(Text.nearestService(service));
+            printMap();
+
+            // Display a list of building in the path
+            StringJoiner sj = new StringJoiner("\n", Color.C056.val, Color.RESET.val);
+            path.forEach(id -> sj.add("  " + buildingTable.get(id)));
+            System.out.println(clipNote(path) + sj.toString());
+
+        } catch (IllegalArgumentException e) {
+            System.out.println(Text.ERROR + e.getMessage());
         }
     }
 
@@ -174,36 +657,39 @@ public class MapApp {
      * map with specified services are highlighted and puts it into the 
      * buffer and call this function again to display it.
      * 
-     * @param service service name
-     * @param bitmask bitmask of that service
+     * @param service service name, or services combined with and, or, not
      */
-    private static void displayMapWithService(String service, int bitmask) {
-        // check if this request is cached
-        if (renderedMap.containsKey(service)) {
+    private static void displayMapWithService(String service) {
+        // check if this request is cached, apart from the "default" render
+        final String key = "s:" + service;
+        if (renderedMap.containsKey(key)) {
             System.out.println(Text.selectedService(service));
-            System.out.println(renderedMap.get(service));
-            System.out.println(renderedLst.get(service));
+            printMap(renderedMap.get(key));
+            System.out.println(renderedLst.get(key));
             return;
         }
 
-        // Selects buildings with specified service
+        // Selects buildings with specified services from their bitsets
         final ArrayList<Integer> selected = new ArrayList<>();
-        for (int id = 0; id < buildingTable.size(); ++id) {
-            if (buildingTable.get(id).hasService(bitmask)) 
+        try {
+            for (int id : serviceIndex.select(service))
                 selected.add(id);
+        } catch (IllegalArgumentException e) {
+            System.out.println(Text.ERROR + e.getMessage());
+            return;
         }
 
         // Create and cache the map string in renderedMap
         updateMap(selected, Color.C111);
-        renderedMap.put(service, renderMap());
+        renderedMap.put(key, renderer.toBytes());
 
         // Create and cache the list string in renderedLst
         StringJoiner sj = new StringJoiner("\n", Color.C111.val, Color.RESET.val);
         selected.forEach(id -> sj.add("  " + buildingTable.get(id)));
-        renderedLst.put(service, sj.toString());
+        renderedLst.put(key, clipNote(selected) + sj.toString());
 
         // call this function again to display
-        displayMapWithService(service, bitmask);
+        displayMapWithService(service);
     }
 
     /**
@@ -214,24 +700,120 @@ public class MapApp {
      * @param color a color object associated with an escape code.
      */
     private static void updateMap(ArrayList<Integer> selected, Color color) {
+        moveView(selected);
         resetMapBoard();
+        highlightMap(selected, color);
+    }
+
+    /**
+     * Same as updateMap, but keeps the colors already on the `mapBoard`. 
+     * Cells outside the current view and buildings without map cells are
+     * skipped.
+     * 
+     * @param selected A list of building Id.
+     * @param color a color object associated with an escape code.
+     */
+    private static void highlightMap(ArrayList<Integer> selected, Color color) {
         for (int id : selected)
-            for (int[] p : borderTable.get(id))
-                mapBoard[p[0]][p[1]].setColor(color.val);
+            if (borderTable.containsKey(id))
+                for (int[] p : borderTable.get(id))
+                    if (view.contains(p[0], p[1]))
+                        mapBoard.setColor(p[0] - view.top(),
+                                          p[1] - view.left(), color);
     }
 
     /**
-     * @return a string representing the rendered map.
+     * Show a whole map: the `mapBoard` is the map itself and its view is 
+     * all of it.
+     * 
+     * @param board the campus map
      */
-    private static String renderMap() {
-        StringBuilder mapBuilder = new StringBuilder();
-        for (MapCell[] rows : mapBoard) {
-            for (MapCell cell : rows) {
-                mapBuilder.append(cell.prefix)
-                          .append(cell.ch)
-                          .append(cell.suffix);
-            }
+    private static void setMapBoard(MapBoard board) {
+        mapBoard = board;
+        renderer = new MapRenderer(board);
+        view     = new TiledMap.View(0, 0, board.rows(), board.cols() - 1);
+    }
+
+    /**
+     * On a tiled map, move the view to the bounding box of the buildings, 
+     * up to `viewRows` by `viewCols` cells, or to the top left corner if 
+     * there are none, and build the `mapBoard` of the view from the tiles 
+     * it intersects. Does nothing when the whole map is loaded.
+     * 
+     * @param buildings Ids of the buildings to show
+     */
+    private static void moveView(List<Integer> buildings) {
+        if (tiledMap == null)
+            return;
+
+        ArrayList<int[]> cells = new ArrayList<>();
+        for (int id : buildings)
+            if (borderTable.containsKey(id))
+                cells.addAll(borderTable.get(id));
+        TiledMap.View next = tiledMap.viewAround(cells, viewRows, viewCols);
+        if (!next.equals(view)) {
+            mapBoard = tiledMap.board(next);
+            renderer = new MapRenderer(mapBoard);
+            view     = next;
+        }
+    }
+
+    /**
+     * @param buildings Ids of the buildings drawn on the map
+     * @return A note that some of the buildings lie outside the view, to 
+     *         print under the map, or "" if all of them are drawn.
+     */
+    private static String clipNote(List<Integer> buildings) {
+        for (int id : buildings)
+            if (borderTable.containsKey(id))
+                for (int[] p : borderTable.get(id))
+                    if (!view.contains(p[0], p[1]))
+                        return Text.VIEW_CLIPPED;
+        return "";
+    }
+
+    /**
+     * @param mapFile input file path for campus map
+     * @return The map file opened for tiled rendering, or null if it 
+     *         cannot be read, to load it whole instead.
+     */
+    private static TiledMap openTiles(String mapFile) {
+        try {
+            return new TiledMap(mapFile);
+        } catch (IOException e) {
+            System.err.println("Error reading file: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Print the `mapBoard` with its current highlights, written by the 
+     * renderer to stdout in one write.
+     */
+    private static void printMap() {
+        System.out.flush();
+        try {
+            renderer.writeTo(STDOUT);
+        } catch (IOException e) {
+            System.err.println("Output failed: " + e.getMessage());
+        }
+        System.out.println();
+    }
+
+    /**
+     * Print a map rendered before, as its bytes are, to stdout.
+     * 
+     * @param map UTF-8 bytes of the rendered map
+     */
+    private static void printMap(byte[] map) {
+        System.out.flush();
+        try {
+            final ByteBuffer buf = ByteBuffer.wrap(map);
+            while (buf.hasRemaining())
+                STDOUT.write(buf);
+        } catch (IOException e) {
+            System.err.println("Output failed: " + e.getMessage());
         }
-        return mapBuilder.toString();
+        System.out.println();
     }
 }
@@ -0,0 +1,186 @@
+/**
+ * @file   MapBoard.java
+ * @brief  The campus map as a struct of arrays: one flat char array of the
+ *         glyphs, row by row with a newline cell ending each row, and one
+ *         byte per cell naming its highlight color. That is 3 bytes a cell,
+ *         where a MapCell object with its prefix and suffix references
+ *         takes about 28. Highlighted cells are also kept in a dirty list,
+ *         so clearing the highlights touches only those cells.
+ *
+ *         A highlighted '[' is drawn with its color code before it; any
+ *         other highlighted cell is followed by the reset code, the same
+ *         convention as MapCell.setColor.
+ *
+ * @see    Color
+ * @author Xin Cai
+ */
+import java.util.Arrays;
+import java.util.List;
+
+
+final class MapBoard implements MapGrid {
+    /* style of a cell without highlight; others are 1 + a Color ordinal */
+    static final byte PLAIN = 0;
+    private static final Color[] COLORS = Color.values();
+
+    private final int rows;
+    private final int cols;
+
+    /* glyph and style of the cell at (r, c) are at index r * cols + c */
+    private final char[] chars;
+    private final byte[] styles;
+
+    /* indices of the highlighted cells, in the order they were set */
+    private int[] dirty = new int[64];
+    private int dirtyCount;
+
+    /* bumped by every change to the highlights */
+    private int modCount;
+
+    /**
+     * @param rows number of rows
+     * @param cols number of cells per row, including the newline cell
+     * @param chars glyphs of all cells, row by row; used, not copied
+     */
+    MapBoard(int rows, int cols, char[] chars) {
+        if (chars.length != rows * cols)
+            throw new IllegalArgumentException(
+                "Expected " + rows * cols + " cells, got " + chars.length);
+        this.rows   = rows;
+        this.cols   = cols;
+        this.chars  = chars;
+        this.styles = new byte[chars.length];
+    }
+
+    /**
+     * Build a board from the lines of a map file. Every row is as wide as
+     * the first one, padded with spaces if shorter, plus a newline cell.
+     *
+     * @param lines the lines of the map, without line breaks
+     * @return The board, or null if there are no lines.
+     */
+    static MapBoard fromRows(List<char[]> lines) {
+        if (lines.isEmpty())
+            return null;
+
+        final int ncol = lines.get(0).length;
+        final char[] chars = new char[lines.size() * (ncol + 1)];
+        for (int r = 0; r < lines.size(); ++r) {
+            final char[] line = lines.get(r);
+            final int from = r * (ncol + 1);
+            final int len = Math.min(line.length, ncol);
+            System.arraycopy(line, 0, chars, from, len);
+            Arrays.fill(chars, from + len, from + ncol, ' ');
+            chars[from + ncol] = '\n';
+        }
+        return new MapBoard(lines.size(), ncol + 1, chars);
+    }
+
+    /**
+     * @return A board with the same glyphs, shared since they never change,
+     *         and no highlights, for rendering on another thread.
+     */
+    MapBoard unstyled() {
+        return new MapBoard(rows, cols, chars);
+    }
+
+    /**
+     * @return Number of rows.
+     */
+    @Override
+    public int rows() {
+        return this.rows;
+    }
+
+    /**
+     * @return Number of cells per row, including the newline cell.
+     */
+    @Override
+    public int cols() {
+        return this.cols;
+    }
+
+    /**
+     * @return The glyph at row r, column c.
+     */
+    @Override
+    public char charAt(int r, int c) {
+        return this.chars[r * cols + c];
+    }
+
+    /* Raw glyphs, row by row, for readers and writers of map data */
+    char[] chars() { return chars; }
+
+    /* Raw styles and highlighted cells, for renderers */
+    byte[] styles()  { return styles; }
+    int[] dirty()    { return dirty; }
+    int dirtyCount() { return dirtyCount; }
+    int modCount()   { return modCount; }
+
+    /**
+     * Highlight the cell at row r, column c with a color.
+     */
+    void setColor(int r, int c, Color color) {
+        final int i = r * cols + c;
+        if (styles[i] == PLAIN) {
+            if (dirtyCount == dirty.length)
+                dirty = Arrays.copyOf(dirty, 2 * dirtyCount);
+            dirty[dirtyCount++] = i;
+        }
+        styles[i] = (byte) (color.ordinal() + 1);
+        ++modCount;
+    }
+
+    /**
+     * @return The color of a style other than PLAIN.
+     */
+    static Color colorOf(byte style) {
+        return COLORS[style - 1];
+    }
+
+    /**
+     * Remove all highlights, in time proportional to their number.
+     */
+    void clear() {
+        if (dirtyCount > styles.length / 8) {
+            Arrays.fill(styles, PLAIN);
+        } else {
+            for (int k = 0; k < dirtyCount; ++k)
+                styles[dirty[k]] = PLAIN;
+        }
+        dirtyCount = 0;
+        ++modCount;
+    }
+
+    /**
+     * @return The map with its highlights as ANSI text. Runs of plain
+     *         cells are copied in bulk.
+     */
+    String render() {
+        StringBuilder sb = new StringBuilder(chars.length + 16 * dirtyCount);
+        int run = 0;
+        for (int i = 0; i < chars.length; ++i) {
+            if (styles[i] == PLAIN)
+                continue;
+
+            sb.append(chars, run, i - run);
+            final String code = colorOf(styles[i]).val;
+            if (chars[i] == '[')
+                sb.append(code).append(chars[i]);
+            else
+                sb.append(chars[i]).append(Color.RESET.val);
+            run = i + 1;
+        }
+        return sb.append(chars, run, chars.length - run).toString();
+    }
+
+    /**
+     * @return Bytes used per cell by the glyph, style and dirty arrays,
+     *         not counting the array headers.
+     */
+    double bytesPerCell() {
+        final long bytes = 2L * chars.length + styles.length +
+            4L * dirty.length;
+        return chars.length == 0 ? 0 : (double) bytes / chars.length;
+    }
+}
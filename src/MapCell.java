@@ -3,6 +3,8 @@
  * @brief  A lightweight class representing a character on the campus map.
  *         Provides utilities to insert escape codes before and after the 
  *         character so that it is easy to render the whole map.
+ *         The app now uses MapBoard; this layout of one object per
+ *         character is kept as the baseline of Benchmark board.
  *
  * @author Xin Cai
  */
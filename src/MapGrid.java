@@ -0,0 +1,26 @@
+/**
+ * @file   MapGrid.java
+ * @brief  A grid of map cells, whole in memory or loaded tile by tile, that
+ *         the border table can be built from. The last column of each row
+ *         holds the newline.
+ *
+ * @see    MapBoard
+ * @see    TiledMap
+ * @author Xin Cai
+ */
+interface MapGrid {
+    /**
+     * @return Number of rows.
+     */
+    int rows();
+
+    /**
+     * @return Number of cells per row, including the newline cell.
+     */
+    int cols();
+
+    /**
+     * @return The glyph at row r, column c.
+     */
+    char charAt(int r, int c);
+}
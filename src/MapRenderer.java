@@ -0,0 +1,310 @@
+/**
+ * @file   MapRenderer.java
+ * @brief  Incremental renderer of a MapBoard. The rendered frame lives in a
+ *         reusable buffer with one fixed-size slot per row, filled with the
+ *         plain glyphs of the board once. Each render re-renders only the
+ *         rows that have highlights now or had them in the previous frame,
+ *         splicing the color codes into their slots; every other row is
+ *         left as it is. So the cost of a frame scales with the rows of
+ *         the highlighted buildings, not with the area of the map, apart
+ *         from handing the finished frame out.
+ *
+ *         The frame is kept as UTF-8 bytes: the glyphs of the board are
+ *         encoded once, the color codes are the pre-encoded Color.bytes,
+ *         and a frame goes out through a pooled direct ByteBuffer in one
+ *         channel write, with no String or charset encoder per frame.
+ *
+ * @see    MapBoard
+ * @author Xin Cai
+ */
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+
+final class MapRenderer {
+    /* room for color codes in each row slot; doubled when a row needs more */
+    private static final int INITIAL_SLACK = 64;
+
+    /* the color code of each style, and the reset code */
+    private static final byte[][] CODES = new byte[Color.values().length][];
+    private static final byte[] RESET = Color.RESET.bytes;
+    static {
+        for (Color color : Color.values())
+            CODES[color.ordinal()] = color.bytes;
+    }
+
+    private final MapBoard board;
+
+    /* glyphs of the board in UTF-8; cell i starts at byte cellStart[i],
+       or at byte i if the board is ASCII and cellStart is null */
+    private final byte[] glyphs;
+    private final int[] cellStart;
+
+    /* bytes of the widest row without highlights */
+    private final int widest;
+
+    /* row r is frame[r * slot, r * slot + length[r]) */
+    private byte[] frame;
+    private int slot;
+    private final int[] length;
+
+    /* rows holding highlights in the frame, marked by stamp; the rows of
+       the next frame are collected in the spare buffer and swapped in */
+    private int[] styledRows = new int[16];
+    private int[] spareRows = new int[16];
+    private int styledCount;
+    private final int[] rowStamp;
+    private int stamp;
+
+    /* modCount of the board when the frame was last brought up to date */
+    private int renderedMod;
+
+    /* direct buffer the frame is assembled in for writing, reused */
+    private ByteBuffer out;
+
+    /**
+     * @param board the board to render, highlighted through its setColor
+     */
+    MapRenderer(MapBoard board) {
+        this.board    = board;
+        this.length   = new int[board.rows()];
+        this.rowStamp = new int[board.rows()];
+
+        // encode the glyphs once, byte by byte unless there is non-ASCII
+        final char[] chars = board.chars();
+        int ascii = 0;
+        while (ascii < chars.length && chars[ascii] < 0x80)
+            ++ascii;
+        if (ascii == chars.length) {
+            this.glyphs = new byte[chars.length];
+            for (int i = 0; i < chars.length; ++i)
+                this.glyphs[i] = (byte) chars[i];
+            this.cellStart = null;
+        } else {
+            this.glyphs = new String(chars).getBytes(StandardCharsets.UTF_8);
+            this.cellStart = cellStarts(chars);
+        }
+
+        int widest = 0;
+        for (int r = 0; r < board.rows(); ++r)
+            widest = Math.max(widest, this.start((r + 1) * board.cols()) -
+                                      this.start(r * board.cols()));
+        this.widest = widest;
+        this.layout(widest + INITIAL_SLACK);
+    }
+
+    /**
+     * @return The UTF-8 offset of every cell, and of the end, the same as
+     *         String.getBytes gives; a surrogate pair is all in its first
+     *         cell.
+     */
+    private static int[] cellStarts(char[] chars) {
+        final int[] starts = new int[chars.length + 1];
+        for (int i = 0; i < chars.length; ++i) {
+            final char c = chars[i];
+            final int bytes;
+            if (c < 0x80)
+                bytes = 1;
+            else if (c < 0x800)
+                bytes = 2;
+            else if (Character.isHighSurrogate(c) && i + 1 < chars.length &&
+                     Character.isLowSurrogate(chars[i + 1]))
+                bytes = 4;
+            else if (Character.isLowSurrogate(c) && i > 0 &&
+                     Character.isHighSurrogate(chars[i - 1]))
+                bytes = 0;
+            else
+                bytes = Character.isSurrogate(c) ? 1 : 3;
+            starts[i + 1] = starts[i] + bytes;
+        }
+        return starts;
+    }
+
+    /**
+     * @return The offset of cell i in the glyph bytes.
+     */
+    private int start(int i) {
+        return cellStart == null ? i : cellStart[i];
+    }
+
+    /**
+     * Lay the rows out in slots of the given width, all plain.
+     */
+    private void layout(int slot) {
+        this.slot  = slot;
+        this.frame = new byte[board.rows() * slot];
+        for (int r = 0; r < board.rows(); ++r)
+            this.restoreRow(r);
+        this.styledCount = 0;
+        this.renderedMod = board.modCount() - 1;
+    }
+
+    /**
+     * Copy the plain glyphs of row r into its slot.
+     */
+    private void restoreRow(int r) {
+        final int from = this.start(r * board.cols());
+        final int to   = this.start((r + 1) * board.cols());
+        System.arraycopy(glyphs, from, frame, r * slot, to - from);
+        length[r] = to - from;
+    }
+
+    /**
+     * Bring the frame up to date with the highlights on the board.
+     *
+     * @return Number of rows rendered again.
+     */
+    int refresh() {
+        if (renderedMod == board.modCount())
+            return 0;
+
+        final int cols = board.cols();
+        final int[] dirty = board.dirty();
+        final int dirtyCount = board.dirtyCount();
+
+        // collect the rows styled now, each once, by stamping them
+        final int current = ++stamp;
+        final int needed = Math.min(dirtyCount, board.rows());
+        if (spareRows.length < needed)
+            spareRows = new int[Math.min(board.rows(),
+                                Math.max(2 * spareRows.length, needed))];
+        final int[] rows = spareRows;
+        int count = 0;
+        for (int k = 0; k < dirtyCount; ++k) {
+            final int r = dirty[k] / cols;
+            if (rowStamp[r] != current) {
+                rowStamp[r] = current;
+                rows[count++] = r;
+            }
+        }
+
+        // rows styled before and plain now go back to their glyphs
+        int rendered = 0;
+        for (int k = 0; k < styledCount; ++k) {
+            final int r = styledRows[k];
+            if (rowStamp[r] != current) {
+                this.restoreRow(r);
+                ++rendered;
+            }
+        }
+
+        for (int k = 0; k < count; ++k) {
+            if (!this.renderRow(rows[k]))
+                return this.relayout();
+            ++rendered;
+        }
+        this.spareRows   = styledRows;
+        this.styledRows  = rows;
+        this.styledCount = count;
+        this.renderedMod = board.modCount();
+        return rendered;
+    }
+
+    /**
+     * Widen the slots after a row outgrew its slot, then render again.
+     */
+    private int relayout() {
+        this.layout(widest + 2 * (slot - widest));
+        return this.refresh();
+    }
+
+    /**
+     * Render one row with its highlights into its slot.
+     *
+     * @return False if the row does not fit the slot.
+     */
+    private boolean renderRow(int r) {
+        final char[] chars = board.chars();
+        final byte[] styles = board.styles();
+        final int from = r * board.cols();
+        final int to   = from + board.cols();
+        final int rowEnd = this.start(to);
+        final int end = r * slot + slot;
+        int pos = r * slot;
+        int run = this.start(from);
+
+        for (int i = from; i < to; ++i) {
+            if (styles[i] == MapBoard.PLAIN)
+                continue;
+
+            final byte[] code = chars[i] == '[' ?
+                CODES[MapBoard.colorOf(styles[i]).ordinal()] : RESET;
+            if (pos + (rowEnd - run) + code.length > end)
+                return false;
+
+            // the code goes after glyph i, or before it for '['
+            final int glyphEnd = this.start(chars[i] == '[' ? i : i + 1);
+            System.arraycopy(glyphs, run, frame, pos, glyphEnd - run);
+            pos += glyphEnd - run;
+            System.arraycopy(code, 0, frame, pos, code.length);
+            pos += code.length;
+            run = glyphEnd;
+        }
+        System.arraycopy(glyphs, run, frame, pos, rowEnd - run);
+        pos += rowEnd - run;
+        length[r] = pos - r * slot;
+        return true;
+    }
+
+    /**
+     * @return Bytes of the current frame.
+     */
+    int frameBytes() {
+        this.refresh();
+        int total = 0;
+        for (int len : length)
+            total += len;
+        return total;
+    }
+
+    /**
+     * @return The current frame as ANSI text in UTF-8, for caching.
+     */
+    byte[] toBytes() {
+        byte[] bytes = new byte[this.frameBytes()];
+        int pos = 0;
+        for (int r = 0; r < length.length; ++r) {
+            System.arraycopy(frame, r * slot, bytes, pos, length[r]);
+            pos += length[r];
+        }
+        return bytes;
+    }
+
+    /**
+     * @return The current frame as ANSI text, the same as MapBoard.render.
+     */
+    String render() {
+        return new String(this.toBytes(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Assemble the current frame in the pooled buffer and write all of it
+     * to the channel, in one write unless the channel takes less.
+     *
+     * @param ch where the frame goes, e.g. the FileChannel of stdout
+     * @return Number of bytes written.
+     * @throws IOException if writing fails.
+     */
+    int writeTo(WritableByteChannel ch) throws IOException {
+        final int total = this.frameBytes();
+        // grown with headroom, so that more highlights need no new buffer
+        if (out == null || out.capacity() < total)
+            out = ByteBuffer.allocateDirect(total + total / 4);
+        out.clear();
+        for (int r = 0; r < length.length; ++r)
+            out.put(frame, r * slot, length[r]);
+        out.flip();
+        while (out.hasRemaining())
+            ch.write(out);
+        return total;
+    }
+
+    /**
+     * @return Bytes of the frame buffer per cell of the board.
+     */
+    double slotOverhead() {
+        return (double) frame.length / Math.max(1, board.chars().length);
+    }
+}
@@ -0,0 +1,367 @@
+/**
+ * @file   MappedFileReader.java
+ * @brief  A FileReader that memory-maps the data file and the map file and
+ *         parses them straight from the mapped bytes. Integers are scanned
+ *         digit by digit and building names are copied once from their
+ *         bytes, so no String is allocated per token or per line.
+ *
+ *         The data file is split into line-aligned chunks that are parsed
+ *         in parallel on the common fork-join pool. Each chunk collects its
+ *         buildings, edges and errors in its own buffers; the buffers are
+ *         merged in file order at the end and the edges frozen straight
+ *         into a CsrGraph. Lines that fail to parse are reported with their
+ *         line number. The result is the same Graph, building table, map
+ *         board and border table as FileReader produces.
+ *
+ * @see    FileReader
+ * @see    CsrGraph
+ * @author Xin Cai
+ */
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+
+class MappedFileReader extends FileReader {
+    /* number of services encoded after the name of a building */
+    private static final int SERVICE_COUNT = 3;
+
+    /* bytes of the data file parsed by one task, rounded up to a line */
+    private static final int CHUNK_BYTES = 1 << 20;
+
+    /**
+     * A line of the data file that could not be parsed.
+     *
+     * @param line line number, starting at 1
+     * @param message what was wrong with the line
+     */
+    record ParseError(int line, String message) {}
+
+    private final ArrayList<ParseError> parseErrors = new ArrayList<>();
+    private boolean truncated;
+
+    /**
+     * Construct a reader, reading the specified files. Either may be null
+     * to read only the other one, leaving its tables empty.
+     *
+     * @param datFile input file path for campus buildings, or null
+     * @param mapFile input file path for campus map, or null
+     */
+    public MappedFileReader(String datFile, String mapFile) {
+        super();
+        try {
+            if (datFile != null)
+                this.readDatFile(map(datFile));
+            if (mapFile != null)
+                this.readMapFile(map(mapFile));
+        } catch (IOException e) {
+            System.err.println("Error reading file: " + e.getMessage());
+        }
+
+        if (this.mapBoard != null)
+            this.buildBorderTable();
+    }
+
+    /**
+     * @return The lines of the data file that could not be parsed, in file
+     *         order.
+     */
+    public ArrayList<ParseError> getParseErrors() {
+        return this.parseErrors;
+    }
+
+    /**
+     * @return True if the data file does not end with a line break, as a
+     *         file caught halfway through a save may not; its last line
+     *         can then be cut short and still parse.
+     */
+    public boolean isTruncated() {
+        return this.truncated;
+    }
+
+    /**
+     * @return The whole file mapped read-only into memory.
+     * @throws IOException if the file cannot be read or exceeds 2 GB.
+     */
+    private static MappedByteBuffer map(String file) throws IOException {
+        try (FileChannel ch = FileChannel.open(Path.of(file),
+                                               StandardOpenOption.READ)) {
+            if (ch.size() > Integer.MAX_VALUE)
+                throw new IOException(file + " is larger than 2 GB");
+            return ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        }
+    }
+
+    /**
+     * Parse the chunks of the data file in parallel, then merge their
+     * buildings, edges and errors in file order.
+     */
+    private void readDatFile(MappedByteBuffer buf) {
+        // split into chunks that end right after a line break
+        ArrayList<Integer> bounds = new ArrayList<>();
+        final int size = buf.limit();
+        this.truncated = size > 0 && buf.get(size - 1) != '\n';
+        bounds.add(0);
+        for (int end = 0; end < size; bounds.add(end)) {
+            end = (int) Math.min(size, (long) end + CHUNK_BYTES);
+            while (end < size && buf.get(end - 1) != '\n')
+                ++end;
+        }
+
+        final ChunkParser[] chunks = new ChunkParser[bounds.size() - 1];
+        IntStream.range(0, chunks.length).parallel().forEach(i -> {
+            chunks[i] = new ChunkParser(buf);
+            chunks[i].parseDat(bounds.get(i), bounds.get(i + 1));
+        });
+
+        // merge the buffers of all chunks in file order
+        int edges = 0;
+        for (ChunkParser chunk : chunks)
+            edges += chunk.edges;
+        final int[] us = new int[edges];
+        final int[] vs = new int[edges];
+        final int[] cs = new int[edges];
+
+        int lines = 0;
+        edges = 0;
+        for (ChunkParser chunk : chunks) {
+            for (Building b : chunk.buildings)
+                this.buildingTable.put(b.id, b);
+
+            System.arraycopy(chunk.us, 0, us, edges, chunk.edges);
+            System.arraycopy(chunk.vs, 0, vs, edges, chunk.edges);
+            System.arraycopy(chunk.cs, 0, cs, edges, chunk.edges);
+            edges += chunk.edges;
+
+            for (ParseError e : chunk.errors) {
+                ParseError error = new ParseError(lines + e.line(),
+                                                  e.message());
+                System.err.println("Error parsing line " + error.line() +
+                                   ": " + error.message());
+                this.parseErrors.add(error);
+            }
+            lines += chunk.lines;
+        }
+        this.campusGraph = new Graph(CsrGraph.fromEdges(us, vs, cs));
+    }
+
+    /**
+     * Build the map board from the lines of the map file, like
+     * FileReader.buildMap, with a newline cell at the end of each row.
+     */
+    private void readMapFile(MappedByteBuffer buf) {
+        final ChunkParser parser = new ChunkParser(buf);
+        final int size = buf.limit();
+        ArrayList<char[]> rows = new ArrayList<>();
+
+        for (int pos = 0, next; pos < size; pos = next) {
+            next = parser.nextLine(pos);
+            rows.add(parser.decodeRow(pos, parser.lineEnd));
+        }
+        this.mapBoard = MapBoard.fromRows(rows);
+    }
+
+    /**
+     * Scanner over a range of the mapped bytes, with the buildings, edges
+     * and errors found there. Each parallel task owns one, so the parse
+     * itself shares nothing but the read-only buffer.
+     */
+    private static final class ChunkParser {
+        /* the buffer being scanned, and the end of the current line */
+        private final MappedByteBuffer buf;
+        private int lineEnd;
+
+        /* bytes of the name being parsed, with single spaces between words */
+        private byte[] nameBytes = new byte[64];
+
+        /* results: buildings, edges (us[i], vs[i], cs[i]), lines, errors
+           with line numbers counted from the start of the chunk */
+        private final ArrayList<Building> buildings = new ArrayList<>();
+        private int[] us = new int[1024];
+        private int[] vs = new int[1024];
+        private int[] cs = new int[1024];
+        private int edges;
+        private int lines;
+        private final ArrayList<ParseError> errors = new ArrayList<>();
+
+        ChunkParser(MappedByteBuffer buf) {
+            this.buf = buf;
+        }
+
+        /**
+         * Parse every line in [from, to), like FileReader.readDatLine.
+         */
+        void parseDat(int from, int to) {
+            for (int pos = from, next; pos < to; pos = next) {
+                next = this.nextLine(pos);
+                ++this.lines;
+                try {
+                    this.parseDatLine(pos);
+                } catch (NumberFormatException e) {
+                    this.errors.add(new ParseError(lines, e.getMessage()));
+                }
+            }
+        }
+
+        /**
+         * Parse one line: "id name... $ dining library parking (neib cost)*".
+         */
+        private void parseDatLine(int pos) {
+            // parse building id
+            pos = this.skipBlanks(pos);
+            final int id = this.parseInt(pos);
+            pos = this.skipBlanks(this.tokenEnd(pos));
+
+            // extract building name, up to the "$" token
+            int nameLength = 0;
+            while (!this.isDollar(pos)) {
+                if (pos >= lineEnd)
+                    throw new NumberFormatException("Missing '$' after name");
+
+                final int end = this.tokenEnd(pos);
+                if (nameLength + (end - pos) + 1 > nameBytes.length)
+                    nameBytes = Arrays.copyOf(
+                        nameBytes, 2 * (nameLength + end - pos + 1));
+                if (nameLength > 0)
+                    nameBytes[nameLength++] = ' ';
+                for (int i = pos; i < end; ++i)
+                    nameBytes[nameLength++] = buf.get(i);
+                pos = this.skipBlanks(end);
+            }
+            pos = this.skipBlanks(pos + 1);
+
+            // extract building services
+            int serviceBits = 0;
+            for (int j = 0; j < SERVICE_COUNT; ++j) {
+                serviceBits |= this.parseInt(pos) << j;
+                pos = this.skipBlanks(this.tokenEnd(pos));
+            }
+
+            this.buildings.add(new Building(id,
+                new String(nameBytes, 0, nameLength, StandardCharsets.UTF_8),
+                serviceBits));
+
+            // read neighbor-cost info
+            while (pos < lineEnd) {
+                final int neib = this.parseInt(pos);
+                pos = this.skipBlanks(this.tokenEnd(pos));
+                final int cost = this.parseInt(pos);
+                pos = this.skipBlanks(this.tokenEnd(pos));
+                this.addEdge(id, neib, cost);
+            }
+        }
+
+        private void addEdge(int u, int v, int cost) {
+            if (edges == us.length) {
+                us = Arrays.copyOf(us, 2 * edges);
+                vs = Arrays.copyOf(vs, 2 * edges);
+                cs = Arrays.copyOf(cs, 2 * edges);
+            }
+            us[edges] = u;
+            vs[edges] = v;
+            cs[edges++] = cost;
+        }
+
+        /**
+         * @return The chars of one line; ASCII is widened byte by byte, any
+         *         other line is decoded as UTF-8.
+         */
+        char[] decodeRow(int from, int to) {
+            char[] row = new char[to - from];
+            for (int i = from; i < to; ++i) {
+                final byte b = buf.get(i);
+                if (b < 0) {
+                    byte[] bytes = new byte[to - from];
+                    buf.get(from, bytes);
+                    return new String(bytes, StandardCharsets.UTF_8)
+                        .toCharArray();
+                }
+                row[i - from] = (char) b;
+            }
+            return row;
+        }
+
+        /**
+         * Find the end of the line starting at pos and store it in lineEnd,
+         * leaving out the "\n" or "\r\n" that ends it.
+         *
+         * @return Start of the next line.
+         */
+        int nextLine(int pos) {
+            final int size = buf.limit();
+            int end = pos;
+            while (end < size && buf.get(end) != '\n')
+                ++end;
+
+            this.lineEnd =
+                (end > pos && buf.get(end - 1) == '\r') ? end - 1 : end;
+            return end + 1;
+        }
+
+        private int skipBlanks(int pos) {
+            while (pos < lineEnd && isBlank(buf.get(pos)))
+                ++pos;
+            return pos;
+        }
+
+        private int tokenEnd(int pos) {
+            while (pos < lineEnd && !isBlank(buf.get(pos)))
+                ++pos;
+            return pos;
+        }
+
+        private boolean isDollar(int pos) {
+            return pos < lineEnd && buf.get(pos) == '$' &&
+                (pos + 1 == lineEnd || isBlank(buf.get(pos + 1)));
+        }
+
+        private static boolean isBlank(byte b) {
+            return b == ' ' || b == '\t' || b == '\r' || b == '\f' ||
+                b == 0x0B;
+        }
+
+        /**
+         * Scan the decimal integer token at pos without creating a String.
+         *
+         * @throws NumberFormatException with the message of
+         *         Integer.parseInt if the token is not a valid int.
+         */
+        private int parseInt(int pos) {
+            final int end = this.tokenEnd(pos);
+            int i = pos;
+            final boolean negative = i < end && buf.get(i) == '-';
+            if (i < end && (buf.get(i) == '-' || buf.get(i) == '+'))
+                ++i;
+            if (i == end)
+                throw this.badInt(pos, end);
+
+            long value = 0;
+            for (; i < end; ++i) {
+                final int digit = buf.get(i) - '0';
+                if (digit < 0 || digit > 9)
+                    throw this.badInt(pos, end);
+                value = 10 * value + digit;
+                if (value > (long) Integer.MAX_VALUE + 1)
+                    throw this.badInt(pos, end);
+            }
+            if (negative)
+                value = -value;
+            if (value > Integer.MAX_VALUE)
+                throw this.badInt(pos, end);
+            return (int) value;
+        }
+
+        private NumberFormatException badInt(int from, int to) {
+            byte[] bytes = new byte[to - from];
+            buf.get(from, bytes);
+            return new NumberFormatException("For input string: \"" +
+                new String(bytes, StandardCharsets.UTF_8) + "\"");
+        }
+    }
+}
@@ -0,0 +1,361 @@
+/**
+ * @file   NameIndex.java
+ * @brief  Search of buildings by name. Names are normalized to lower-case
+ *         words and stored in a prefix trie, the whole name and also each
+ *         suffix that starts at a word, so "sci" finds "Computer Sciences".
+ *         The trie lives in a few flat arrays, one slot per node.
+ *
+ *         A lookup walks the trie with one row of the edit distance table
+ *         per node, pruning every branch whose row has no entry within the
+ *         bound. A name matches if some prefix of it is within the bound
+ *         of the query, so partly typed and misspelled names are found:
+ *         "compter sci" is 1 edit from "computer sci". The bound grows with
+ *         the length of the query, from 0 for up to 3 chars to 2 for more
+ *         than 7. Matches are ranked by distance, then matches of the
+ *         whole name before those of a later word, then shorter names.
+ *         Only the best `limit` matches are kept while walking, and each
+ *         node knows the best rank of a name below it, so a subtree that
+ *         cannot beat the worst match kept is skipped: a short query such
+ *         as "c" does not visit every name that starts with it.
+ *
+ * @see    Building
+ * @author Xin Cai
+ */
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+
+final class NameIndex {
+    /**
+     * A building found by name.
+     *
+     * @param id Id of the building
+     * @param name name of the building
+     * @param distance edits between the query and a prefix of the name
+     * @param whole true if the match starts at the first word of the name
+     */
+    record Match(int id, String name, int distance, boolean whole) {}
+
+    private static final Comparator<Match> RANKING =
+        Comparator.comparingInt(Match::distance)
+            .thenComparing(m -> !m.whole())
+            .thenComparingInt(m -> m.name().length())
+            .thenComparingInt(Match::id);
+
+    /* rank of an entry among those at one distance, as RANKING orders
+       them before the id: whole names first, then shorter names */
+    private static final int PART = 1 << 24;
+
+    /* trie nodes: label, first child, next sibling and the least rank of
+       an entry in the subtree; node 0 is the root */
+    private char[] label = new char[1024];
+    private int[] child = new int[1024];
+    private int[] sibling = new int[1024];
+    private int[] minRank = new int[1024];
+    private int nodes = 1;
+
+    /* entries ending at a node, as a list through entryNext from head[] */
+    private int[] head = new int[1024];
+    private int[] entryId = new int[256];
+    private int[] entryRank = new int[256];
+    private int[] entryNext = new int[256];
+    private int entries;
+
+    /* length of the longest key, the depth of the trie */
+    private int depth;
+
+    private final HashMap<Integer, String> names = new HashMap<>();
+
+    /**
+     * Index the names of every building in the table.
+     *
+     * @param buildingTable buildings by id
+     */
+    NameIndex(Map<Integer, Building> buildingTable) {
+        Arrays.fill(child, -1);
+        Arrays.fill(sibling, -1);
+        Arrays.fill(head, -1);
+        Arrays.fill(minRank, Integer.MAX_VALUE);
+        for (Building building : buildingTable.values())
+            this.add(building.id, building.name);
+    }
+
+    /**
+     * Index a name, whole and from each of its later words.
+     *
+     * @param id Id of the building
+     * @param name name of the building
+     */
+    void add(int id, String name) {
+        this.names.put(id, name);
+        final String key = normalize(name);
+        for (int i = 0; i < key.length(); ++i)
+            if (i == 0 || key.charAt(i - 1) == ' ')
+                this.insert(key, i, id, i == 0);
+    }
+
+    /**
+     * @return The name in lower case, with every run of characters other
+     *         than letters and digits turned into one space.
+     */
+    static String normalize(String name) {
+        StringBuilder sb = new StringBuilder(name.length());
+        for (int i = 0; i < name.length(); ++i) {
+            final char c = name.charAt(i);
+            if (Character.isLetterOrDigit(c))
+                sb.append(Character.toLowerCase(c));
+            else if (sb.length() > 0 && sb.charAt(sb.length() - 1) != ' ')
+                sb.append(' ');
+        }
+        final int end = sb.length();
+        return (end > 0 && sb.charAt(end - 1) == ' ') ?
+            sb.substring(0, end - 1) : sb.toString();
+    }
+
+    /**
+     * @return The edit distance allowed for a normalized query.
+     */
+    static int maxDistance(String query) {
+        return query.length() <= 3 ? 0 : query.length() <= 7 ? 1 : 2;
+    }
+
+    /**
+     * Find the buildings whose names start with the query, allowing for
+     * a few typing errors.
+     *
+     * @param query part of a name, in any case
+     * @param limit most matches returned
+     * @return The best matches, best first.
+     */
+    ArrayList<Match> lookup(String query, int limit) {
+        final String q = normalize(query);
+        if (q.isEmpty() || limit <= 0)
+            return new ArrayList<>();
+
+        // one row of the edit distance table per depth of the walk
+        final int m = q.length();
+        final int[][] rows = new int[depth + 1][m + 1];
+        for (int j = 0; j <= m; ++j)
+            rows[0][j] = j;
+        Search search = new Search(q, maxDistance(q), rows, limit);
+        search.walk(0, 0, Integer.MAX_VALUE);
+
+        // the best matches by rank, so an exact prefix late in the trie is
+        // not crowded out by typo matches found before it
+        ArrayList<Match> matches = new ArrayList<>(search.best);
+        matches.sort(RANKING);
+        return matches;
+    }
+
+    /**
+     * @return The id of the best match of the query.
+     * @throws IllegalArgumentException if no building matches.
+     */
+    int find(String query) {
+        ArrayList<Match> matches = this.lookup(query, 1);
+        if (matches.isEmpty())
+            throw new IllegalArgumentException(
+                "No building matches \"" + query.trim() + "\".");
+        return matches.get(0).id();
+    }
+
+    /**
+     * @return Number of trie nodes.
+     */
+    int nodeCount() {
+        return this.nodes;
+    }
+
+    /**
+     * Insert key[from..] as an entry of the building.
+     */
+    private void insert(String key, int from, int id, boolean whole) {
+        final int rank = rank(whole, this.names.get(id).length());
+        int node = 0;
+        minRank[0] = Math.min(minRank[0], rank);
+        for (int i = from; i < key.length(); ++i) {
+            final char c = key.charAt(i);
+            int next = child[node];
+            while (next >= 0 && label[next] != c)
+                next = sibling[next];
+            if (next < 0) {
+                next = this.newNode(c);
+                sibling[next] = child[node];
+                child[node] = next;
+            }
+            node = next;
+            minRank[node] = Math.min(minRank[node], rank);
+        }
+        this.depth = Math.max(this.depth, key.length() - from);
+
+        if (entries == entryId.length) {
+            entryId    = Arrays.copyOf(entryId, 2 * entries);
+            entryRank  = Arrays.copyOf(entryRank, 2 * entries);
+            entryNext  = Arrays.copyOf(entryNext, 2 * entries);
+        }
+        entryId[entries]    = id;
+        entryRank[entries]  = rank;
+        entryNext[entries]  = head[node];
+        head[node] = entries++;
+    }
+
+    private int newNode(char c) {
+        if (nodes == label.length) {
+            final int n = 2 * nodes;
+            label   = Arrays.copyOf(label, n);
+            child   = Arrays.copyOf(child, n);
+            sibling = Arrays.copyOf(sibling, n);
+            minRank = Arrays.copyOf(minRank, n);
+            head    = Arrays.copyOf(head, n);
+            Arrays.fill(child, nodes, n, -1);
+            Arrays.fill(sibling, nodes, n, -1);
+            Arrays.fill(minRank, nodes, n, Integer.MAX_VALUE);
+            Arrays.fill(head, nodes, n, -1);
+        }
+        label[nodes] = c;
+        return nodes++;
+    }
+
+    /**
+     * @return The rank of an entry, ordered as RANKING orders matches at
+     *         one distance, leaving out the id.
+     */
+    private static int rank(boolean whole, int length) {
+        return (whole ? 0 : PART) + Math.min(length, PART - 1);
+    }
+
+    /**
+     * The state of one lookup: the query, its bound, the rows of the
+     * table and the best matches so far, at most limit of them and one
+     * per building.
+     */
+    private final class Search {
+        private final String q;
+        private final int bound;
+        private final int[][] rows;
+        private final int limit;
+
+        /* the best matches, worst on top, and the same by building id */
+        private final PriorityQueue<Match> best;
+        private final HashMap<Integer, Match> found = new HashMap<>();
+
+        Search(String q, int bound, int[][] rows, int limit) {
+            this.q = q;
+            this.bound = bound;
+            this.rows = rows;
+            this.limit = limit;
+            this.best = new PriorityQueue<>(
+                Math.min(limit, 64) + 1, RANKING.reversed());
+        }
+
+        /**
+         * @return True if limit matches are kept and all of them rank
+         *         before any match at the given distance and rank.
+         */
+        private boolean beaten(int distance, int rank) {
+            if (best.size() < limit)
+                return false;
+            final Match worst = best.peek();
+            return worst.distance() != distance ?
+                worst.distance() < distance :
+                rank(worst.whole(), worst.name().length()) < rank;
+        }
+
+        /**
+         * Walk the subtree of a node whose row is rows[level]. best is the
+         * least distance of the query to a prefix on the way here.
+         */
+        void walk(int node, int level, int best) {
+            final int m = q.length();
+            final int[] row = rows[level];
+            best = Math.min(best, row[m]);
+
+            int least = Integer.MAX_VALUE;
+            for (int d : row)
+                least = Math.min(least, d);
+            if (this.beaten(Math.min(best, least), minRank[node]))
+                return;
+
+            // no longer prefix can get closer, so the subtree all matches
+            // with the best distance so far, or none of it does
+            if (least > bound) {
+                if (best <= bound)
+                    this.gather(node, best);
+                return;
+            }
+            this.report(node, best);
+
+            // the child on the exact path first, so that close matches
+            // are kept early and beat the branches of typos
+            final char exact = level < m ? q.charAt(level) : 0;
+            int first = -1;
+            for (int c = child[node]; c >= 0 && first < 0; c = sibling[c])
+                if (label[c] == exact)
+                    first = c;
+            if (first >= 0)
+                this.step(first, level, best);
+            for (int c = child[node]; c >= 0; c = sibling[c])
+                if (c != first)
+                    this.step(c, level, best);
+        }
+
+        /**
+         * Fill the row of child c from the row of its parent at level,
+         * then walk it.
+         */
+        private void step(int c, int level, int best) {
+            final int m = q.length();
+            final int[] row = rows[level];
+            final int[] next = rows[level + 1];
+            next[0] = row[0] + 1;
+            for (int j = 1; j <= m; ++j) {
+                final int cost = q.charAt(j - 1) == label[c] ? 0 : 1;
+                next[j] = Math.min(Math.min(next[j - 1], row[j]) + 1,
+                                   row[j - 1] + cost);
+            }
+            this.walk(c, level + 1, best);
+        }
+
+        /**
+         * Report every entry of the subtree with the given distance.
+         */
+        private void gather(int node, int distance) {
+            if (this.beaten(distance, minRank[node]))
+                return;
+            this.report(node, distance);
+            for (int c = child[node]; c >= 0; c = sibling[c])
+                this.gather(c, distance);
+        }
+
+        /**
+         * Report the entries ending at a node if they are within bound.
+         */
+        private void report(int node, int distance) {
+            if (distance > bound)
+                return;
+            for (int e = head[node]; e >= 0; e = entryNext[e]) {
+                if (this.beaten(distance, entryRank[e]))
+                    continue;
+                final int id = entryId[e];
+                Match match = new Match(id, names.get(id), distance,
+                                        entryRank[e] < PART);
+                Match old = found.get(id);
+                if (old != null) {
+                    if (RANKING.compare(match, old) >= 0)
+                        continue;
+                    best.remove(old);
+                } else if (best.size() == limit) {
+                    if (RANKING.compare(match, best.peek()) >= 0)
+                        continue;
+                    found.remove(best.poll().id());
+                }
+                best.add(match);
+                found.put(id, match);
+            }
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/**
+ * @file   NearestServiceTable.java
+ * @brief  A graph Voronoi partition for one service: every node is
+ *         assigned the facility nearest to it, with the distance and the
+ *         next hop of the path towards it. The table is filled by a single
+ *         multi-source Dijkstra seeded with all facilities, after which the
+ *         nearest facility of any building is an O(1) lookup and its path
+ *         an O(path length) walk.
+ *
+ * @see    DijkstraEngine
+ * @author Xin Cai
+ */
+import java.util.ArrayList;
+import java.util.Arrays;
+
+
+final class NearestServiceTable {
+    private final CsrGraph graph;
+
+    /* per dense node index: cost to, next hop towards, and index of the
+       nearest facility; -1 for nodes that reach no facility */
+    private final int[] dist;
+    private final int[] next;
+    private final int[] owner;
+
+    /**
+     * Partition the graph among the given facilities.
+     *
+     * @param graph a frozen graph
+     * @param facilityIds Ids of the buildings offering the service.
+     * @throws IllegalArgumentException if a facility is missing.
+     */
+    NearestServiceTable(CsrGraph graph, int[] facilityIds) {
+        final int n = graph.nodeCount();
+        this.graph = graph;
+        this.dist  = new int[n];
+        this.next  = new int[n];
+        this.owner = new int[n];
+
+        final int[] seeds = new int[facilityIds.length];
+        for (int i = 0; i < seeds.length; ++i)
+            seeds[i] = graph.requireIndex(facilityIds[i]);
+        graph.engine().searchMultiTree(seeds, dist, next);
+
+        // label each node with the root of its tree, compressing the walks
+        Arrays.fill(owner, -2);
+        for (int v = 0; v < n; ++v)
+            this.resolveOwner(v);
+    }
+
+    /**
+     * Find the facility at the end of the path of v, and label every node
+     * on the way with it.
+     */
+    private void resolveOwner(int v) {
+        int u = v;
+        while (owner[u] == -2 && next[u] != -1)
+            u = next[u];
+
+        // u is labeled already, or a root (facility or unreached node)
+        final int root = owner[u] != -2 ? owner[u] :
+            (dist[u] == DijkstraEngine.UNREACHABLE ? -1 : u);
+
+        for (int w = v; owner[w] == -2; w = next[w]) {
+            owner[w] = root;
+            if (next[w] == -1)
+                break;
+        }
+    }
+
+    /**
+     * @param sid Id of a building.
+     * @return Id of the nearest facility, or -1 if none is reachable.
+     */
+    int nearestTo(int sid) {
+        final int o = owner[graph.requireIndex(sid)];
+        return o < 0 ? -1 : graph.idOf(o);
+    }
+
+    /**
+     * @param sid Id of a building.
+     * @return Cost of the path to the nearest facility, or UNREACHABLE.
+     */
+    int distanceFrom(int sid) {
+        return dist[graph.requireIndex(sid)];
+    }
+
+    /**
+     * @param sid Id of a building.
+     * @return The path from the building to its nearest facility.
+     * @throws IllegalArgumentException if no facility is reachable.
+     */
+    ArrayList<Integer> getPathFrom(int sid) {
+        final int s = graph.requireIndex(sid);
+        if (owner[s] < 0)
+            throw new IllegalArgumentException(
+                "No facility reachable from " + sid + ".");
+
+        ArrayList<Integer> path = new ArrayList<>();
+        for (int v = s; v != -1; v = next[v])
+            path.add(graph.idOf(v));
+        return path;
+    }
+}
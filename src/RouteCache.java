@@ -0,0 +1,139 @@
+/**
+ * @file   RouteCache.java
+ * @brief  A bounded LRU cache of routes keyed by (source, target). Each
+ *         entry keeps the path together with its rendered map and list,
+ *         so a repeated query skips the search and the whole render.
+ *         Frames of large maps are big, so the cache is bounded by the
+ *         bytes its entries hold as well as by their number. The cache
+ *         remembers the graph version it was filled from and drops every
+ *         entry once the topology changes.
+ *
+ * @see    MapApp
+ * @author Xin Cai
+ */
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+
+class RouteCache {
+    /** Number of routes kept by default */
+    static final int DEFAULT_CAPACITY = 256;
+
+    /** Bytes of rendered output kept by default */
+    static final long DEFAULT_MAX_BYTES = 64L << 20;
+
+    /**
+     * A cached route and its rendered output; the map is UTF-8 bytes
+     * ready to be written out.
+     */
+    record Entry(ArrayList<Integer> path, byte[] map, String list) {
+        /**
+         * @return Approximate heap bytes held by this entry.
+         */
+        long bytes() {
+            return map.length + 2L * list.length() + 16L * path.size();
+        }
+    }
+
+    private final LinkedHashMap<Long, Entry> entries;
+    private final Graph graph;
+    private final int capacity;
+    private final long maxBytes;
+    private long bytes;
+    private int version;
+
+    /* statistics */
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+    private long invalidations = 0;
+
+    /**
+     * Construct an empty cache of routes on the given graph.
+     *
+     * @param graph graph whose mutations invalidate the cache
+     * @param capacity maximum number of routes kept
+     * @param maxBytes maximum bytes of rendered output kept
+     */
+    public RouteCache(Graph graph, int capacity, long maxBytes) {
+        this.graph    = graph;
+        this.version  = graph.getVersion();
+        this.capacity = capacity;
+        this.maxBytes = maxBytes;
+
+        // access-ordered map, least recently used entry first
+        this.entries = new LinkedHashMap<>(2 * capacity, 0.75f, true);
+    }
+
+    /**
+     * @param src Id of the source building.
+     * @param tgt Id of the target building.
+     * @return The cached route, or null if it is not cached.
+     */
+    public Entry get(int src, int tgt) {
+        this.validate();
+        Entry entry = this.entries.get(key(src, tgt));
+
+        if (entry == null)
+            misses++;
+        else
+            hits++;
+        return entry;
+    }
+
+    /**
+     * Cache a route, evicting the least recently used ones until it fits.
+     * A route larger than the whole cache is not kept.
+     *
+     * @param src Id of the source building.
+     * @param tgt Id of the target building.
+     * @param entry the path and its rendered output
+     */
+    public void put(int src, int tgt, Entry entry) {
+        this.validate();
+        if (entry.bytes() > this.maxBytes)
+            return;
+
+        Entry old = this.entries.put(key(src, tgt), entry);
+        if (old != null)
+            this.bytes -= old.bytes();
+        this.bytes += entry.bytes();
+
+        Iterator<Entry> lru = this.entries.values().iterator();
+        while (this.entries.size() > this.capacity ||
+               this.bytes > this.maxBytes) {
+            this.bytes -= lru.next().bytes();
+            lru.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * Drop every entry if the graph changed since they were cached.
+     */
+    private void validate() {
+        if (this.version == this.graph.getVersion())
+            return;
+
+        if (!this.entries.isEmpty())
+            invalidations++;
+        this.entries.clear();
+        this.bytes = 0;
+        this.version = this.graph.getVersion();
+    }
+
+    private static long key(int src, int tgt) {
+        return ((long) src << 32) | (tgt & 0xffffffffL);
+    }
+
+    /**
+     * @return Hit/miss/eviction counters of this cache.
+     */
+    @Override
+    public String toString() {
+        return "size " + entries.size() + ", bytes " + bytes +
+            ", hits " + hits + ", misses " + misses +
+            ", evictions " + evictions + ", invalidations " + invalidations;
+    }
+}
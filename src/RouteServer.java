@@ -0,0 +1,383 @@
+/**
+ * @file   RouteServer.java
+ * @brief  Server mode of MapApp, built on the JDK's com.sun.net.httpserver.
+ *         Endpoints:
+ *           /route?src=&tgt=        shortest path as JSON
+ *           /service?type=[&src=]   buildings with a service, or the path
+ *                                   to the nearest one, as JSON
+ *           /map[?src=&tgt=]        ANSI campus map, with a route if given
+ *           /stats                  request latency percentiles
+ *         Requests run on a fixed pool of threads behind a bounded queue.
+ *         Once the queue is full, further requests are answered 503 at
+ *         once on the dispatcher thread instead of piling up. The graph
+ *         and the campus data are published together as one GraphStore
+ *         snapshot, and each request reads that snapshot once, so it routes
+ *         and renders on the same version without locks.
+ *
+ * @see    GraphStore
+ * @see    LatencyHistogram
+ * @author Xin Cai
+ */
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.StringJoiner;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+
+final class RouteServer {
+    /** Port used when none is given */
+    static final int DEFAULT_PORT = 8080;
+
+    /* worker threads and requests waiting for one */
+    private static final int WORKERS =
+        Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+    private static final int QUEUE_CAPACITY = 256;
+
+    /* set while a request that did not fit the queue is being refused */
+    private static final ThreadLocal<Boolean> SHEDDING =
+        ThreadLocal.withInitial(() -> false);
+
+    /**
+     * Buildings and map served with the graph, replaced as a whole on
+     * reload.
+     *
+     * @param buildingTable buildings by Id
+     * @param borderTable border cells of each building on the map
+     * @param board the campus map, never highlighted itself
+     * @param services buildings by service
+     */
+    private record Campus(HashMap<Integer, Building> buildingTable,
+                          HashMap<Integer, ArrayList<int[]>> borderTable,
+                          MapBoard board, ServiceIndex services) {}
+
+    private final GraphStore<Campus> store;
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder rejected = new LongAdder();
+    private HttpServer server;
+    private ThreadPoolExecutor workers;
+
+    /**
+     * The campus graph is handed to a GraphStore, so it must not be edited
+     * by the caller afterwards.
+     *
+     * @param graph the campus graph
+     * @param buildingTable buildings by Id
+     * @param mapBoard the campus map, only read here
+     * @param borderTable border cells of each building on the map
+     */
+    RouteServer(Graph graph,
+                HashMap<Integer, Building> buildingTable,
+                MapBoard mapBoard,
+                HashMap<Integer, ArrayList<int[]>> borderTable)
+    {
+        this.store = new GraphStore<>(graph,
+            new Campus(buildingTable, borderTable, mapBoard.unstyled(),
+                       new ServiceIndex(buildingTable)));
+    }
+
+    /**
+     * Swap in reloaded campus data. The edge changes and the new campus
+     * data are published as one snapshot; requests already running finish
+     * on the old one.
+     *
+     * @param reload data reloaded from changed files
+     */
+    void reload(DataReloader.Reload reload) {
+        this.store.update(graph -> {
+            if (reload.buildingTable() != null) {
+                graph.addNodes(reload.addedNodes());
+                graph.applyEdgeChanges(reload.edgeChanges());
+                graph.removeNodes(reload.removedNodes());
+            }
+        }, old -> new Campus(
+            reload.buildingTable() != null ?
+                reload.buildingTable() : old.buildingTable(),
+            reload.mapBoard() != null ?
+                reload.borderTable() : old.borderTable(),
+            reload.mapBoard() != null ?
+                reload.mapBoard().unstyled() : old.board(),
+            reload.buildingTable() != null ?
+                new ServiceIndex(reload.buildingTable()) : old.services()));
+    }
+
+    /**
+     * Start serving in the background.
+     *
+     * @param port port to listen on, 0 for any free port
+     * @return The port actually bound.
+     * @throws IOException if the port cannot be bound.
+     */
+    int start(int port) throws IOException {
+        this.workers = new ThreadPoolExecutor(WORKERS, WORKERS,
+            0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(QUEUE_CAPACITY));
+
+        this.server = HttpServer.create(new InetSocketAddress(port), 0);
+        this.server.createContext("/route",   this.timed(this::route));
+        this.server.createContext("/service", this.timed(this::service));
+        this.server.createContext("/map",     this.timed(this::map));
+        this.server.createContext("/stats",   this::stats);
+        this.server.setExecutor(this.admission());
+        this.server.start();
+        return this.server.getAddress().getPort();
+    }
+
+    /**
+     * Stop serving, giving open exchanges up to a second to finish.
+     */
+    void stop() {
+        this.server.stop(1);
+        this.workers.shutdown();
+    }
+
+    /**
+     * @return Latencies of the requests served so far.
+     */
+    LatencyHistogram latency() {
+        return this.latency;
+    }
+
+    /**
+     * @return Number of requests refused because the queue was full.
+     */
+    long rejectedCount() {
+        return this.rejected.sum();
+    }
+
+    /**
+     * Executor that hands exchanges to the worker pool, or runs them right
+     * away in shedding mode when the queue is full.
+     */
+    private Executor admission() {
+        return task -> {
+            try {
+                this.workers.execute(task);
+            } catch (RejectedExecutionException e) {
+                this.rejected.increment();
+                SHEDDING.set(true);
+                try {
+                    task.run();
+                } finally {
+                    SHEDDING.set(false);
+                }
+            }
+        };
+    }
+
+    /**
+     * Wrap a handler with load shedding, error replies and latency
+     * recording.
+     */
+    private HttpHandler timed(Endpoint endpoint) {
+        return exchange -> {
+            final long start = System.nanoTime();
+            try (exchange) {
+                if (SHEDDING.get()) {
+                    reply(exchange, 503, "application/json",
+                          error("Server busy, try again later."));
+                    return;
+                }
+                try {
+                    HashMap<String, String> query =
+                        parseQuery(exchange.getRequestURI());
+                    endpoint.handle(exchange, query);
+                } catch (IllegalArgumentException | NullPointerException e) {
+                    reply(exchange, 400, "application/json",
+                          error(String.valueOf(e.getMessage())));
+                }
+            } finally {
+                this.latency.record(System.nanoTime() - start);
+            }
+        };
+    }
+
+    /**
+     * A request handler given the decoded query parameters.
+     */
+    @FunctionalInterface
+    private interface Endpoint {
+        void handle(HttpExchange exchange, HashMap<String, String> query)
+            throws IOException;
+    }
+
+    /**
+     * /route?src=&tgt= : the shortest path with its distance.
+     */
+    private void route(HttpExchange exchange, HashMap<String, String> query)
+        throws IOException
+    {
+        final int src = intParam(query, "src");
+        final int tgt = intParam(query, "tgt");
+        final GraphStore.Snapshot<Campus> snap = store.snapshot();
+        final CsrGraph graph = snap.graph();
+        ArrayList<Integer> path = graph.getShortestPath(src, tgt);
+
+        reply(exchange, 200, "application/json",
+              "{\"src\":" + src + ",\"tgt\":" + tgt + ",\"distance\":" +
+              distance(graph, path) + ",\"path\":" +
+              toJson(snap.data(), path) + "}");
+    }
+
+    /**
+     * /service?type= : buildings with the service, or with the services
+     * combined by and, or, not as in ServiceIndex; with &src= the path to
+     * the nearest of them.
+     */
+    private void service(HttpExchange exchange, HashMap<String, String> query)
+        throws IOException
+    {
+        final String type = query.get("type");
+        if (type == null)
+            throw new IllegalArgumentException("Missing parameter type.");
+        final GraphStore.Snapshot<Campus> snap = store.snapshot();
+        final Campus campus = snap.data();
+        ArrayList<Integer> selected = new ArrayList<>();
+        for (int id : campus.services().select(type))
+            selected.add(id);
+
+        if (!query.containsKey("src")) {
+            reply(exchange, 200, "application/json",
+                  "{\"buildings\":" + toJson(campus, selected) + "}");
+            return;
+        }
+
+        final int src = intParam(query, "src");
+        final CsrGraph graph = snap.graph();
+        ArrayList<Integer> path = graph.getShortestPathToNearest(
+            src, selected.stream().mapToInt(Integer::intValue).toArray());
+
+        reply(exchange, 200, "application/json",
+              "{\"src\":" + src + ",\"nearest\":" + path.get(path.size() - 1) +
+              ",\"distance\":" + distance(graph, path) +
+              ",\"path\":" + toJson(campus, path) + "}");
+    }
+
+    /**
+     * /map[?src=&tgt=] : the campus map, with the route highlighted.
+     */
+    private void map(HttpExchange exchange, HashMap<String, String> query)
+        throws IOException
+    {
+        final GraphStore.Snapshot<Campus> snap = store.snapshot();
+        ArrayList<Integer> path = new ArrayList<>();
+        if (query.containsKey("src") || query.containsKey("tgt"))
+            path = snap.graph().getShortestPath(
+                intParam(query, "src"), intParam(query, "tgt"));
+
+        reply(exchange, 200, "text/plain; charset=utf-8",
+              renderMap(snap.data(), path));
+    }
+
+    /**
+     * /stats : latency percentiles and refused requests, not recorded.
+     */
+    private void stats(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            reply(exchange, 200, "text/plain; charset=utf-8",
+                  "latency: " + latency + "\nrejected: " + rejected.sum() +
+                  "\n");
+        }
+    }
+
+    /**
+     * Render the map with the given buildings highlighted, the same way
+     * MapApp does, on a private copy so requests can render in parallel.
+     * Buildings that are not drawn on the map are skipped.
+     */
+    private static String renderMap(Campus campus,
+                                    ArrayList<Integer> selected)
+    {
+        MapBoard board = campus.board().unstyled();
+        for (int id : selected) {
+            final ArrayList<int[]> border = campus.borderTable().get(id);
+            if (border == null)
+                continue;
+            for (int[] p : border)
+                board.setColor(p[0], p[1], Color.C043);
+        }
+        return board.render();
+    }
+
+    private static String toJson(Campus campus, ArrayList<Integer> ids) {
+        StringJoiner sj = new StringJoiner(",", "[", "]");
+        for (int id : ids) {
+            Building b = campus.buildingTable().get(id);
+            sj.add("{\"id\":" + id + ",\"name\":\"" +
+                   BatchRunner.jsonEscape(b == null ? "" : b.name) + "\"}");
+        }
+        return sj.toString();
+    }
+
+    /**
+     * @return Cost of a path returned by getShortestPath, whose graph
+     *         edges run from each node to the one before it.
+     */
+    private static int distance(CsrGraph graph, ArrayList<Integer> path) {
+        int total = 0;
+        for (int i = 0; i + 1 < path.size(); ++i) {
+            total += graph.costs()[graph.edgeIndex(
+                graph.indexOf(path.get(i + 1)), graph.indexOf(path.get(i)))];
+        }
+        return total;
+    }
+
+    private static int intParam(HashMap<String, String> query, String name) {
+        final String value = query.get(name);
+        if (value == null)
+            throw new IllegalArgumentException(
+                "Missing parameter " + name + ".");
+        return Integer.parseInt(value.trim());
+    }
+
+    private static HashMap<String, String> parseQuery(URI uri) {
+        HashMap<String, String> query = new HashMap<>();
+        final String raw = uri.getRawQuery();
+        if (raw == null)
+            return query;
+
+        for (String pair : raw.split("&")) {
+            final int eq = pair.indexOf('=');
+            if (eq < 0)
+                query.put(decode(pair), "");
+            else
+                query.put(decode(pair.substring(0, eq)),
+                          decode(pair.substring(eq + 1)));
+        }
+        return query;
+    }
+
+    private static String decode(String text) {
+        return URLDecoder.decode(text, StandardCharsets.UTF_8);
+    }
+
+    private static String error(String message) {
+        return "{\"error\":\"" + BatchRunner.jsonEscape(message) + "\"}";
+    }
+
+    private static void reply(HttpExchange exchange, int status,
+                              String type, String body) throws IOException
+    {
+        final byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", type);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(bytes);
+        }
+    }
+}
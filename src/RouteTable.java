@@ -0,0 +1,85 @@
+/**
+ * @file   RouteTable.java
+ * @brief  Precomputed all-pairs distance and next-hop tables for small
+ *         graphs such as the campus. One Dijkstra search per target node
+ *         runs in parallel at startup; afterwards a query is a walk along
+ *         the next-hop table, O(path length), without any search.
+ *
+ * @see    DijkstraEngine
+ * @author Xin Cai
+ */
+import java.util.ArrayList;
+import java.util.stream.IntStream;
+
+
+final class RouteTable {
+    /** Graphs up to this many nodes get a route table by default */
+    static final int AUTO_THRESHOLD = 2_000;
+
+    private final CsrGraph graph;
+    private final int n;
+
+    /* row t holds the distance of every node to t and its next hop
+       towards t, i.e. its predecessor in the search tree rooted at t */
+    private final int[] dist;
+    private final int[] next;
+
+    /**
+     * Compute the tables, using every core of the machine.
+     *
+     * @param graph a frozen graph with at most AUTO_THRESHOLD nodes or
+     *              enough memory for two n-by-n int tables
+     */
+    RouteTable(CsrGraph graph) {
+        this.graph = graph;
+        this.n     = graph.nodeCount();
+        this.dist  = new int[Math.multiplyExact(n, n)];
+        this.next  = new int[Math.multiplyExact(n, n)];
+
+        final DijkstraEngine engine = graph.engine();
+        IntStream.range(0, n).parallel()
+            .forEach(t -> engine.searchTree(t, dist, next, t * n));
+    }
+
+    /**
+     * @param graph a frozen graph
+     * @return True if the graph is small enough for an all-pairs table.
+     */
+    static boolean fits(CsrGraph graph) {
+        return graph.nodeCount() <= AUTO_THRESHOLD;
+    }
+
+    /**
+     * Same semantics as Graph.getShortestPath, read from the tables.
+     *
+     * @param sid Id of the source node.
+     * @param tid Id of the target node.
+     * @return shortest path between these nodes.
+     * @throws IllegalArgumentException if a node is missing or unreachable.
+     */
+    ArrayList<Integer> getShortestPath(int sid, int tid) {
+        final int s = graph.requireIndex(sid);
+        final int t = graph.requireIndex(tid);
+        final int row = t * n;
+
+        if (dist[row + s] == DijkstraEngine.UNREACHABLE)
+            throw new IllegalArgumentException(
+                "No path from " + sid + " to " + tid + ".");
+
+        ArrayList<Integer> path = new ArrayList<>();
+        for (int v = s; v != t; v = next[row + v])
+            path.add(graph.idOf(v));
+        path.add(tid);
+
+        return path;
+    }
+
+    /**
+     * @param sid Id of the source node.
+     * @param tid Id of the target node.
+     * @return Cost of the shortest path, or UNREACHABLE.
+     */
+    int distance(int sid, int tid) {
+        return dist[graph.requireIndex(tid) * n + graph.requireIndex(sid)];
+    }
+}
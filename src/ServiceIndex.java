@@ -0,0 +1,256 @@
+/**
+ * @file   ServiceIndex.java
+ * @brief  Inverted index from services to the buildings offering them. Each
+ *         service has a bitset of building ids in a long[], so a query such
+ *         as "dining and parking but not library" is answered with a few
+ *         word operations per 64 buildings, instead of a service check on
+ *         every building. Services are keyed by name, so any number of
+ *         them can be indexed, not only the bits of Building.SERVICE_MASK.
+ *
+ *         Queries combine service names with "and" ("&"), "or" ("|"),
+ *         "not" ("!") and parentheses; "but" reads as "and". NOT binds
+ *         tightest and OR loosest, and NOT is taken relative to all the
+ *         indexed buildings.
+ *
+ * @see    Building
+ * @author Xin Cai
+ */
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+
+final class ServiceIndex {
+    /* bitset of the building ids of each service, by lower-case name */
+    private final HashMap<String, long[]> services = new HashMap<>();
+
+    /* bitset of every indexed building, the universe of NOT */
+    private long[] buildings = new long[1];
+
+    /**
+     * An empty index, for adding services one building at a time.
+     */
+    ServiceIndex() {}
+
+    /**
+     * Index the services of every building in the table. The services of
+     * Building.SERVICE_NAME are known even if no building offers them.
+     *
+     * @param buildingTable buildings by id
+     */
+    ServiceIndex(Map<Integer, Building> buildingTable) {
+        for (String service : Building.SERVICE_NAME)
+            this.services.put(service.toLowerCase(Locale.ROOT), new long[1]);
+        for (Building building : buildingTable.values()) {
+            this.addBuilding(building.id);
+            for (String service : building.getServices())
+                this.add(service, building.id);
+        }
+    }
+
+    /**
+     * Add a building without services, so that NOT can select it.
+     *
+     * @param id Id of the building
+     * @throws IllegalArgumentException if the id is negative.
+     */
+    void addBuilding(int id) {
+        this.buildings = set(this.buildings, id);
+    }
+
+    /**
+     * Record that a building offers a service. The service is created by
+     * its first building.
+     *
+     * @param service name of the service, in any case
+     * @param id Id of the building
+     * @throws IllegalArgumentException if the id is negative.
+     */
+    void add(String service, int id) {
+        this.addBuilding(id);
+        final String key = service.toLowerCase(Locale.ROOT);
+        this.services.put(key,
+            set(this.services.getOrDefault(key, new long[1]), id));
+    }
+
+    /**
+     * @return The lower-case names of the indexed services.
+     */
+    Set<String> services() {
+        return this.services.keySet();
+    }
+
+    /**
+     * @param query services combined with and, or, not and parentheses
+     * @return Ids of the matching buildings, in ascending order.
+     * @throws IllegalArgumentException if the query is malformed or names
+     *         an unknown service.
+     */
+    int[] select(String query) {
+        return ids(this.evaluate(query));
+    }
+
+    /**
+     * @param query services combined with and, or, not and parentheses
+     * @return Bitset of the ids of the matching buildings; for a single
+     *         service it is the one in the index, not to be modified.
+     * @throws IllegalArgumentException if the query is malformed or names
+     *         an unknown service.
+     */
+    long[] evaluate(String query) {
+        Parser parser = new Parser(query);
+        long[] bits = parser.or();
+        if (parser.pos < parser.tokens.size())
+            throw new IllegalArgumentException(
+                "Unexpected '" + parser.tokens.get(parser.pos) + "' in query.");
+        return bits;
+    }
+
+    /**
+     * @return The ids whose bits are set, in ascending order.
+     */
+    static int[] ids(long[] bits) {
+        int count = 0;
+        for (long word : bits)
+            count += Long.bitCount(word);
+
+        final int[] ids = new int[count];
+        int k = 0;
+        for (int w = 0; w < bits.length; ++w)
+            for (long word = bits[w]; word != 0; word &= word - 1)
+                ids[k++] = 64 * w + Long.numberOfTrailingZeros(word);
+        return ids;
+    }
+
+    private static long[] set(long[] bits, int id) {
+        if (id < 0)
+            throw new IllegalArgumentException("Negative building id " + id);
+        if (id / 64 >= bits.length)
+            bits = Arrays.copyOf(bits, Math.max(2 * bits.length, id / 64 + 1));
+        bits[id / 64] |= 1L << id;
+        return bits;
+    }
+
+    private static long[] or(long[] a, long[] b) {
+        if (a.length < b.length)
+            return or(b, a);
+        final long[] r = a.clone();
+        for (int w = 0; w < b.length; ++w)
+            r[w] |= b[w];
+        return r;
+    }
+
+    private static long[] and(long[] a, long[] b) {
+        final long[] r = new long[Math.min(a.length, b.length)];
+        for (int w = 0; w < r.length; ++w)
+            r[w] = a[w] & b[w];
+        return r;
+    }
+
+    /**
+     * @return The bits of all that are not set in b.
+     */
+    private static long[] andNot(long[] all, long[] b) {
+        final long[] r = all.clone();
+        for (int w = 0; w < Math.min(r.length, b.length); ++w)
+            r[w] &= ~b[w];
+        return r;
+    }
+
+    /**
+     * Recursive descent over the tokens of a query:
+     *   or   := and ("or" and)*
+     *   and  := not (("and" | "but") not)*
+     *   not  := "not" not | "(" or ")" | service
+     */
+    private final class Parser {
+        private final ArrayList<String> tokens = new ArrayList<>();
+        private int pos;
+
+        /**
+         * Split the query into words and the symbols ( ) & | !, in one
+         * scan over its chars.
+         */
+        Parser(String query) {
+            final int n = query.length();
+            for (int i = 0; i < n; ) {
+                final char c = query.charAt(i);
+                if (Character.isWhitespace(c)) {
+                    ++i;
+                } else if (isSymbol(c)) {
+                    this.add(query.substring(i, ++i));
+                } else {
+                    final int start = i;
+                    while (i < n && !Character.isWhitespace(query.charAt(i))
+                           && !isSymbol(query.charAt(i)))
+                        ++i;
+                    this.add(query.substring(start, i)
+                                  .toLowerCase(Locale.ROOT));
+                }
+            }
+        }
+
+        private void add(String token) {
+            tokens.add(switch (token) {
+                case "&", "but" -> "and";
+                case "|"        -> "or";
+                case "!"        -> "not";
+                default         -> token;
+            });
+        }
+
+        private static boolean isSymbol(char c) {
+            return c == '(' || c == ')' || c == '&' || c == '|' || c == '!';
+        }
+
+        long[] or() {
+            long[] bits = this.and();
+            while (this.accept("or"))
+                bits = ServiceIndex.or(bits, this.and());
+            return bits;
+        }
+
+        long[] and() {
+            long[] bits = this.not();
+            while (this.accept("and")) {
+                // "and not x" is one pass over the words of bits
+                if (this.accept("not"))
+                    bits = andNot(bits, this.not());
+                else
+                    bits = ServiceIndex.and(bits, this.not());
+            }
+            return bits;
+        }
+
+        long[] not() {
+            if (this.accept("not"))
+                return andNot(buildings, this.not());
+            if (this.accept("(")) {
+                long[] bits = this.or();
+                if (!this.accept(")"))
+                    throw new IllegalArgumentException("Missing ')' in query.");
+                return bits;
+            }
+            if (pos == tokens.size())
+                throw new IllegalArgumentException("Incomplete query.");
+
+            final String name = tokens.get(pos++);
+            final long[] bits = services.get(name);
+            if (bits == null)
+                throw new IllegalArgumentException(
+                    "Unknown service " + name + ".");
+            return bits;
+        }
+
+        private boolean accept(String token) {
+            if (pos < tokens.size() && tokens.get(pos).equals(token)) {
+                ++pos;
+                return true;
+            }
+            return false;
+        }
+    }
+}
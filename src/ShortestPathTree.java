@@ -0,0 +1,95 @@
+/**
+ * @file   ShortestPathTree.java
+ * @brief  The shortest paths from one source node to every other node,
+ *         kept as distance and predecessor arrays over dense node indices.
+ *         The tree is searched once on the reverse graph, with the same
+ *         orientation as Graph.getShortestPath(sid, tid), so extracting
+ *         the path to any target only walks that path.
+ *
+ * @see    Graph
+ * @author Xin Cai
+ */
+import java.util.ArrayList;
+import java.util.Collections;
+
+
+public final class ShortestPathTree {
+    private final CsrGraph graph;
+    private final int source;
+
+    /* dist[v] is the path cost between source and v, and next[v] the
+       node after v on that path when walking towards the source */
+    private final int[] dist;
+    private final int[] next;
+
+    /**
+     * Compute the tree of the given source node.
+     *
+     * @param graph a frozen graph
+     * @param sid Id of the source node.
+     * @throws IllegalArgumentException if the source node is missing.
+     */
+    ShortestPathTree(CsrGraph graph, int sid) {
+        this.graph  = graph;
+        this.source = sid;
+        this.dist   = new int[graph.nodeCount()];
+        this.next   = new int[graph.nodeCount()];
+
+        final int s = graph.requireIndex(sid);
+        graph.engine().searchReverseTree(s, dist, next, 0);
+    }
+
+    /**
+     * @return Id of the source node of this tree.
+     */
+    public int getSource() {
+        return this.source;
+    }
+
+    /**
+     * @return The frozen graph this tree was computed on.
+     */
+    CsrGraph getGraph() {
+        return this.graph;
+    }
+
+    /**
+     * @param tid Id of a target node.
+     * @return True if the target can be reached from the source.
+     */
+    public boolean hasPathTo(int tid) {
+        final int t = graph.indexOf(tid);
+        return t >= 0 && dist[t] != DijkstraEngine.UNREACHABLE;
+    }
+
+    /**
+     * @param tid Id of a target node.
+     * @return Cost of the shortest path, or UNREACHABLE.
+     */
+    public int getDistanceTo(int tid) {
+        return dist[graph.requireIndex(tid)];
+    }
+
+    /**
+     * Same result as Graph.getShortestPath(source, tid), in O(path length).
+     *
+     * @param tid Id of the target node.
+     * @return shortest path between the source and the target.
+     * @throws IllegalArgumentException if the target is missing or
+     *         unreachable.
+     */
+    public ArrayList<Integer> getPathTo(int tid) {
+        final int t = graph.requireIndex(tid);
+        if (dist[t] == DijkstraEngine.UNREACHABLE)
+            throw new IllegalArgumentException(
+                "No path from " + source + " to " + tid + ".");
+
+        // the walk runs from the target back to the source
+        ArrayList<Integer> path = new ArrayList<>();
+        for (int v = t; v != -1; v = next[v])
+            path.add(graph.idOf(v));
+
+        Collections.reverse(path);
+        return path;
+    }
+}
@@ -0,0 +1,294 @@
+/**
+ * @file   SnapshotReader.java
+ * @brief  A FileReader backed by a versioned binary snapshot of the campus
+ *         data: the CSR graph arrays, the building records with their
+ *         service bits, the map grid and the border coordinates. The
+ *         snapshot is written once from the text files and afterwards
+ *         memory-mapped and read with bulk copies, so startup needs no
+ *         parsing, no map scan and no HashMap graph. A CRC32 over the
+ *         payload and the size and modification time of both text files
+ *         guard it; a bad or stale snapshot falls back to the text files
+ *         and is written again, unless lines of the data file failed to
+ *         parse, so that they are reported again on the next start.
+ *
+ *         Layout, big-endian:
+ *           header  magic, format version, dat size, dat mtime, map size,
+ *                   map mtime, payload length, payload CRC32
+ *           payload n, nodeIds[n], offsets[n+1], targets[m], costs[m],
+ *                   buildings: count, (id, bits, name length, UTF-8 name)*,
+ *                   map: rows, cols, chars[rows*cols],
+ *                   borders: count, (id, cells, (row, col)*)*
+ *
+ * @see    FileReader
+ * @see    CsrGraph
+ * @author Xin Cai
+ */
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.zip.CRC32;
+
+
+class SnapshotReader extends FileReader {
+    /** "CMAP", first bytes of every snapshot */
+    static final int MAGIC = 0x434D4150;
+
+    /** Bumped whenever the layout changes; older snapshots are rebuilt */
+    static final int FORMAT_VERSION = 1;
+
+    /* magic, version, 4 longs of source stamps, length and checksum */
+    private static final int HEADER_BYTES = 4 + 4 + 4 * 8 + 4 + 4;
+
+    /**
+     * Read a snapshot that was already validated.
+     */
+    private SnapshotReader(ByteBuffer payload) {
+        super();
+
+        // CSR graph
+        final int n = payload.getInt();
+        final int[] nodeIds = readInts(payload, n);
+        final int[] offsets = readInts(payload, n + 1);
+        final int[] targets = readInts(payload, offsets[n]);
+        final int[] costs   = readInts(payload, offsets[n]);
+        this.campusGraph = new Graph(
+            new CsrGraph(nodeIds, offsets, targets, costs));
+
+        // buildings
+        final int buildings = payload.getInt();
+        byte[] name = new byte[64];
+        for (int i = 0; i < buildings; ++i) {
+            final int id   = payload.getInt();
+            final int bits = payload.getInt();
+            final int len  = payload.getInt();
+            if (name.length < len)
+                name = new byte[len];
+            payload.get(name, 0, len);
+            this.buildingTable.put(id, new Building(id,
+                new String(name, 0, len, StandardCharsets.UTF_8), bits));
+        }
+
+        // map grid, including the newline cell of each row
+        final int rows = payload.getInt();
+        final int cols = payload.getInt();
+        final char[] chars = new char[rows * cols];
+        payload.asCharBuffer().get(chars);
+        payload.position(payload.position() + 2 * chars.length);
+        this.mapBoard = new MapBoard(rows, cols, chars);
+
+        // border cells
+        final int borders = payload.getInt();
+        for (int i = 0; i < borders; ++i) {
+            final int id    = payload.getInt();
+            final int cells = payload.getInt();
+            ArrayList<int[]> list = new ArrayList<>(cells);
+            for (int j = 0; j < cells; ++j)
+                list.add(new int[]{ payload.getInt(), payload.getInt() });
+            this.borderTable.put(id, list);
+        }
+    }
+
+    /**
+     * Load the campus data from the snapshot if it is valid and newer than
+     * both text files, otherwise parse the text files and, if every line
+     * parsed, write a fresh snapshot for the next start.
+     *
+     * @param datFile input file path for campus buildings
+     * @param mapFile input file path for campus map
+     * @param snapFile path of the snapshot file
+     * @return A reader holding the campus data.
+     */
+    static FileReader open(String datFile, String mapFile, String snapFile) {
+        try {
+            FileReader reader = load(datFile, mapFile, snapFile);
+            if (reader != null)
+                return reader;
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Ignoring snapshot: " + e.getMessage());
+        }
+
+        MappedFileReader reader = new MappedFileReader(datFile, mapFile);
+        if (!reader.getParseErrors().isEmpty()) {
+            System.err.println("Snapshot not written: " +
+                reader.getParseErrors().size() + " lines failed to parse");
+            return reader;
+        }
+        try {
+            write(reader, datFile, mapFile, snapFile);
+        } catch (IOException e) {
+            System.err.println("Error writing snapshot: " + e.getMessage());
+        }
+        return reader;
+    }
+
+    /**
+     * @return The snapshot as a reader, or null if it is missing, from
+     *         another format version, or older than the text files.
+     * @throws IOException if the snapshot cannot be read or is corrupt.
+     */
+    static FileReader load(String datFile, String mapFile, String snapFile)
+        throws IOException
+    {
+        final Path snap = Path.of(snapFile);
+        if (!Files.exists(snap))
+            return null;
+
+        try (FileChannel ch = FileChannel.open(snap, StandardOpenOption.READ)) {
+            if (ch.size() < HEADER_BYTES || ch.size() > Integer.MAX_VALUE)
+                throw new IOException("Bad snapshot size " + ch.size());
+            MappedByteBuffer buf =
+                ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+
+            if (buf.getInt() != MAGIC)
+                throw new IOException("Not a snapshot file");
+            if (buf.getInt() != FORMAT_VERSION)
+                return null;
+
+            final long[] stamps = sourceStamps(datFile, mapFile);
+            for (long stamp : stamps)
+                if (buf.getLong() != stamp)
+                    return null;
+
+            final int length = buf.getInt();
+            final int crc    = buf.getInt();
+            if (length != buf.remaining())
+                throw new IOException("Truncated snapshot");
+
+            ByteBuffer payload = buf.slice();
+            CRC32 checksum = new CRC32();
+            checksum.update(payload.duplicate());
+            if ((int) checksum.getValue() != crc)
+                throw new IOException("Snapshot checksum mismatch");
+
+            return new SnapshotReader(payload);
+        }
+    }
+
+    /**
+     * Write the data of a reader as a snapshot of the given text files.
+     * The file is written next to its target and moved in place, so a
+     * crash never leaves a half-written snapshot behind.
+     *
+     * @throws IOException if the snapshot cannot be written.
+     */
+    static void write(FileReader reader, String datFile, String mapFile,
+                      String snapFile) throws IOException
+    {
+        // payload
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(bytes))) {
+            writePayload(reader, out);
+        }
+        final byte[] payload = bytes.toByteArray();
+        CRC32 checksum = new CRC32();
+        checksum.update(payload);
+
+        // header
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putInt(MAGIC).putInt(FORMAT_VERSION);
+        for (long stamp : sourceStamps(datFile, mapFile))
+            header.putLong(stamp);
+        header.putInt(payload.length).putInt((int) checksum.getValue());
+        header.flip();
+
+        final Path snap = Path.of(snapFile);
+        final Path temp = snap.resolveSibling(snap.getFileName() + ".tmp");
+        try (FileChannel ch = FileChannel.open(temp,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer body = ByteBuffer.wrap(payload);
+            while (header.hasRemaining() || body.hasRemaining())
+                ch.write(new ByteBuffer[]{ header, body });
+        }
+        Files.move(temp, snap, StandardCopyOption.REPLACE_EXISTING,
+                   StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writePayload(FileReader reader, DataOutputStream out)
+        throws IOException
+    {
+        // CSR graph
+        final CsrGraph graph = reader.getCampusGraph().freeze();
+        final int n = graph.nodeCount();
+        out.writeInt(n);
+        writeInts(out, graph.nodeIds());
+        writeInts(out, graph.offsets());
+        writeInts(out, graph.targets());
+        writeInts(out, graph.costs());
+
+        // buildings
+        final HashMap<Integer, Building> buildings = reader.getBuildingTable();
+        out.writeInt(buildings.size());
+        for (Building b : buildings.values()) {
+            int bits = 0;
+            for (int mask : Building.SERVICE_MASK)
+                if (b.hasService(mask))
+                    bits |= mask;
+            final byte[] name = b.name.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(b.id);
+            out.writeInt(bits);
+            out.writeInt(name.length);
+            out.write(name);
+        }
+
+        // map grid
+        final MapBoard board = reader.getMapBoard();
+        out.writeInt(board.rows());
+        out.writeInt(board.cols());
+        for (char ch : board.chars())
+            out.writeChar(ch);
+
+        // border cells
+        final HashMap<Integer, ArrayList<int[]>> borders =
+            reader.getBorderTable();
+        out.writeInt(borders.size());
+        for (var entry : borders.entrySet()) {
+            out.writeInt(entry.getKey());
+            out.writeInt(entry.getValue().size());
+            for (int[] p : entry.getValue()) {
+                out.writeInt(p[0]);
+                out.writeInt(p[1]);
+            }
+        }
+    }
+
+    /**
+     * @return Size and modification time of both text files.
+     */
+    private static long[] sourceStamps(String datFile, String mapFile)
+        throws IOException
+    {
+        final Path dat = Path.of(datFile);
+        final Path map = Path.of(mapFile);
+        return new long[]{
+            Files.size(dat), Files.getLastModifiedTime(dat).toMillis(),
+            Files.size(map), Files.getLastModifiedTime(map).toMillis()
+        };
+    }
+
+    private static int[] readInts(ByteBuffer buf, int count) {
+        final int[] values = new int[count];
+        buf.asIntBuffer().get(values);
+        buf.position(buf.position() + 4 * count);
+        return values;
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values)
+        throws IOException
+    {
+        for (int v : values)
+            out.writeInt(v);
+    }
+}
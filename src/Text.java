@@ -12,7 +12,13 @@ class Text {
         "| - Press 'D' to highlight buildings with the 'Dining' service.\n" +
         "| - Press 'L' to highlight buildings with the 'Library' service.\n" +
         "| - Press 'P' to highlight buildings with the 'Parking' service.\n" +
+        "| - Press 'D', 'L' or 'P' and a building ID to find the nearest one.\n" +
+        "| - Press 'S' and services joined by and/or/not to combine them.\n" +
         "| - Press two building ID's separated by space to find shartest path.\n" +
+        "| - Press 'A', two building ID's and a count to find alternative routes.\n" +
+        "| - Press 'F' and part of a building name to search buildings by name.\n" +
+        "| - Building names joined by 'to' work in place of two building ID's.\n" +
+        "| - Press 'C' to show route cache statistics.\n" +
         "| - Press 'X' to exit.";
     
     /** Prompt message */
@@ -47,6 +53,36 @@ class Text {
     final static String SHORTEST_PATH = 
             "\n[ " + Color.C222.val + "Shortest Path" + Color.RESET.val + " ]";
 
+    /** Alternative routes title */
+    final static String ALTERNATIVE_ROUTES = 
+            "\n[ " + Color.C222.val + "Alternative Routes" + Color.RESET.val + " ]";
+
+    /** Name search title */
+    final static String MATCHING_BUILDINGS = 
+        "\n[ " + Color.C222.val + "Matching Buildings" + Color.RESET.val + " ]";
+
+    /** Route cache title */
+    final static String ROUTE_CACHE = 
+        "\n[ " + Color.C222.val + "Route Cache" + Color.RESET.val + " ]\n" +
+        "| - ";
+
+    /** Note under a map that does not show all of the selection */
+    final static String VIEW_CLIPPED = 
+        "| - Part of the selection lies outside the view; pass --view " +
+        "ROWSxCOLS for a larger one.\n";
+
+    /** Reload message */
+    final static String RELOADED = 
+        "\n[ " + Color.C222.val + "Data Reloaded" + Color.RESET.val + " ]\n" +
+        "| - ";
+
+    /** Nearest service title */
+    public static String nearestService(String service) {
+        return 
+            "\n[ " + Color.C222.val + "Nearest Service: " + Color.RESET.val +
+            Color.C111.val + service + Color.RESET.val + " ]";
+    }
+
     /** Selected service title */
     public static String selectedService(String service) {
         return 
@@ -0,0 +1,318 @@
+/**
+ * @file   TiledMap.java
+ * @brief  A campus map too large to hold or draw at once. The map file is
+ *         memory-mapped and only the start of each line is indexed; the
+ *         grid is split into tiles of TILE_ROWS by TILE_COLS cells that are
+ *         decoded from the mapped bytes the first time they are touched
+ *         and kept in a bounded LRU cache. A View is a window of the map,
+ *         e.g. around the bounding box of a route, and only the tiles it
+ *         intersects are loaded to build its MapBoard. So memory and the
+ *         time of a render depend on the size of the view, not of the map.
+ *
+ *         The grid is laid out as MapBoard.fromRows would: as wide as the
+ *         first line, shorter lines padded with spaces, and a newline cell
+ *         ending each row.
+ *
+ * @see    MapBoard
+ * @see    MapGrid
+ * @author Xin Cai
+ */
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+final class TiledMap implements MapGrid {
+    /** Size of a tile in cells */
+    static final int TILE_ROWS = 64;
+    static final int TILE_COLS = 256;
+
+    /** Number of tiles kept in memory, about 32 MB of glyphs */
+    static final int MAX_TILES = 1024;
+
+    /** Rows and columns of the terminal a view is drawn on, by default */
+    static final int DEFAULT_VIEW_ROWS = 60;
+    static final int DEFAULT_VIEW_COLS = 200;
+
+    /* cells around a bounding box that are drawn with it */
+    private static final int VIEW_MARGIN = 4;
+
+    /**
+     * A window of the map.
+     *
+     * @param top first row
+     * @param left first column
+     * @param rows number of rows
+     * @param cols number of columns, not counting the newline cell
+     */
+    record View(int top, int left, int rows, int cols) {
+        /**
+         * @return True if the cell at row r, column c is in the window.
+         */
+        boolean contains(int r, int c) {
+            return r >= top && r < top + rows && c >= left && c < left + cols;
+        }
+    }
+
+    private final MappedByteBuffer buf;
+
+    /* line r is buf[lineStart[r], lineEnd[r]); lines with bytes that are
+       not ASCII are decoded whole, so that cells stay chars, not bytes */
+    private final int[] lineStart;
+    private final int[] lineEnd;
+    private final BitSet nonAscii;
+    private final int width;
+
+    /* decoded tiles by tile row and column, least recently used first */
+    private final LinkedHashMap<Long, char[]> tiles;
+    private long tileLoads;
+
+    /* the tile of the last charAt, which a row-by-row scan hits again */
+    private long lastKey = -1;
+    private char[] lastTile;
+
+    /**
+     * Map the file and index its lines.
+     *
+     * @param mapFile input file path for campus map
+     * @throws IOException if the file cannot be read or exceeds 2 GB.
+     */
+    TiledMap(String mapFile) throws IOException {
+        try (FileChannel ch = FileChannel.open(Path.of(mapFile),
+                                               StandardOpenOption.READ)) {
+            if (ch.size() > Integer.MAX_VALUE)
+                throw new IOException(mapFile + " is larger than 2 GB");
+            this.buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        }
+
+        // find the lines, leaving out the "\n" or "\r\n" that ends them
+        int[] starts = new int[1024];
+        int[] ends = new int[1024];
+        BitSet wide = new BitSet();
+        int count = 0;
+        final int size = buf.limit();
+        for (int pos = 0; pos < size; ) {
+            int end = pos;
+            boolean ascii = true;
+            byte b;
+            while (end < size && (b = buf.get(end)) != '\n') {
+                ascii &= b >= 0;
+                ++end;
+            }
+            if (count == starts.length) {
+                starts = Arrays.copyOf(starts, 2 * count);
+                ends   = Arrays.copyOf(ends, 2 * count);
+            }
+            if (!ascii)
+                wide.set(count);
+            starts[count] = pos;
+            ends[count++] =
+                (end > pos && buf.get(end - 1) == '\r') ? end - 1 : end;
+            pos = end + 1;
+        }
+        this.lineStart = Arrays.copyOf(starts, count);
+        this.lineEnd   = Arrays.copyOf(ends, count);
+        this.nonAscii  = wide;
+        this.width     = count == 0 ? 0 : this.decodeLine(0).length;
+
+        this.tiles = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, char[]> e) {
+                return size() > MAX_TILES;
+            }
+        };
+    }
+
+    /**
+     * @return Number of rows.
+     */
+    @Override
+    public int rows() {
+        return this.lineStart.length;
+    }
+
+    /**
+     * @return Number of cells per row, including the newline cell.
+     */
+    @Override
+    public int cols() {
+        return this.width + 1;
+    }
+
+    /**
+     * @return The glyph at row r, column c; like MapBoard, a column past
+     *         the end of the row runs on into the next rows.
+     */
+    @Override
+    public char charAt(int r, int c) {
+        final long i = (long) r * this.cols() + c;
+        r = (int) (i / this.cols());
+        c = (int) (i % this.cols());
+        if (r < 0 || r >= this.rows())
+            throw new IndexOutOfBoundsException("Row " + r + " of " +
+                                                this.rows());
+        if (c == this.width)
+            return '\n';
+
+        final long key = key(r / TILE_ROWS, c / TILE_COLS);
+        if (key != lastKey) {
+            lastTile = this.tile(r / TILE_ROWS, c / TILE_COLS);
+            lastKey  = key;
+        }
+        return lastTile[(r % TILE_ROWS) * TILE_COLS + c % TILE_COLS];
+    }
+
+    /**
+     * @return The border cells of the buildings on the map, scanned tile
+     *         by tile. The tiles of the scan are dropped afterwards, since
+     *         views need only a few of them.
+     */
+    HashMap<Integer, ArrayList<int[]>> borderTable() {
+        HashMap<Integer, ArrayList<int[]>> table = new HashMap<>();
+        FileReader.scanBorders(this, table);
+        this.tiles.clear();
+        this.lastKey  = -1;
+        this.lastTile = null;
+        return table;
+    }
+
+    /**
+     * The window around the bounding box of the given cells, with a margin,
+     * within the map. A bounding box too large for the terminal is cut to
+     * maxRows by maxCols from its top left corner, which View.contains
+     * shows; with no cells the window is the top left corner of the map.
+     *
+     * @param cells cells to show, as {row, column}
+     * @param maxRows rows of the terminal
+     * @param maxCols columns of the terminal, not counting the newline
+     * @return The window.
+     */
+    View viewAround(Iterable<int[]> cells, int maxRows, int maxCols) {
+        int top = Integer.MAX_VALUE, left = Integer.MAX_VALUE;
+        int bottom = -1, right = -1;
+        for (int[] p : cells) {
+            top    = Math.min(top, p[0]);
+            left   = Math.min(left, p[1]);
+            bottom = Math.max(bottom, p[0]);
+            right  = Math.max(right, p[1]);
+        }
+        if (bottom < 0)
+            return new View(0, 0, Math.min(this.rows(), maxRows),
+                            Math.min(this.width, maxCols));
+
+        top    = Math.max(0, top - VIEW_MARGIN);
+        left   = Math.max(0, left - VIEW_MARGIN);
+        bottom = Math.min(this.rows() - 1, bottom + VIEW_MARGIN);
+        right  = Math.min(this.width - 1, right + VIEW_MARGIN);
+        return new View(top, left, Math.min(bottom - top + 1, maxRows),
+                        Math.min(right - left + 1, maxCols));
+    }
+
+    /**
+     * Build the board of a window, loading only the tiles it intersects.
+     *
+     * @param view the window
+     * @return A board of view.rows() rows of view.cols() cells plus a
+     *         newline cell, which render like MapBoard rows.
+     */
+    MapBoard board(View view) {
+        final int cols = view.cols() + 1;
+        final char[] chars = new char[view.rows() * cols];
+        for (int tr = view.top() / TILE_ROWS;
+             tr * TILE_ROWS < view.top() + view.rows(); ++tr)
+        {
+            for (int tc = view.left() / TILE_COLS;
+                 tc * TILE_COLS < view.left() + view.cols(); ++tc)
+            {
+                // the part of this tile inside the view
+                final char[] tile = this.tile(tr, tc);
+                final int r0 = Math.max(view.top(), tr * TILE_ROWS);
+                final int r1 = Math.min(view.top() + view.rows(),
+                                        (tr + 1) * TILE_ROWS);
+                final int c0 = Math.max(view.left(), tc * TILE_COLS);
+                final int c1 = Math.min(view.left() + view.cols(),
+                                        (tc + 1) * TILE_COLS);
+                for (int r = r0; r < r1; ++r)
+                    System.arraycopy(tile,
+                        (r % TILE_ROWS) * TILE_COLS + c0 % TILE_COLS,
+                        chars, (r - view.top()) * cols + c0 - view.left(),
+                        c1 - c0);
+            }
+        }
+        for (int r = 0; r < view.rows(); ++r)
+            chars[r * cols + view.cols()] = '\n';
+        return new MapBoard(view.rows(), cols, chars);
+    }
+
+    /**
+     * @return Number of tiles held in memory now.
+     */
+    int residentTiles() {
+        return this.tiles.size();
+    }
+
+    /**
+     * @return Number of tiles decoded from the file so far.
+     */
+    long tileLoads() {
+        return this.tileLoads;
+    }
+
+    private static long key(int tileRow, int tileCol) {
+        return ((long) tileRow << 32) | tileCol;
+    }
+
+    /**
+     * @return The glyphs of a tile, row by row, TILE_COLS to a row and
+     *         padded with spaces past the map; decoded if not cached.
+     */
+    private char[] tile(int tileRow, int tileCol) {
+        final long key = key(tileRow, tileCol);
+        char[] tile = this.tiles.get(key);
+        if (tile != null)
+            return tile;
+
+        tile = new char[TILE_ROWS * TILE_COLS];
+        Arrays.fill(tile, ' ');
+        final int c0 = tileCol * TILE_COLS;
+        final int c1 = Math.min(this.width, c0 + TILE_COLS);
+        for (int t = 0; t < TILE_ROWS; ++t) {
+            final int r = tileRow * TILE_ROWS + t;
+            if (r >= this.rows())
+                break;
+
+            if (this.nonAscii.get(r)) {
+                final char[] line = this.decodeLine(r);
+                if (line.length > c0)
+                    System.arraycopy(line, c0, tile, t * TILE_COLS,
+                                     Math.min(line.length, c1) - c0);
+            } else {
+                final int end = Math.min(lineEnd[r], lineStart[r] + c1);
+                for (int i = lineStart[r] + c0; i < end; ++i)
+                    tile[t * TILE_COLS + i - lineStart[r] - c0] =
+                        (char) buf.get(i);
+            }
+        }
+        ++this.tileLoads;
+        this.tiles.put(key, tile);
+        return tile;
+    }
+
+    /**
+     * @return The chars of line r.
+     */
+    private char[] decodeLine(int r) {
+        byte[] bytes = new byte[lineEnd[r] - lineStart[r]];
+        buf.get(lineStart[r], bytes);
+        return new String(bytes, StandardCharsets.UTF_8).toCharArray();
+    }
+}